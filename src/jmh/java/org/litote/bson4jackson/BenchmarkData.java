@@ -0,0 +1,152 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.litote.bson4jackson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Generates the documents and objects used by the benchmarks. All
+ * data is deterministic so results of different runs are comparable.
+ * @author Michel Kraemer
+ */
+final class BenchmarkData {
+	private BenchmarkData() {
+		//hidden constructor
+	}
+
+	/**
+	 * Gets the number of items for the given document size
+	 * @param size the size (<code>small</code>, <code>medium</code> or
+	 * <code>large</code>)
+	 * @return the number of items
+	 */
+	static int getItemCount(String size) {
+		if (size.equals("small")) {
+			return 0;
+		} else if (size.equals("medium")) {
+			return 20;
+		} else if (size.equals("large")) {
+			return 5000;
+		}
+		throw new IllegalArgumentException("Unknown document size: " + size);
+	}
+
+	/**
+	 * Creates a document of the given size. A small document only
+	 * contains a few scalar values (about 200 bytes), a medium one
+	 * additionally contains 20 embedded documents (about 3 KB) and a
+	 * large one 5000 (about 600 KB). The document can be passed to
+	 * Jackson (it is a {@link java.util.Map}) as well as to the MongoDB
+	 * driver.
+	 * @param size the size (<code>small</code>, <code>medium</code> or
+	 * <code>large</code>)
+	 * @return the document
+	 */
+	static BSONObject createDocument(String size) {
+		BasicBSONObject r = new BasicBSONObject();
+		r.put("id", "order-1234567890");
+		r.put("customer", "Elvis Presley");
+		r.put("email", "elvis@example.com");
+		r.put("quantity", 42);
+		r.put("total", 1234.5);
+		r.put("timestamp", 1500000000000L);
+		r.put("paid", true);
+		r.put("date", new Date(1500000000000L));
+		r.put("tags", Arrays.asList("music", "vinyl", "rock'n'roll"));
+		int n = getItemCount(size);
+		if (n > 0) {
+			List<BSONObject> items = new ArrayList<BSONObject>(n);
+			for (int i = 0; i < n; ++i) {
+				BasicBSONObject item = new BasicBSONObject();
+				item.put("name", "Item number " + i);
+				item.put("count", i);
+				item.put("price", i * 0.25);
+				item.put("available", i % 2 == 0);
+				items.add(item);
+			}
+			r.put("items", items);
+		}
+		return r;
+	}
+
+	/**
+	 * Creates an {@link Order} with the same contents as the document
+	 * returned by {@link #createDocument(String)}
+	 * @param size the size (<code>small</code>, <code>medium</code> or
+	 * <code>large</code>)
+	 * @return the order
+	 */
+	static Order createOrder(String size) {
+		Order r = new Order();
+		r.id = "order-1234567890";
+		r.customer = "Elvis Presley";
+		r.email = "elvis@example.com";
+		r.quantity = 42;
+		r.total = 1234.5;
+		r.timestamp = 1500000000000L;
+		r.paid = true;
+		r.date = new Date(1500000000000L);
+		r.tags = Arrays.asList("music", "vinyl", "rock'n'roll");
+		int n = getItemCount(size);
+		if (n > 0) {
+			r.items = new ArrayList<Item>(n);
+			for (int i = 0; i < n; ++i) {
+				Item item = new Item();
+				item.name = "Item number " + i;
+				item.count = i;
+				item.price = i * 0.25;
+				item.available = i % 2 == 0;
+				r.items.add(item);
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * A POJO used in databind benchmarks
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public static class Order {
+		public String id;
+		public String customer;
+		public String email;
+		public int quantity;
+		public double total;
+		public long timestamp;
+		public boolean paid;
+		public Date date;
+		public List<String> tags;
+		public List<Item> items;
+	}
+
+	/**
+	 * An item of an {@link Order}
+	 */
+	public static class Item {
+		public String name;
+		public int count;
+		public double price;
+		public boolean available;
+	}
+}
@@ -0,0 +1,174 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.litote.bson4jackson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Measures how fast {@link BsonGenerator} writes documents of various
+ * sizes, with and without {@link BsonGenerator.Feature#ENABLE_STREAMING},
+ * and compares it with the MongoDB driver's {@link BasicBSONEncoder}.
+ * Run with <code>-prof gc</code> to see how much garbage is produced
+ * per document.
+ * @author Michel Kraemer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BsonGeneratorBenchmark {
+	/**
+	 * The size of the document to write
+	 * @see BenchmarkData#createDocument(String)
+	 */
+	@Param({ "small", "medium", "large" })
+	public String size;
+
+	/**
+	 * The document to write
+	 */
+	private BSONObject _document;
+
+	/**
+	 * A factory creating generators that buffer the whole document
+	 */
+	private BsonFactory _factory;
+
+	/**
+	 * A factory creating streaming generators
+	 */
+	private BsonFactory _streamingFactory;
+
+	/**
+	 * An object mapper writing maps (with {@link BsonModule})
+	 */
+	private ObjectMapper _mapper;
+
+	/**
+	 * The stream the documents are written to (reset before every
+	 * invocation so its allocation does not dominate the results)
+	 */
+	private ByteArrayOutputStream _out;
+
+	/**
+	 * Creates the document and the factories
+	 */
+	@Setup
+	public void setUp() {
+		_document = BenchmarkData.createDocument(size);
+		_factory = new BsonFactory();
+		_streamingFactory = new BsonFactory();
+		_streamingFactory.enable(BsonGenerator.Feature.ENABLE_STREAMING);
+		_mapper = new ObjectMapper(new BsonFactory());
+		_mapper.registerModule(new BsonModule());
+		_out = new ByteArrayOutputStream(1024 * 1024);
+	}
+
+	/**
+	 * Writes a value with the streaming API
+	 * @param gen the generator to write to
+	 * @param value the value to write
+	 * @throws IOException if the value could not be written
+	 */
+	private static void writeValue(JsonGenerator gen, Object value) throws IOException {
+		if (value instanceof String) {
+			gen.writeString((String)value);
+		} else if (value instanceof Integer) {
+			gen.writeNumber((Integer)value);
+		} else if (value instanceof Long) {
+			gen.writeNumber((Long)value);
+		} else if (value instanceof Double) {
+			gen.writeNumber((Double)value);
+		} else if (value instanceof Boolean) {
+			gen.writeBoolean((Boolean)value);
+		} else if (value instanceof Date) {
+			((BsonGenerator)gen).writeDateTime((Date)value);
+		} else if (value instanceof List) {
+			gen.writeStartArray();
+			for (Object o : (List<?>)value) {
+				writeValue(gen, o);
+			}
+			gen.writeEndArray();
+		} else {
+			gen.writeStartObject();
+			for (Map.Entry<?, ?> e : ((Map<?, ?>)value).entrySet()) {
+				gen.writeFieldName((String)e.getKey());
+				writeValue(gen, e.getValue());
+			}
+			gen.writeEndObject();
+		}
+	}
+
+	/**
+	 * Writes the document with the streaming API
+	 * @param factory the factory used to create the generator
+	 * @return the number of bytes written
+	 * @throws IOException if the document could not be written
+	 */
+	private int write(BsonFactory factory) throws IOException {
+		_out.reset();
+		JsonGenerator gen = factory.createGenerator(_out);
+		writeValue(gen, _document);
+		gen.close();
+		return _out.size();
+	}
+
+	@Benchmark
+	public int generator() throws IOException {
+		return write(_factory);
+	}
+
+	@Benchmark
+	public int generatorStreaming() throws IOException {
+		return write(_streamingFactory);
+	}
+
+	@Benchmark
+	public int writeMap() throws IOException {
+		_out.reset();
+		_mapper.writeValue(_out, _document);
+		return _out.size();
+	}
+
+	@Benchmark
+	public byte[] basicBSONEncoder() {
+		return new BasicBSONEncoder().encode(_document);
+	}
+}
@@ -0,0 +1,128 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.litote.bson4jackson;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Measures how fast {@link BsonParser} reads documents of various sizes
+ * and compares it with the MongoDB driver's {@link BasicBSONDecoder}.
+ * Run with <code>-prof gc</code> to see how much garbage is produced
+ * per document.
+ * @author Michel Kraemer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BsonParserBenchmark {
+	/**
+	 * The size of the document to parse
+	 * @see BenchmarkData#createDocument(String)
+	 */
+	@Param({ "small", "medium", "large" })
+	public String size;
+
+	/**
+	 * The encoded document
+	 */
+	private byte[] _bson;
+
+	/**
+	 * A factory creating parsers that decode all values
+	 */
+	private BsonFactory _factory;
+
+	/**
+	 * A factory creating parsers that only decode values on request
+	 */
+	private BsonFactory _deferredFactory;
+
+	/**
+	 * An object mapper reading documents into maps
+	 */
+	private ObjectMapper _mapper;
+
+	/**
+	 * Encodes the document and creates the factories
+	 */
+	@Setup
+	public void setUp() {
+		_bson = new BasicBSONEncoder().encode(BenchmarkData.createDocument(size));
+		_factory = new BsonFactory();
+		_deferredFactory = new BsonFactory();
+		_deferredFactory.enable(BsonParser.Feature.DEFER_VALUE_DECODING);
+		_mapper = new ObjectMapper(new BsonFactory());
+	}
+
+	/**
+	 * Reads all tokens of the document
+	 * @param factory the factory used to create the parser
+	 * @param bh a blackhole consuming the tokens
+	 * @throws IOException if the document could not be read
+	 */
+	private void readTokens(BsonFactory factory, Blackhole bh) throws IOException {
+		JsonParser p = factory.createParser(_bson);
+		JsonToken t;
+		while ((t = p.nextToken()) != null) {
+			bh.consume(t);
+		}
+		p.close();
+	}
+
+	@Benchmark
+	public void nextToken(Blackhole bh) throws IOException {
+		readTokens(_factory, bh);
+	}
+
+	@Benchmark
+	public void nextTokenDeferred(Blackhole bh) throws IOException {
+		readTokens(_deferredFactory, bh);
+	}
+
+	@Benchmark
+	public Map<?, ?> readMap() throws IOException {
+		return _mapper.readValue(_bson, Map.class);
+	}
+
+	@Benchmark
+	public Object basicBSONDecoder() {
+		return new BasicBSONDecoder().readObject(_bson);
+	}
+}
@@ -0,0 +1,140 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.litote.bson4jackson;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import org.litote.bson4jackson.BenchmarkData.Order;
+
+/**
+ * Measures how fast POJOs are serialized and deserialized by an
+ * {@link ObjectMapper} with {@link BsonModule}. The
+ * <code>basicBSON</code> benchmark encodes and decodes an equivalent
+ * document with the MongoDB driver for comparison. The
+ * <code>serializeFactory</code> benchmark uses
+ * {@link BsonFactory#writeValueAsBytes(Object)}, which writes directly
+ * into an exactly sized array and chooses the generator's buffer size
+ * based on the sizes of previously serialized orders.
+ * Run with <code>-prof gc</code> to see how much garbage is produced
+ * per round-trip.
+ * @author Michel Kraemer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectMapperBenchmark {
+	/**
+	 * The size of the object to serialize
+	 * @see BenchmarkData#createOrder(String)
+	 */
+	@Param({ "small", "medium", "large" })
+	public String size;
+
+	/**
+	 * The object to serialize
+	 */
+	private Order _order;
+
+	/**
+	 * The serialized object
+	 */
+	private byte[] _bson;
+
+	/**
+	 * A document equivalent to {@link #_order}
+	 */
+	private BSONObject _document;
+
+	/**
+	 * The factory used to create {@link #_writer} and {@link #_reader}
+	 */
+	private BsonFactory _factory;
+
+	/**
+	 * Writes orders
+	 */
+	private ObjectWriter _writer;
+
+	/**
+	 * Reads orders
+	 */
+	private ObjectReader _reader;
+
+	/**
+	 * Creates the object and serializes it
+	 * @throws IOException if the object could not be serialized
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		_factory = new BsonFactory();
+		ObjectMapper mapper = new ObjectMapper(_factory);
+		mapper.registerModule(new BsonModule());
+		_writer = mapper.writerFor(Order.class);
+		_reader = mapper.readerFor(Order.class);
+		_order = BenchmarkData.createOrder(size);
+		_bson = _writer.writeValueAsBytes(_order);
+		_document = BenchmarkData.createDocument(size);
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		return _writer.writeValueAsBytes(_order);
+	}
+
+	@Benchmark
+	public byte[] serializeFactory() throws IOException {
+		return _factory.writeValueAsBytes(_order);
+	}
+
+	@Benchmark
+	public Order deserialize() throws IOException {
+		return _reader.readValue(_bson);
+	}
+
+	@Benchmark
+	public Order roundTrip() throws IOException {
+		return _reader.readValue(_writer.writeValueAsBytes(_order));
+	}
+
+	@Benchmark
+	public Object basicBSON() {
+		return new BasicBSONDecoder().readObject(
+				new BasicBSONEncoder().encode(_document));
+	}
+}
@@ -0,0 +1,151 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.litote.bson4jackson.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the primitives of {@link DynamicOutputBuffer},
+ * {@link LittleEndianInputStream} and
+ * {@link LittleEndianByteBufferInputStream} the parser and the generator
+ * are built on. Every invocation writes or reads {@link #COUNT} values.
+ * @author Michel Kraemer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitivesBenchmark {
+	/**
+	 * The number of values to write or read per invocation
+	 */
+	private static final int COUNT = 1024;
+
+	/**
+	 * A string written by {@link #putUTF8()}
+	 */
+	private static final String STRING = "Hello W\u00F6rld";
+
+	/**
+	 * {@link #COUNT} little-endian 64-bit values
+	 */
+	private byte[] _longs;
+
+	/**
+	 * Generates test data
+	 * @throws IOException if the data could not be written
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		DynamicOutputBuffer buf = new DynamicOutputBuffer(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < COUNT; ++i) {
+			buf.putLong(i * 31L);
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		buf.writeTo(baos);
+		_longs = baos.toByteArray();
+	}
+
+	@Benchmark
+	public DynamicOutputBuffer putInt() {
+		DynamicOutputBuffer buf = new DynamicOutputBuffer(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < COUNT; ++i) {
+			buf.putInt(i);
+		}
+		return buf;
+	}
+
+	@Benchmark
+	public DynamicOutputBuffer putLong() {
+		DynamicOutputBuffer buf = new DynamicOutputBuffer(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < COUNT; ++i) {
+			buf.putLong(i);
+		}
+		return buf;
+	}
+
+	@Benchmark
+	public DynamicOutputBuffer putDouble() {
+		DynamicOutputBuffer buf = new DynamicOutputBuffer(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < COUNT; ++i) {
+			buf.putDouble(i);
+		}
+		return buf;
+	}
+
+	@Benchmark
+	public DynamicOutputBuffer putUTF8() {
+		DynamicOutputBuffer buf = new DynamicOutputBuffer(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < COUNT; ++i) {
+			buf.putUTF8(STRING);
+		}
+		return buf;
+	}
+
+	@Benchmark
+	public void readInt(Blackhole bh) throws IOException {
+		LittleEndianInputStream in = new LittleEndianInputStream(
+				new ByteArrayInputStream(_longs));
+		for (int i = 0; i < COUNT * 2; ++i) {
+			bh.consume(in.readInt());
+		}
+	}
+
+	@Benchmark
+	public void readLong(Blackhole bh) throws IOException {
+		LittleEndianInputStream in = new LittleEndianInputStream(
+				new ByteArrayInputStream(_longs));
+		for (int i = 0; i < COUNT; ++i) {
+			bh.consume(in.readLong());
+		}
+	}
+
+	@Benchmark
+	public void readDouble(Blackhole bh) throws IOException {
+		LittleEndianInputStream in = new LittleEndianInputStream(
+				new ByteArrayInputStream(_longs));
+		for (int i = 0; i < COUNT; ++i) {
+			bh.consume(in.readDouble());
+		}
+	}
+
+	@Benchmark
+	public void readLongFromBuffer(Blackhole bh) throws IOException {
+		LittleEndianByteBufferInputStream in =
+				new LittleEndianByteBufferInputStream(_longs);
+		for (int i = 0; i < COUNT; ++i) {
+			bh.consume(in.readLong());
+		}
+	}
+}
@@ -0,0 +1,152 @@
+// Copyright 2010-2017 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.litote.bson4jackson.BsonGenerator;
+
+/**
+ * Compares {@link DynamicOutputBuffer#putBytes(byte[], int, int)} with
+ * putting bytes one at a time and measures the throughput of
+ * {@link BsonGenerator#writeBinary(byte[])} for various payload sizes.
+ * The number of bytes written per second is reported by the
+ * secondary result <code>bytes</code>.
+ * @author Michel Kraemer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PutBytesBenchmark {
+	/**
+	 * The payload size in bytes
+	 */
+	@Param({ "1024", "65536", "1048576", "16777216" })
+	public int size;
+
+	/**
+	 * The payload
+	 */
+	private byte[] _data;
+
+	/**
+	 * Counts the bytes written
+	 */
+	@State(Scope.Thread)
+	@AuxCounters
+	public static class Bytes {
+		/**
+		 * The number of bytes written during the current iteration
+		 */
+		public long bytes;
+
+		/**
+		 * Resets the counter
+		 */
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+
+	/**
+	 * Generates the payload
+	 */
+	@Setup
+	public void setUp() {
+		_data = new byte[size];
+		new Random(0).nextBytes(_data);
+	}
+
+	@Benchmark
+	public DynamicOutputBuffer bulk(Bytes counter) {
+		DynamicOutputBuffer db = new DynamicOutputBuffer();
+		db.putBytes(_data, 0, _data.length);
+		counter.bytes += _data.length;
+		return db;
+	}
+
+	@Benchmark
+	public DynamicOutputBuffer byteByByte(Bytes counter) {
+		DynamicOutputBuffer db = new DynamicOutputBuffer();
+		for (int i = 0; i < _data.length; ++i) {
+			db.putByte(_data[i]);
+		}
+		counter.bytes += _data.length;
+		return db;
+	}
+
+	@Benchmark
+	public void writeBinary(Bytes counter, Blackhole bh) throws Exception {
+		BsonGenerator gen = new BsonGenerator(
+				JsonGenerator.Feature.collectDefaults(), 0, new BlackholeOutputStream(bh));
+		gen.writeStartObject();
+		gen.writeFieldName("data");
+		gen.writeBinary(_data);
+		gen.writeEndObject();
+		gen.close();
+		counter.bytes += _data.length;
+	}
+
+	/**
+	 * An output stream that passes everything to a {@link Blackhole}
+	 */
+	private static class BlackholeOutputStream extends OutputStream {
+		/**
+		 * The blackhole
+		 */
+		private final Blackhole _bh;
+
+		/**
+		 * Creates a new stream
+		 * @param bh the blackhole
+		 */
+		BlackholeOutputStream(Blackhole bh) {
+			_bh = bh;
+		}
+
+		@Override
+		public void write(int b) {
+			_bh.consume(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			_bh.consume(b);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+// Copyright 2010-2017 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares {@link LittleEndianInputStream#readUTF(DataInput, int)} with
+ * the implementation used before 2.9.1, which created a new decoder
+ * for every string and copied all bytes through {@link StaticBuffers}
+ * @author Michel Kraemer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadUTFBenchmark {
+	/**
+	 * The number of strings to read per invocation
+	 */
+	private static final int COUNT = 100;
+
+	/**
+	 * The characters the strings consist of
+	 */
+	@Param({ "ascii", "multibyte" })
+	public String chars;
+
+	/**
+	 * The number of characters per string
+	 */
+	@Param({ "8", "64", "1024" })
+	public int length;
+
+	/**
+	 * {@link #COUNT} null-terminated strings
+	 */
+	private byte[] _cstrings;
+
+	/**
+	 * {@link #COUNT} strings without terminator
+	 */
+	private byte[] _strings;
+
+	/**
+	 * The number of bytes of each string in {@link #_strings}
+	 */
+	private int _stringLength;
+
+	/**
+	 * Generates test data
+	 * @throws IOException if the data could not be written
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; ++i) {
+			if (chars.equals("multibyte") && i % 4 == 0) {
+				sb.append('\u20AC');
+			} else {
+				sb.append((char)('a' + i % 26));
+			}
+		}
+		byte[] s = sb.toString().getBytes("UTF-8");
+		_stringLength = s.length;
+
+		ByteArrayOutputStream cstrings = new ByteArrayOutputStream();
+		ByteArrayOutputStream strings = new ByteArrayOutputStream();
+		for (int i = 0; i < COUNT; ++i) {
+			cstrings.write(s);
+			cstrings.write(0);
+			strings.write(s);
+		}
+		_cstrings = cstrings.toByteArray();
+		_strings = strings.toByteArray();
+	}
+
+	@Benchmark
+	public void cstring(Blackhole bh) throws IOException {
+		LittleEndianInputStream in = new LittleEndianInputStream(
+				new ByteArrayInputStream(_cstrings));
+		for (int i = 0; i < COUNT; ++i) {
+			bh.consume(in.readUTF(-1));
+		}
+	}
+
+	@Benchmark
+	public void cstringLegacy(Blackhole bh) throws IOException {
+		LittleEndianInputStream in = new LittleEndianInputStream(
+				new ByteArrayInputStream(_cstrings));
+		for (int i = 0; i < COUNT; ++i) {
+			bh.consume(legacyReadUTF(in, -1));
+		}
+	}
+
+	@Benchmark
+	public void string(Blackhole bh) throws IOException {
+		LittleEndianInputStream in = new LittleEndianInputStream(
+				new ByteArrayInputStream(_strings));
+		for (int i = 0; i < COUNT; ++i) {
+			bh.consume(in.readUTF(_stringLength));
+		}
+	}
+
+	@Benchmark
+	public void stringLegacy(Blackhole bh) throws IOException {
+		LittleEndianInputStream in = new LittleEndianInputStream(
+				new ByteArrayInputStream(_strings));
+		for (int i = 0; i < COUNT; ++i) {
+			bh.consume(legacyReadUTF(in, _stringLength));
+		}
+	}
+
+	/**
+	 * The implementation of {@link LittleEndianInputStream#readUTF(DataInput, int)}
+	 * used before 2.9.1
+	 * @param input the DataInput object to read from
+	 * @param len the number of bytes to read or -1 to read until
+	 * the first zero byte
+	 * @return the UTF-8 string
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static String legacyReadUTF(DataInput input, int len) throws IOException {
+		StaticBuffers staticBuffers = StaticBuffers.getInstance();
+
+		ByteBuffer utf8buf = staticBuffers.byteBuffer(StaticBuffers.Key.BUFFER0, 1024 * 8);
+		byte[] rawUtf8Buf = utf8buf.array();
+
+		CharsetDecoder dec = Charset.forName("UTF-8").newDecoder();
+		int expectedLen = (len > 0 ? (int)(dec.averageCharsPerByte() * len) + 1 : 1024);
+		CharBuffer cb = staticBuffers.charBuffer(StaticBuffers.Key.BUFFER0, expectedLen);
+		try {
+			while (len != 0 || utf8buf.position() > 0) {
+				if (len < 0) {
+					while (utf8buf.remaining() > 0) {
+						byte b = input.readByte();
+						if (b == 0) {
+							len = 0;
+							break;
+						}
+						utf8buf.put(b);
+					}
+					utf8buf.flip();
+				} else if (len > 0) {
+					int r = Math.min(len, utf8buf.remaining());
+					input.readFully(rawUtf8Buf, utf8buf.position(), r);
+					len -= r;
+					utf8buf.limit(utf8buf.position() + r);
+					utf8buf.rewind();
+				} else {
+					utf8buf.flip();
+				}
+
+				CoderResult cr = dec.decode(utf8buf, cb, len == 0);
+				if (cr.isUnderflow()) {
+					utf8buf.compact();
+				} else if (cr.isOverflow()) {
+					utf8buf.compact();
+					CharBuffer newBuf = staticBuffers.charBuffer(StaticBuffers.Key.BUFFER0,
+							cb.capacity() + 1024);
+					cb.flip();
+					newBuf.put(cb);
+					cb = newBuf;
+				} else if (cr.isError()) {
+					cr.throwException();
+				}
+			}
+		} finally {
+			staticBuffers.releaseCharBuffer(StaticBuffers.Key.BUFFER0, cb);
+			staticBuffers.releaseByteBuffer(StaticBuffers.Key.BUFFER0, utf8buf);
+		}
+
+		cb.flip();
+		return cb.toString();
+	}
+}
@@ -0,0 +1,195 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
+
+/**
+ * <p>Iterates over a sequence of concatenated BSON documents (e.g. a file
+ * created by {@code mongodump}) and maps each of them to a value. All
+ * documents are read by the same {@link BsonParser}, so its buffers and
+ * symbol tables are reused.</p>
+ * <p>The API resembles the one of Jackson's
+ * {@link com.fasterxml.jackson.databind.MappingIterator}.
+ * {@link #hasNextValue()} and {@link #nextValue()} throw
+ * {@link IOException}s. {@link #hasNext()} and {@link #next()} wrap
+ * them into runtime exceptions.</p>
+ * <p>Instances of this class can be created with
+ * {@link BsonFactory#createDocumentReader(java.io.InputStream, Class)}
+ * or {@link BsonFactory#createDocumentReader(java.io.File, Class)}.
+ * They are not thread-safe.</p>
+ * @author Michel Kraemer
+ * @param <T> the type of the values
+ * @since 2.9.1
+ */
+public class BsonDocumentReader<T> implements Iterator<T>, Closeable {
+	/**
+	 * The parser reading the documents (null if the reader has been closed)
+	 */
+	protected BsonParser _parser;
+	
+	/**
+	 * The codec used to map documents to values
+	 */
+	protected final ObjectCodec _codec;
+	
+	/**
+	 * The type of the values
+	 */
+	protected final Class<T> _valueType;
+	
+	/**
+	 * True if the parser is positioned at the start of the next document
+	 */
+	protected boolean _hasNext;
+	
+	/**
+	 * Creates a new reader
+	 * @param parser the parser reading the documents. It must have an
+	 * {@link ObjectCodec}.
+	 * @param valueType the type of the values
+	 * @throws IOException if the parser had to be closed because it
+	 * has no codec
+	 * @throws IllegalStateException if the parser has no codec
+	 */
+	public BsonDocumentReader(BsonParser parser, Class<T> valueType) throws IOException {
+		_codec = parser.getCodec();
+		if (_codec == null) {
+			parser.close();
+			throw new IllegalStateException("No ObjectCodec defined for "
+					+ "parser, needed for deserialization");
+		}
+		_parser = parser;
+		_valueType = valueType;
+	}
+	
+	/**
+	 * @return the parser reading the documents
+	 */
+	public BsonParser getParser() {
+		return _parser;
+	}
+	
+	/**
+	 * Checks if there is another document to read
+	 * @return true if there is another document, false if the end of
+	 * the input has been reached
+	 * @throws IOException if the input could not be read
+	 */
+	public boolean hasNextValue() throws IOException {
+		if (_hasNext) {
+			return true;
+		}
+		if (_parser == null) {
+			return false;
+		}
+		JsonToken t = _parser.getCurrentToken();
+		if (t == null) {
+			t = _parser.nextToken();
+		}
+		if (t == null) {
+			close();
+			return false;
+		}
+		_hasNext = true;
+		return true;
+	}
+	
+	/**
+	 * Reads the next document and maps it to a value
+	 * @return the value
+	 * @throws IOException if the document could not be read or mapped
+	 * @throws NoSuchElementException if there are no more documents
+	 */
+	public T nextValue() throws IOException {
+		if (!hasNextValue()) {
+			throw new NoSuchElementException();
+		}
+		_hasNext = false;
+		try {
+			return _codec.readValue(_parser, _valueType);
+		} finally {
+			//make the parser start a new document on the next call
+			_parser.clearCurrentToken();
+		}
+	}
+	
+	/**
+	 * Reads all remaining documents
+	 * @return the values of all remaining documents
+	 * @throws IOException if a document could not be read or mapped
+	 */
+	public List<T> readAll() throws IOException {
+		List<T> r = new ArrayList<T>();
+		while (hasNextValue()) {
+			r.add(nextValue());
+		}
+		return r;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		try {
+			return hasNextValue();
+		} catch (IOException e) {
+			throw wrap(e);
+		}
+	}
+	
+	@Override
+	public T next() {
+		try {
+			return nextValue();
+		} catch (IOException e) {
+			throw wrap(e);
+		}
+	}
+	
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	/**
+	 * Wraps an I/O exception into a runtime exception
+	 * @param e the exception to wrap
+	 * @return the runtime exception
+	 */
+	private static RuntimeException wrap(IOException e) {
+		if (e instanceof JsonMappingException) {
+			return new RuntimeJsonMappingException((JsonMappingException)e);
+		}
+		return new RuntimeException(e.getMessage(), e);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (_parser != null) {
+			_parser.close();
+			_parser = null;
+			_hasNext = false;
+		}
+	}
+}
@@ -0,0 +1,313 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.litote.bson4jackson.io.MappedFileInputStream;
+
+/**
+ * <p>Splits a file containing a sequence of concatenated BSON documents
+ * (e.g. a file created by {@code mongodump}) into individual documents
+ * so they can be read in parallel.</p>
+ * <p>The splitter builds an index of document offsets in one sequential
+ * pass over the file. Since each document starts with its length, the
+ * pass hops from one length prefix to the next without parsing the
+ * documents' contents. Afterwards, ranges of documents can be read
+ * independently with {@link #createDocumentReader(int, int, Class)} or
+ * all documents can be mapped in parallel with
+ * {@link #readAll(Class, ForkJoinPool)}. Each range is read by its own
+ * parser directly from a memory-mapped slice of the file.</p>
+ * <p>The index requires 8 bytes per document.</p>
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class BsonDocumentSplitter implements Closeable {
+	/**
+	 * The default maximum number of bytes a single parallel task reads
+	 */
+	public static final int DEFAULT_MAX_TASK_SIZE = 16 * 1024 * 1024;
+	
+	/**
+	 * The factory used to create parsers
+	 */
+	protected final BsonFactory _factory;
+	
+	/**
+	 * The input stream of the file to split
+	 */
+	protected final FileInputStream _in;
+	
+	/**
+	 * The channel of the file to split
+	 */
+	protected final FileChannel _channel;
+	
+	/**
+	 * The offsets of all documents followed by the offset of the end
+	 * of the last document
+	 */
+	protected final long[] _offsets;
+	
+	/**
+	 * The maximum number of bytes a single parallel task reads
+	 */
+	protected int _maxTaskSize = DEFAULT_MAX_TASK_SIZE;
+	
+	/**
+	 * Opens a file and builds an index of the documents it contains
+	 * @param factory the factory used to create parsers. Must have an
+	 * {@link com.fasterxml.jackson.core.ObjectCodec}.
+	 * @param f the file to split
+	 * @throws IOException if the file could not be read or if it
+	 * contains an invalid document length
+	 */
+	public BsonDocumentSplitter(BsonFactory factory, File f) throws IOException {
+		_factory = factory;
+		_in = new FileInputStream(f);
+		_channel = _in.getChannel();
+		try {
+			_offsets = buildIndex(_channel);
+		} catch (IOException e) {
+			_in.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Builds the index of document offsets
+	 * @param channel the channel to read from
+	 * @return the offsets of all documents followed by the offset of
+	 * the end of the last document
+	 * @throws IOException if the channel could not be read or if it
+	 * contains an invalid document length
+	 */
+	private static long[] buildIndex(FileChannel channel) throws IOException {
+		long size = channel.size();
+		long[] offsets = new long[16];
+		int count = 0;
+		MappedFileInputStream in = new MappedFileInputStream(channel);
+		long offset = in.getOffset();
+		while (offset < size) {
+			if (size - offset < 4) {
+				throw new IOException("Truncated document length at offset " + offset);
+			}
+			int length = in.readInt();
+			if (length < 5 || length > size - offset) {
+				throw new IOException("Invalid document length " + length +
+						" at offset " + offset);
+			}
+			if (count == offsets.length - 1) {
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			}
+			offsets[count++] = offset;
+			in.skip(length - 4);
+			offset += length;
+		}
+		offsets[count] = offset;
+		return Arrays.copyOf(offsets, count + 1);
+	}
+	
+	/**
+	 * @return the number of documents in the file
+	 */
+	public int getDocumentCount() {
+		return _offsets.length - 1;
+	}
+	
+	/**
+	 * Gets the offset of a document
+	 * @param document the document's index
+	 * @return the document's offset in the file
+	 */
+	public long getOffset(int document) {
+		return _offsets[document];
+	}
+	
+	/**
+	 * Gets the length of a document
+	 * @param document the document's index
+	 * @return the document's length in bytes
+	 */
+	public int getLength(int document) {
+		return (int)(_offsets[document + 1] - _offsets[document]);
+	}
+	
+	/**
+	 * Sets the maximum number of bytes a single task created by
+	 * {@link #readAll(Class, ForkJoinPool)} reads. Ranges of documents
+	 * larger than this will be split further. Tasks always contain at
+	 * least one document.
+	 * @param maxTaskSize the maximum number of bytes
+	 */
+	public void setMaxTaskSize(int maxTaskSize) {
+		if (maxTaskSize <= 0) {
+			throw new IllegalArgumentException("Task size must be positive");
+		}
+		_maxTaskSize = maxTaskSize;
+	}
+	
+	/**
+	 * @return the maximum number of bytes a single task created by
+	 * {@link #readAll(Class, ForkJoinPool)} reads
+	 */
+	public int getMaxTaskSize() {
+		return _maxTaskSize;
+	}
+	
+	/**
+	 * Creates a reader for a range of documents. The reader parses a
+	 * memory-mapped slice of the file. This method may be called from
+	 * multiple threads at the same time but the returned reader is
+	 * not thread-safe.
+	 * @param <T> the type of the documents
+	 * @param fromDocument the index of the first document to read (inclusive)
+	 * @param toDocument the index of the last document to read (exclusive)
+	 * @param valueType the type of the documents
+	 * @return the reader
+	 * @throws IOException if the file could not be mapped
+	 * @throws IllegalArgumentException if the range is larger than 2GB
+	 */
+	public <T> BsonDocumentReader<T> createDocumentReader(int fromDocument,
+			int toDocument, Class<T> valueType) throws IOException {
+		long start = _offsets[fromDocument];
+		long length = _offsets[toDocument] - start;
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Range of documents is too large");
+		}
+		MappedByteBuffer buf = _channel.map(FileChannel.MapMode.READ_ONLY,
+				start, length);
+		return new BsonDocumentReader<T>(_factory.createParser(buf), valueType);
+	}
+	
+	/**
+	 * Reads all documents in parallel. The file will be split into
+	 * ranges of documents that are read by separate tasks in the given
+	 * pool (see {@link #setMaxTaskSize(int)}).
+	 * @param <T> the type of the documents
+	 * @param valueType the type of the documents
+	 * @param pool the pool executing the tasks
+	 * @return all documents in the order they appear in the file
+	 * @throws IOException if a document could not be read or mapped
+	 */
+	public <T> List<T> readAll(Class<T> valueType, ForkJoinPool pool)
+			throws IOException {
+		try {
+			return pool.invoke(new ReadTask<T>(0, getDocumentCount(), valueType));
+		} catch (ReadException e) {
+			throw e.getCause();
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		_in.close();
+	}
+	
+	/**
+	 * Wraps an I/O exception thrown by a {@link ReadTask}
+	 */
+	private static class ReadException extends RuntimeException {
+		private static final long serialVersionUID = 6213742905728302385L;
+		
+		/**
+		 * Wraps an I/O exception
+		 * @param cause the exception to wrap
+		 */
+		ReadException(IOException cause) {
+			super(cause);
+		}
+		
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException)super.getCause();
+		}
+	}
+	
+	/**
+	 * A task reading a range of documents. Splits itself if the range
+	 * is larger than {@link BsonDocumentSplitter#_maxTaskSize}.
+	 * @param <T> the type of the documents
+	 */
+	private class ReadTask<T> extends RecursiveTask<List<T>> {
+		private static final long serialVersionUID = -2863175301692514816L;
+		
+		/**
+		 * The index of the first document to read (inclusive)
+		 */
+		private final int _from;
+		
+		/**
+		 * The index of the last document to read (exclusive)
+		 */
+		private final int _to;
+		
+		/**
+		 * The type of the documents
+		 */
+		private final Class<T> _valueType;
+		
+		/**
+		 * Creates a new task
+		 * @param from the index of the first document to read (inclusive)
+		 * @param to the index of the last document to read (exclusive)
+		 * @param valueType the type of the documents
+		 */
+		ReadTask(int from, int to, Class<T> valueType) {
+			_from = from;
+			_to = to;
+			_valueType = valueType;
+		}
+		
+		@Override
+		protected List<T> compute() {
+			if (_to - _from > 1 && _offsets[_to] - _offsets[_from] > _maxTaskSize) {
+				int mid = (_from + _to) >>> 1;
+				ReadTask<T> left = new ReadTask<T>(_from, mid, _valueType);
+				ReadTask<T> right = new ReadTask<T>(mid, _to, _valueType);
+				left.fork();
+				List<T> r = new ArrayList<T>(_to - _from);
+				List<T> rightResult = right.compute();
+				r.addAll(left.join());
+				r.addAll(rightResult);
+				return r;
+			}
+			
+			if (_from == _to) {
+				return new ArrayList<T>();
+			}
+			try {
+				BsonDocumentReader<T> reader = createDocumentReader(_from, _to, _valueType);
+				try {
+					return reader.readAll();
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				throw new ReadException(e);
+			}
+		}
+	}
+}
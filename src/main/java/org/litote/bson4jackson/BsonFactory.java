@@ -14,6 +14,7 @@
 
 package org.litote.bson4jackson;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -22,14 +23,27 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.lang.ref.SoftReference;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.ObjectCodec;
 import com.fasterxml.jackson.core.io.IOContext;
 
-import org.litote.bson4jackson.io.UnsafeByteArrayInputStream;
+import org.litote.bson4jackson.io.BufferPool;
+import org.litote.bson4jackson.io.FieldNameCanonicalizer;
+import org.litote.bson4jackson.io.LittleEndianByteBufferInputStream;
+import org.litote.bson4jackson.io.MappedFileInputStream;
+import org.litote.bson4jackson.io.SizeHistogram;
+import org.litote.bson4jackson.io.ThreadLocalBufferPool;
 
 /**
  * Factory for {@link BsonGenerator} and {@link BsonParser}
@@ -60,6 +74,57 @@ public class BsonFactory extends JsonFactory {
 	 */
 	protected int _bsonParserFeatures = DEFAULT_BSON_PARSER_FEATURE_FLAGS;
 
+	/**
+	 * The symbol table shared by all parsers created by this factory
+	 * to canonicalize field names. Will be created lazily by
+	 * {@link #getFieldNameCanonicalizer()}.
+	 */
+	protected transient volatile FieldNameCanonicalizer _fieldNameCanonicalizer;
+
+	/**
+	 * The pool providing buffers to all parsers and generators created
+	 * by this factory (may be null if the default pool should be used)
+	 */
+	protected transient BufferPool _bufferPool;
+
+	/**
+	 * The parser and the generator the current thread can lease from
+	 * this factory (see {@link #leaseParser(byte[], int, int)} and
+	 * {@link #leaseGenerator(OutputStream)}). The instances are softly
+	 * referenced, so they can be garbage collected if memory is low and
+	 * the thread's map of thread-local values does not keep the factory
+	 * reachable. May be null if the factory has been deserialized.
+	 */
+	protected final transient ThreadLocal<SoftReference<LeasableInstances>> _leasableInstances =
+			new ThreadLocal<SoftReference<LeasableInstances>>();
+
+	/**
+	 * Histograms of the sizes of values serialized with
+	 * {@link #writeValueAsBytes(Object)} and
+	 * {@link #writeValue(ByteBuffer, Object)} per type. May be null if
+	 * the factory has been deserialized.
+	 */
+	protected final transient ConcurrentMap<Class<?>, SizeHistogram> _sizeHistograms =
+			new ConcurrentHashMap<Class<?>, SizeHistogram>();
+
+	/**
+	 * A parser and a generator that can be leased by a thread. Released
+	 * instances must not refer to the factory (e.g. through their codec).
+	 */
+	protected static class LeasableInstances {
+		/**
+		 * The parser (may be null if it is currently leased or if
+		 * it has not been created yet)
+		 */
+		BsonParser parser;
+
+		/**
+		 * The generator (may be null if it is currently leased or if
+		 * it has not been created yet)
+		 */
+		BsonGenerator generator;
+	}
+
 	/**
 	 * @see JsonFactory#JsonFactory()
 	 */
@@ -87,6 +152,7 @@ public class BsonFactory extends JsonFactory {
         super(src, codec);
         _bsonGeneratorFeatures = src._bsonGeneratorFeatures;
         _bsonParserFeatures = src._bsonParserFeatures;
+        _bufferPool = src._bufferPool;
     }
 
     /**
@@ -151,6 +217,57 @@ public class BsonFactory extends JsonFactory {
     	return (_bsonGeneratorFeatures & f.getMask()) != 0;
     }
 
+	/**
+	 * Returns the symbol table that parsers created by this factory use
+	 * to canonicalize field names. Respects
+	 * {@link JsonFactory.Feature#CANONICALIZE_FIELD_NAMES} and
+	 * {@link JsonFactory.Feature#INTERN_FIELD_NAMES}.
+	 * @return the symbol table or null if field names should not
+	 * be canonicalized
+	 * @since 2.9.1
+	 */
+	protected FieldNameCanonicalizer getFieldNameCanonicalizer() {
+		if (!isEnabled(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES)) {
+			return null;
+		}
+		boolean intern = isEnabled(JsonFactory.Feature.INTERN_FIELD_NAMES);
+		FieldNameCanonicalizer r = _fieldNameCanonicalizer;
+		if (r == null || r.isInterning() != intern) {
+			r = new FieldNameCanonicalizer(intern);
+			_fieldNameCanonicalizer = r;
+		}
+		return r;
+	}
+
+	/**
+	 * Sets the pool providing re-usable buffers to all parsers and
+	 * generators created by this factory from now on. Use
+	 * {@link org.litote.bson4jackson.io.SharedBufferPool} to bound memory
+	 * consumption independently of the number of threads or
+	 * {@link org.litote.bson4jackson.io.NonRecyclingBufferPool} to
+	 * disable pooling.
+	 * @param pool the pool (may be null to use the default per-thread pool)
+	 * @return this BsonFactory
+	 * @since 2.9.1
+	 */
+	public BsonFactory setBufferPool(BufferPool pool) {
+		_bufferPool = pool;
+		return this;
+	}
+
+	/**
+	 * @return the pool providing re-usable buffers to all parsers and
+	 * generators created by this factory
+	 * @since 2.9.1
+	 */
+	public BufferPool getBufferPool() {
+		BufferPool r = _bufferPool;
+		if (r == null) {
+			r = ThreadLocalBufferPool.getInstance();
+		}
+		return r;
+	}
+
 	/**
 	 * Method for enabling/disabling specified parser features
 	 * (check {@link BsonParser.Feature} for list of features)
@@ -239,12 +356,55 @@ public class BsonFactory extends JsonFactory {
 
 	@Override
 	protected BsonParser _createParser(byte[] data, int offset, int len, IOContext ctxt) {
-		return _createParser(new UnsafeByteArrayInputStream(data, offset, len), ctxt);
+		return _createParser(new LittleEndianByteBufferInputStream(data, offset, len), ctxt);
+	}
+
+	/**
+	 * Creates a parser that reads directly from the given input
+	 * @param in the input to read from
+	 * @param ctxt the Jackson IO context
+	 * @return the parser
+	 * @since 2.9.1
+	 */
+	protected BsonParser _createParser(LittleEndianByteBufferInputStream in, IOContext ctxt) {
+		return createBufferParser(in, ctxt, _bsonParserFeatures);
+	}
+
+	/**
+	 * Creates a parser that reads directly from the given input
+	 * @param in the input to read from
+	 * @param ctxt the Jackson IO context
+	 * @param bsonFeatures the parser's BSON features
+	 * @return the parser
+	 */
+	private BsonParser createBufferParser(LittleEndianByteBufferInputStream in,
+			IOContext ctxt, int bsonFeatures) {
+		BsonParser p = new BsonParser(ctxt, _parserFeatures, bsonFeatures, in);
+		p.setFieldNameCanonicalizer(getFieldNameCanonicalizer());
+		ObjectCodec codec = getCodec();
+		if (codec != null) {
+			p.setCodec(codec);
+		}
+		return p;
 	}
 
 	@Override
 	protected BsonParser _createParser(InputStream in, IOContext ctxt) {
-		BsonParser p = new BsonParser(ctxt, _parserFeatures, _bsonParserFeatures, in);
+		return createStreamParser(in, ctxt, _bsonParserFeatures);
+	}
+
+	/**
+	 * Creates a parser that reads from the given input stream
+	 * @param in the input stream to read from
+	 * @param ctxt the Jackson IO context
+	 * @param bsonFeatures the BSON parser features to enable
+	 * @return the parser
+	 */
+	private BsonParser createStreamParser(InputStream in, IOContext ctxt,
+			int bsonFeatures) {
+		BsonParser p = new BsonParser(ctxt, _parserFeatures, bsonFeatures,
+				in, getBufferPool());
+		p.setFieldNameCanonicalizer(getFieldNameCanonicalizer());
 		ObjectCodec codec = getCodec();
 		if (codec != null) {
 			p.setCodec(codec);
@@ -279,14 +439,240 @@ public class BsonFactory extends JsonFactory {
 
 	@Override
 	public BsonGenerator createGenerator(File f, JsonEncoding enc) throws IOException {
-		OutputStream out = new FileOutputStream(f);
+		FileOutputStream fos = new FileOutputStream(f);
+		OutputStream out = fos;
 		IOContext ctxt = _createContext(out, true);
 		ctxt.setEncoding(enc);
 		if (enc == JsonEncoding.UTF8 && _outputDecorator != null) {
 			out = _outputDecorator.decorate(ctxt, out);
 		}
+		if (out == fos && (isEnabled(BsonGenerator.Feature.ENABLE_STREAMING) ||
+				isEnabled(BsonGenerator.Feature.USE_DIRECT_BUFFERS))) {
+			//write to the file channel, so the generator is able
+			//to update the headers of documents already flushed
+			//and to pass direct buffers without copying them
+			return configureGenerator(new BsonGenerator(_generatorFeatures,
+					_bsonGeneratorFeatures, fos, fos.getChannel()));
+		}
 		return createGenerator(out, enc);
 	}
+	
+	/**
+	 * Creates a generator that writes to the given seekable channel
+	 * (starting at its current position). If
+	 * {@link BsonGenerator.Feature#ENABLE_STREAMING} is enabled, the
+	 * generator flushes its buffer regularly and updates the headers of
+	 * documents already flushed with positional writes. The output is
+	 * always compatible to the BSON specification.
+	 * @param out the channel to write to
+	 * @return the generator
+	 * @throws IOException if the generator could not be created
+	 * @since 2.9.1
+	 */
+	public BsonGenerator createGenerator(SeekableByteChannel out) throws IOException {
+		return configureGenerator(new BsonGenerator(_generatorFeatures,
+				_bsonGeneratorFeatures, out));
+	}
+	
+	/**
+	 * Creates a generator that writes to the given channel. Internal
+	 * buffers will be written to the channel directly, which avoids
+	 * copying if {@link BsonGenerator.Feature#USE_DIRECT_BUFFERS} is
+	 * enabled. See {@link #createGenerator(SeekableByteChannel)} for
+	 * seekable channels.
+	 * @param out the channel to write to (must be in blocking mode)
+	 * @return the generator
+	 * @throws IOException if the generator could not be created
+	 * @since 2.9.1
+	 */
+	public BsonGenerator createGenerator(WritableByteChannel out) throws IOException {
+		return configureGenerator(new BsonGenerator(_generatorFeatures,
+				_bsonGeneratorFeatures, out));
+	}
+	
+	/**
+	 * <p>Serializes the given value to the given output stream with
+	 * {@link BsonGenerator.Feature#ENABLE_STREAMING} enabled but still
+	 * compatible to the BSON specification. The value is serialized
+	 * twice. The first pass only computes the sizes of all documents
+	 * and discards the output. The second pass writes the computed
+	 * sizes into the headers and flushes the output regularly. Memory
+	 * consumption is therefore bounded even if the output stream is
+	 * not seekable.</p>
+	 * <p>Since the value is serialized twice, its serializers must be
+	 * deterministic and free of side effects: the value must produce
+	 * exactly the same output in both passes. Use
+	 * {@link #createGenerator(SeekableByteChannel)} if the target is
+	 * seekable, which only requires one pass.</p>
+	 * <p>If the factory has an output decorator, only the output of the
+	 * second pass is decorated.</p>
+	 * @param out the output stream to write to
+	 * @param value the value to serialize
+	 * @throws IOException if the value could not be serialized
+	 * @throws IllegalStateException if the factory has no codec or if
+	 * the value produced different output in the second pass
+	 * @since 2.9.1
+	 */
+	public void writeValueStreaming(OutputStream out, Object value) throws IOException {
+		ObjectCodec codec = getCodec();
+		if (codec == null) {
+			throw new IllegalStateException("No ObjectCodec defined for the factory");
+		}
+		int bsonFeatures = _bsonGeneratorFeatures |
+				BsonGenerator.Feature.ENABLE_STREAMING.getMask();
+		
+		//compute document sizes
+		BsonGenerator g = configureGenerator(new BsonGenerator(_generatorFeatures,
+				bsonFeatures, new OutputStream() {
+					@Override
+					public void write(int b) {
+						//discard output
+					}
+					
+					@Override
+					public void write(byte[] b, int off, int len) {
+						//discard output
+					}
+				}));
+		g.recordDocumentSizes();
+		codec.writeValue(g, value);
+		g.close();
+		int[] sizes = g.getRecordedDocumentSizes();
+		
+		//write output
+		if (_outputDecorator != null) {
+			IOContext ctxt = _createContext(out, true);
+			ctxt.setEncoding(JsonEncoding.UTF8);
+			out = _outputDecorator.decorate(ctxt, out);
+		}
+		g = configureGenerator(new BsonGenerator(_generatorFeatures,
+				bsonFeatures, out));
+		g.setDocumentSizes(sizes);
+		codec.writeValue(g, value);
+		g.close();
+	}
+
+	/**
+	 * Creates a generator that keeps its output in memory instead of
+	 * writing it to an output stream. Use
+	 * {@link BsonGenerator#toByteArray()},
+	 * {@link BsonGenerator#writeTo(byte[], int)} or
+	 * {@link BsonGenerator#writeTo(ByteBuffer)} to obtain the documents
+	 * written.
+	 * @return the generator
+	 * @since 2.9.1
+	 */
+	public BsonGenerator createBufferedGenerator() {
+		return configureGenerator(new BsonGenerator(_generatorFeatures,
+				_bsonGeneratorFeatures));
+	}
+	
+	/**
+	 * Serializes the given value into a byte array. This is equivalent
+	 * to {@code ObjectMapper.writeValueAsBytes(Object)} but copies the
+	 * generator's output directly into an array of exactly the required
+	 * size instead of collecting it in an intermediate stream first.
+	 * @param value the value to serialize
+	 * @return the serialized value
+	 * @throws IOException if the value could not be serialized
+	 * @throws IllegalStateException if the factory has no codec
+	 * @since 2.9.1
+	 */
+	public byte[] writeValueAsBytes(Object value) throws IOException {
+		ObjectCodec codec = getCodec();
+		if (codec == null) {
+			throw new IllegalStateException("No ObjectCodec defined for the factory");
+		}
+		if (_outputDecorator != null) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			BsonGenerator g = createGenerator(baos);
+			codec.writeValue(g, value);
+			g.close();
+			return baos.toByteArray();
+		}
+		BsonGenerator g = leaseBufferedGenerator();
+		g.setSizeHistogram(getSizeHistogram(value));
+		try {
+			codec.writeValue(g, value);
+			return g.toByteArray();
+		} finally {
+			releaseGenerator(g);
+		}
+	}
+	
+	/**
+	 * Serializes the given value into the given byte buffer (starting at
+	 * its current position) and advances the buffer's position accordingly.
+	 * This is useful to write into preallocated frames of a network
+	 * protocol, for example.
+	 * @param dst the byte buffer to write to
+	 * @param value the value to serialize
+	 * @return the number of bytes written
+	 * @throws IOException if the value could not be serialized
+	 * @throws java.nio.BufferOverflowException if the byte buffer has not
+	 * enough remaining space. Nothing will be written in this case.
+	 * @throws IllegalStateException if the factory has no codec
+	 * @since 2.9.1
+	 */
+	public int writeValue(ByteBuffer dst, Object value) throws IOException {
+		ObjectCodec codec = getCodec();
+		if (codec == null) {
+			throw new IllegalStateException("No ObjectCodec defined for the factory");
+		}
+		if (_outputDecorator != null) {
+			byte[] r = writeValueAsBytes(value);
+			dst.put(r);
+			return r.length;
+		}
+		BsonGenerator g = leaseBufferedGenerator();
+		g.setSizeHistogram(getSizeHistogram(value));
+		try {
+			codec.writeValue(g, value);
+			return g.writeTo(dst);
+		} finally {
+			releaseGenerator(g);
+		}
+	}
+
+	/**
+	 * Returns histograms of the sizes of all values serialized with
+	 * {@link #writeValueAsBytes(Object)} and
+	 * {@link #writeValue(ByteBuffer, Object)} so far, per type. The
+	 * factory uses them to choose the buffer size of the generator
+	 * before it serializes another value of the same type (see
+	 * {@link BsonGenerator#setSizeHistogram(SizeHistogram)}).
+	 * @return an unmodifiable view of the histograms
+	 * @since 2.9.1
+	 */
+	public Map<Class<?>, SizeHistogram> getSizeHistograms() {
+		if (_sizeHistograms == null) {
+			return Collections.emptyMap();
+		}
+		return Collections.unmodifiableMap(_sizeHistograms);
+	}
+
+	/**
+	 * Gets or creates the histogram recording the sizes of values of
+	 * the same type as the given one
+	 * @param value the value
+	 * @return the histogram (may be null if the value is null or if
+	 * the factory has been deserialized)
+	 */
+	private SizeHistogram getSizeHistogram(Object value) {
+		if (value == null || _sizeHistograms == null) {
+			return null;
+		}
+		Class<?> type = value.getClass();
+		SizeHistogram r = _sizeHistograms.get(type);
+		if (r == null) {
+			r = new SizeHistogram();
+			SizeHistogram existing = _sizeHistograms.putIfAbsent(type, r);
+			if (existing != null) {
+				r = existing;
+			}
+		}
+		return r;
+	}
 
 	@Override
 	public BsonGenerator createGenerator(OutputStream out) throws IOException {
@@ -300,7 +686,18 @@ public class BsonFactory extends JsonFactory {
 		if (enc == JsonEncoding.UTF8 && _outputDecorator != null) {
 			out = _outputDecorator.decorate(ctxt, out);
 		}
-		BsonGenerator g = new BsonGenerator(_generatorFeatures, _bsonGeneratorFeatures, out);
+		return configureGenerator(new BsonGenerator(_generatorFeatures,
+				_bsonGeneratorFeatures, out));
+	}
+	
+	/**
+	 * Sets the factory's codec and character escapes on a newly
+	 * created generator
+	 * @param g the generator
+	 * @return the generator
+	 */
+	private BsonGenerator configureGenerator(BsonGenerator g) {
+		g.setBufferPool(getBufferPool());
 		ObjectCodec codec = getCodec();
 		if (codec != null) {
 			g.setCodec(codec);
@@ -409,15 +806,336 @@ public class BsonFactory extends JsonFactory {
         return _createParser(data, offset, len, ctxt);
 	}
 
+	/**
+	 * Creates a parser that reads directly from the given buffer (heap or
+	 * direct). The parser reads the bytes between the buffer's position and
+	 * its limit. The buffer's position, limit and byte order will not be
+	 * modified.
+	 * @param buf the buffer to read from
+	 * @return the parser
+	 * @throws IOException if the parser could not be created
+	 * @since 2.9.1
+	 */
+	public BsonParser createParser(ByteBuffer buf) throws IOException {
+		IOContext ctxt = _createContext(buf, true);
+		return _createParser(new LittleEndianByteBufferInputStream(buf), ctxt);
+	}
+
+	/**
+	 * <p>Leases a parser reading from the given byte array. Each thread
+	 * can reuse one parser: if the parser the thread has released last
+	 * is available, it will be reset to the new input (see
+	 * {@link BsonParser#reset(byte[], int, int)}) instead of creating a
+	 * new one. This saves the cost of setting up a parser for each
+	 * message if many small messages are parsed.</p>
+	 * <p>Pass the parser to {@link #releaseParser(BsonParser)} when it
+	 * is not needed anymore. It must not be used after it has been
+	 * released.</p>
+	 * @param data the array to read from
+	 * @param offset the index of the first byte to read
+	 * @param len the number of bytes to read
+	 * @return the parser
+	 * @throws IOException if the parser could not be created
+	 * @since 2.9.1
+	 */
+	public BsonParser leaseParser(byte[] data, int offset, int len) throws IOException {
+		if (_inputDecorator != null) {
+			return createParser(data, offset, len);
+		}
+		BsonParser p = pollParser();
+		if (p == null) {
+			//do not keep a reference to the data in the parser's context
+			return _createParser(data, offset, len, _createContext(null, true));
+		}
+		p.reset(data, offset, len);
+		return p;
+	}
+
+	/**
+	 * Leases a parser reading from the given input stream. See
+	 * {@link #leaseParser(byte[], int, int)} for details.
+	 * @param in the input stream to read from
+	 * @return the parser
+	 * @throws IOException if the parser could not be created
+	 * @since 2.9.1
+	 */
+	public BsonParser leaseParser(InputStream in) throws IOException {
+		if (_inputDecorator != null) {
+			return createParser(in);
+		}
+		BsonParser p = pollParser();
+		if (p == null) {
+			//do not keep a reference to the stream in the parser's context
+			return _createParser(in, _createContext(null, false));
+		}
+		p.resetInputStream(in);
+		return p;
+	}
+
+	/**
+	 * Closes a parser obtained from {@link #leaseParser(byte[], int, int)}
+	 * or {@link #leaseParser(InputStream)} and makes it available to the
+	 * next lease of the current thread. The parser forgets its input and
+	 * its codec, so they can be garbage collected.
+	 * @param p the parser
+	 * @throws IOException if the parser could not be closed
+	 * @since 2.9.1
+	 */
+	public void releaseParser(BsonParser p) throws IOException {
+		if (p.getClass() != BsonParser.class) {
+			//subclasses might not support being reset to an input stream
+			p.close();
+			return;
+		}
+		if (p.detach()) {
+			LeasableInstances li = getLeasableInstances();
+			if (li != null) {
+				li.parser = p;
+			}
+		}
+	}
+
+	/**
+	 * Takes the current thread's leasable parser and configures it
+	 * like a new parser
+	 * @return the parser or null if there is no leasable parser or if
+	 * it has been created with other features
+	 */
+	private BsonParser pollParser() {
+		LeasableInstances li = getLeasableInstances();
+		if (li == null || li.parser == null) {
+			return null;
+		}
+		BsonParser p = li.parser;
+		li.parser = null;
+		if (!p.hasFeatures(_parserFeatures, _bsonParserFeatures)) {
+			return null;
+		}
+		p.setFieldNameCanonicalizer(getFieldNameCanonicalizer());
+		p.setCodec(getCodec());
+		p.setProjection(null);
+		return p;
+	}
+
+	/**
+	 * <p>Leases a generator writing to the given output stream. Each
+	 * thread can reuse one generator: if the generator the thread has
+	 * released last is available, it will be reset to the new output
+	 * (see {@link BsonGenerator#reset(OutputStream)}) instead of
+	 * creating a new one. This saves the cost of setting up a generator
+	 * for each message if many small messages are written.</p>
+	 * <p>Pass the generator to {@link #releaseGenerator(BsonGenerator)}
+	 * when all documents have been written. It must not be used after it
+	 * has been released.</p>
+	 * @param out the output stream to write to
+	 * @return the generator
+	 * @throws IOException if the generator could not be created
+	 * @since 2.9.1
+	 */
+	public BsonGenerator leaseGenerator(OutputStream out) throws IOException {
+		if (_outputDecorator != null) {
+			return createGenerator(out);
+		}
+		BsonGenerator g = pollGenerator();
+		if (g == null) {
+			return createGenerator(out);
+		}
+		g.reset(out);
+		return g;
+	}
+
+	/**
+	 * Leases a generator that keeps its output in memory (see
+	 * {@link #createBufferedGenerator()} and
+	 * {@link #leaseGenerator(OutputStream)})
+	 * @return the generator
+	 */
+	private BsonGenerator leaseBufferedGenerator() {
+		BsonGenerator g = pollGenerator();
+		if (g == null) {
+			return createBufferedGenerator();
+		}
+		g.reset(null);
+		return g;
+	}
+
+	/**
+	 * Takes the current thread's leasable generator and configures it
+	 * like a new generator
+	 * @return the generator or null if there is no leasable generator
+	 * or if it has been created with other features
+	 */
+	private BsonGenerator pollGenerator() {
+		LeasableInstances li = getLeasableInstances();
+		if (li == null || li.generator == null) {
+			return null;
+		}
+		BsonGenerator g = li.generator;
+		li.generator = null;
+		if (!g.hasFeatures(_generatorFeatures, _bsonGeneratorFeatures)) {
+			return null;
+		}
+		g.setSizeHint(0);
+		g.setSizeHistogram(null);
+		g.setCharacterEscapes(_characterEscapes);
+		return configureGenerator(g);
+	}
+
+	/**
+	 * Closes a generator obtained from {@link #leaseGenerator(OutputStream)}
+	 * (if it has not been closed yet) and makes it available to the next
+	 * lease of the current thread. The generator forgets its output and
+	 * its codec, so they can be garbage collected.
+	 * @param g the generator
+	 * @throws IOException if the generator could not be closed
+	 * @since 2.9.1
+	 */
+	public void releaseGenerator(BsonGenerator g) throws IOException {
+		if (g.getClass() != BsonGenerator.class) {
+			if (!g.isClosed()) {
+				g.close();
+			}
+			return;
+		}
+		g.detach();
+		LeasableInstances li = getLeasableInstances();
+		if (li != null) {
+			li.generator = g;
+		}
+	}
+
+	/**
+	 * @return the parser and the generator the current thread can lease
+	 * (may be null if the factory has been deserialized)
+	 */
+	private LeasableInstances getLeasableInstances() {
+		if (_leasableInstances == null) {
+			return null;
+		}
+		SoftReference<LeasableInstances> ref = _leasableInstances.get();
+		LeasableInstances r = ref == null ? null : ref.get();
+		if (r == null) {
+			r = new LeasableInstances();
+			_leasableInstances.set(new SoftReference<LeasableInstances>(r));
+		}
+		return r;
+	}
+
+	/**
+	 * Creates a reader that iterates over a sequence of concatenated
+	 * documents (e.g. a file created by {@code mongodump}) and maps each
+	 * document to the given type. The reader uses a single parser for all
+	 * documents, so buffers and symbol tables are reused. Requires an
+	 * {@link ObjectCodec} to be set (see {@link #setCodec(ObjectCodec)}).
+	 * {@link BsonParser.Feature#HONOR_DOCUMENT_LENGTH} will be ignored
+	 * because the reader always consumes the whole input.
+	 * @param <T> the type of the documents
+	 * @param in the input stream to read from
+	 * @param valueType the type of the documents. Use
+	 * {@link com.fasterxml.jackson.databind.JsonNode} to read trees.
+	 * @return the reader
+	 * @throws IOException if the reader could not be created
+	 * @since 2.9.1
+	 */
+	public <T> BsonDocumentReader<T> createDocumentReader(InputStream in,
+			Class<T> valueType) throws IOException {
+		IOContext ctxt = _createContext(in, false);
+		if (_inputDecorator != null) {
+			in = _inputDecorator.decorate(ctxt, in);
+		}
+		return new BsonDocumentReader<T>(createStreamParser(in, ctxt,
+				getDocumentReaderFeatures()), valueType);
+	}
+
+	/**
+	 * Creates a reader that iterates over a file containing a sequence of
+	 * concatenated documents (e.g. a file created by {@code mongodump}).
+	 * See {@link #createDocumentReader(InputStream, Class)} for details.
+	 * The file will be mapped into memory if
+	 * {@link BsonParser.Feature#MEMORY_MAP_FILES} is enabled.
+	 * @param <T> the type of the documents
+	 * @param f the file to read from
+	 * @param valueType the type of the documents
+	 * @return the reader
+	 * @throws IOException if the reader could not be created
+	 * @since 2.9.1
+	 */
+	public <T> BsonDocumentReader<T> createDocumentReader(File f,
+			Class<T> valueType) throws IOException {
+		return new BsonDocumentReader<T>(createFileParser(f,
+				getDocumentReaderFeatures()), valueType);
+	}
+
+	/**
+	 * @return the BSON parser features for parsers used by a
+	 * {@link BsonDocumentReader}
+	 */
+	private int getDocumentReaderFeatures() {
+		return _bsonParserFeatures & ~BsonParser.Feature.HONOR_DOCUMENT_LENGTH.getMask();
+	}
+
+	/**
+	 * Creates a non-blocking parser that has to be fed with input through
+	 * its {@link com.fasterxml.jackson.core.async.ByteArrayFeeder} (see
+	 * {@link com.fasterxml.jackson.core.JsonParser#getNonBlockingInputFeeder()}).
+	 * This method requires Jackson 2.9 or higher.
+	 * @return the parser
+	 * @throws IOException if the parser could not be created
+	 * @see NonBlockingBsonParser
+	 * @since 2.9.1
+	 */
+	@Override
+	public BsonParser createNonBlockingByteArrayParser() throws IOException {
+		IOContext ctxt = _createContext(null, false);
+		//do not refer to NonBlockingBsonParser directly. It requires
+		//Jackson 2.9 and this class should also load with older versions.
+		BsonParser p = NonBlockingBsonParser.create(ctxt, _parserFeatures,
+				_bsonParserFeatures);
+		p.setFieldNameCanonicalizer(getFieldNameCanonicalizer());
+		ObjectCodec codec = getCodec();
+		if (codec != null) {
+			p.setCodec(codec);
+		}
+		return p;
+	}
+
+	@Override
+	public boolean canParseAsync() {
+		return true;
+	}
+
 	@SuppressWarnings("resource")
 	@Override
 	public BsonParser createParser(File f) throws IOException {
+		return createFileParser(f, _bsonParserFeatures);
+	}
+
+	/**
+	 * Creates a parser that reads from the given file. Maps the file into
+	 * memory if {@link BsonParser.Feature#MEMORY_MAP_FILES} is enabled.
+	 * @param f the file to read from
+	 * @param bsonFeatures the BSON parser features to enable
+	 * @return the parser
+	 * @throws IOException if the file could not be opened
+	 */
+	private BsonParser createFileParser(File f, int bsonFeatures) throws IOException {
         IOContext ctxt = _createContext(f, true);
-        InputStream in = new FileInputStream(f);
+        FileInputStream fis = new FileInputStream(f);
+        if (_inputDecorator == null && isEnabled(BsonParser.Feature.MEMORY_MAP_FILES)) {
+            MappedFileInputStream in;
+            try {
+                in = new MappedFileInputStream(fis.getChannel());
+            } catch (IOException e) {
+                fis.close();
+                throw e;
+            }
+            return createBufferParser(in, ctxt, bsonFeatures);
+        }
+        InputStream in = fis;
         if (_inputDecorator != null) {
             in = _inputDecorator.decorate(ctxt, in);
         }
-        return _createParser(in, ctxt);
+        return createStreamParser(in, ctxt, bsonFeatures);
     }
 
 	@Override
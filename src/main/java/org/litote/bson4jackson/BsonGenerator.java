@@ -18,26 +18,42 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.core.Base64Variant;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.SerializableString;
 import com.fasterxml.jackson.core.base.GeneratorBase;
 import com.fasterxml.jackson.core.io.CharacterEscapes;
 import com.fasterxml.jackson.core.json.JsonWriteContext;
 import com.fasterxml.jackson.databind.SerializerProvider;
 
+import org.litote.bson4jackson.io.BufferPool;
 import org.litote.bson4jackson.io.ByteOrderUtil;
 import org.litote.bson4jackson.io.DynamicOutputBuffer;
+import org.litote.bson4jackson.io.SizeHistogram;
 import org.litote.bson4jackson.types.Decimal128;
 import org.litote.bson4jackson.types.JavaScript;
 import org.litote.bson4jackson.types.ObjectId;
+import org.litote.bson4jackson.types.RawBsonDocument;
 import org.litote.bson4jackson.types.Symbol;
 import org.litote.bson4jackson.types.Timestamp;
 
@@ -63,6 +79,13 @@ public class BsonGenerator extends GeneratorBase {
 		 * ignores the total number of bytes anyway (like {@link BsonParser}
 		 * or <code>org.bson.BSONDecoder</code> from the MongoDB Java Driver
 		 * do) then this feature will be very useful.</p>
+		 * <p>If the generator writes to a {@link SeekableByteChannel}
+		 * (see {@link BsonGenerator#BsonGenerator(int, int, SeekableByteChannel)}
+		 * and {@link BsonFactory#createGenerator(java.io.File, com.fasterxml.jackson.core.JsonEncoding)})
+		 * the headers of documents that have already been flushed will
+		 * be updated with positional writes, so the output remains
+		 * compatible to the specification. For other targets see
+		 * {@link BsonFactory#writeValueStreaming(OutputStream, Object)}.</p>
 		 * <p>This feature is disabled by default.</p>
 		 */
 		ENABLE_STREAMING,
@@ -81,7 +104,19 @@ public class BsonGenerator extends GeneratorBase {
 		 * (since mongo 2.4)
 		 * <p>This feature is disabled by default.</p>
 		 */
-		WRITE_BIGDECIMALS_AS_DECIMAL128;
+		WRITE_BIGDECIMALS_AS_DECIMAL128,
+		
+		/**
+		 * <p>Makes the generator use direct (off-heap) buffers from the
+		 * buffer pool. If the generator writes to a channel (see
+		 * {@link BsonGenerator#BsonGenerator(int, int, WritableByteChannel)}),
+		 * the buffers will be passed to the channel without being copied
+		 * first. The buffers will be released to the pool when the
+		 * generator is closed.</p>
+		 * <p>This feature is disabled by default.</p>
+		 * @since 2.9.1
+		 */
+		USE_DIRECT_BUFFERS;
 		
 		/**
 		 * @return the bit mask that identifies this feature
@@ -113,6 +148,13 @@ public class BsonGenerator extends GeneratorBase {
 		 */
 		int currentArrayPos;
 		
+		/**
+		 * The number of documents and JavaScript values with scope
+		 * started before this one (i.e. the index of this document's
+		 * size in the order of appearance)
+		 */
+		int index;
+		
 		/**
 		 * Creates a new DocumentInfo object
 		 * @param parent information about the parent document (may be
@@ -135,9 +177,78 @@ public class BsonGenerator extends GeneratorBase {
     protected final int _bsonFeatures;
     
 	/**
-	 * The output stream to write to
+	 * The output stream to write to (may be null if the generator keeps
+	 * its output in memory, see {@link #BsonGenerator(int, int)})
+	 */
+	protected OutputStream _out;
+	
+	/**
+	 * The channel to write to (may be null if the generator writes to
+	 * {@link #_out} only)
+	 */
+	protected WritableByteChannel _outChannel;
+	
+	/**
+	 * The channel to write to if the target is seekable (may be null).
+	 * Used to update the headers of documents that have already been
+	 * flushed if {@link Feature#ENABLE_STREAMING} is enabled.
+	 */
+	protected SeekableByteChannel _channel;
+	
+	/**
+	 * The position in {@link #_channel} where the first byte of
+	 * {@link #_buffer} will be written to
+	 */
+	protected long _channelOffset;
+	
+	/**
+	 * Precomputed sizes of all documents and JavaScript values with
+	 * scope to write in the order of their appearance (may be null).
+	 * Used to write valid headers if streaming is enabled but the target
+	 * is not seekable.
+	 */
+	protected int[] _documentSizes;
+	
+	/**
+	 * Records the sizes of all documents and JavaScript values with
+	 * scope written in the order of their appearance if not null (see
+	 * {@link #recordDocumentSizes()})
+	 */
+	protected int[] _recordedDocumentSizes;
+	
+	/**
+	 * The number of documents (including embedded ones) and JavaScript
+	 * values with scope started so far
+	 */
+	protected int _documentCount;
+	
+	/**
+	 * The smallest size of the output buffer's internal buffers chosen
+	 * by {@link #setSizeHint(int)} or {@link #setSizeHistogram(SizeHistogram)}
+	 */
+	public static final int MIN_ADAPTIVE_BUFFER_SIZE = 1024;
+	
+	/**
+	 * The largest size of the output buffer's internal buffers chosen
+	 * by {@link #setSizeHint(int)} or {@link #setSizeHistogram(SizeHistogram)}
+	 */
+	public static final int MAX_ADAPTIVE_BUFFER_SIZE = 1024 * 1024;
+	
+	/**
+	 * The percentile of the sizes recorded in {@link #_sizeHistogram}
+	 * that should fit into one internal buffer
+	 */
+	protected static final double SIZE_HISTOGRAM_PERCENTILE = 0.9;
+	
+	/**
+	 * The expected size of the next top-level documents (0 if unknown)
 	 */
-	protected final OutputStream _out;
+	protected int _sizeHint;
+	
+	/**
+	 * Records the sizes of all top-level documents written (may be null)
+	 */
+	protected SizeHistogram _sizeHistogram;
 	
 	/**
 	 * Since a BSON document's header must include the size of the whole document
@@ -172,6 +283,42 @@ public class BsonGenerator extends GeneratorBase {
 	 * see {@link #setCharacterEscapes(CharacterEscapes)})
 	 */
 	protected int[] _outputEscapes = null;
+	
+	/**
+	 * Pre-encoded field names of the first array elements (i.e. the
+	 * ASCII representations of the array indexes "0", "1", "2", etc.)
+	 */
+	private static final byte[][] ARRAY_INDEX_KEYS = new byte[1024][];
+	static {
+		for (int i = 0; i < ARRAY_INDEX_KEYS.length; ++i) {
+			String s = String.valueOf(i);
+			byte[] b = new byte[s.length()];
+			for (int j = 0; j < b.length; ++j) {
+				b[j] = (byte)s.charAt(j);
+			}
+			ARRAY_INDEX_KEYS[i] = b;
+		}
+	}
+	
+	/**
+	 * The maximum number of entries in {@link #_fieldNameCache}. The cache
+	 * will be cleared if this number is exceeded.
+	 */
+	protected static final int MAX_FIELD_NAME_CACHE_SIZE = 256;
+	
+	/**
+	 * Caches UTF-8 encoded field names, so that keys written repeatedly
+	 * (e.g. the properties of POJOs in a collection) only have to be
+	 * encoded once. Only used for field names containing non-ASCII
+	 * characters and if {@link #_characterEscapes} is null. Lazily
+	 * initialized.
+	 */
+	protected Map<String, byte[]> _fieldNameCache;
+	
+	/**
+	 * The encoder used to fill {@link #_fieldNameCache}. Lazily initialized.
+	 */
+	protected CharsetEncoder _fieldNameEncoder;
 
 	/**
 	 * Creates a new generator
@@ -185,7 +332,101 @@ public class BsonGenerator extends GeneratorBase {
 		super(jsonFeatures, null);
 		_bsonFeatures = bsonFeatures;
 		_out = out;
-		
+		_outChannel = null;
+		_channel = null;
+		init();
+	}
+	
+	/**
+	 * Creates a new generator that does not write to an output stream but
+	 * keeps its output in memory. Finished documents can be copied into
+	 * an exactly sized byte array with {@link #toByteArray()} or into a
+	 * target provided by the caller with {@link #writeTo(byte[], int)} or
+	 * {@link #writeTo(ByteBuffer)}. This avoids copying the output through
+	 * an intermediate stream. {@link Feature#ENABLE_STREAMING} has no
+	 * effect on such a generator.
+	 * @param jsonFeatures bit flag composed of bits that indicate which
+	 * {@link com.fasterxml.jackson.core.JsonGenerator.Feature}s are enabled.
+	 * @param bsonFeatures bit flag composed of bits that indicate which
+	 * {@link Feature}s are enabled.
+	 * @since 2.9.1
+	 */
+	public BsonGenerator(int jsonFeatures, int bsonFeatures) {
+		this(jsonFeatures, bsonFeatures, (OutputStream)null);
+	}
+	
+	/**
+	 * Creates a new generator that writes to a channel. Internal buffers
+	 * will be written to the channel directly, which avoids copying if
+	 * {@link Feature#USE_DIRECT_BUFFERS} is enabled. If the channel is
+	 * seekable, see {@link #BsonGenerator(int, int, SeekableByteChannel)}.
+	 * @param jsonFeatures bit flag composed of bits that indicate which
+	 * {@link com.fasterxml.jackson.core.JsonGenerator.Feature}s are enabled.
+	 * @param bsonFeatures bit flag composed of bits that indicate which
+	 * {@link Feature}s are enabled.
+	 * @param out the channel to write to (must be in blocking mode)
+	 * @throws IOException if the channel is seekable and its position
+	 * could not be determined
+	 * @since 2.9.1
+	 */
+	public BsonGenerator(int jsonFeatures, int bsonFeatures,
+			WritableByteChannel out) throws IOException {
+		this(jsonFeatures, bsonFeatures, Channels.newOutputStream(out), out);
+	}
+	
+	/**
+	 * Creates a new generator that writes to a seekable channel. If
+	 * {@link Feature#ENABLE_STREAMING} is enabled, the generator flushes
+	 * its buffer regularly and updates the headers of flushed documents
+	 * with positional writes. The output will always be compatible to
+	 * the BSON specification.
+	 * @param jsonFeatures bit flag composed of bits that indicate which
+	 * {@link com.fasterxml.jackson.core.JsonGenerator.Feature}s are enabled.
+	 * @param bsonFeatures bit flag composed of bits that indicate which
+	 * {@link Feature}s are enabled.
+	 * @param out the channel to write to (writing starts at its
+	 * current position)
+	 * @throws IOException if the channel's position could not be determined
+	 * @since 2.9.1
+	 */
+	public BsonGenerator(int jsonFeatures, int bsonFeatures,
+			SeekableByteChannel out) throws IOException {
+		this(jsonFeatures, bsonFeatures, Channels.newOutputStream(out), out);
+	}
+	
+	/**
+	 * Creates a new generator that writes to the given output stream,
+	 * which writes to the given channel
+	 * @param jsonFeatures bit flag composed of bits that indicate which
+	 * {@link com.fasterxml.jackson.core.JsonGenerator.Feature}s are enabled.
+	 * @param bsonFeatures bit flag composed of bits that indicate which
+	 * {@link Feature}s are enabled.
+	 * @param out the output stream to write to
+	 * @param channel the channel backing the output stream
+	 * @throws IOException if the channel is seekable and its position
+	 * could not be determined
+	 * @since 2.9.1
+	 */
+	protected BsonGenerator(int jsonFeatures, int bsonFeatures,
+			OutputStream out, WritableByteChannel channel) throws IOException {
+		super(jsonFeatures, null);
+		_bsonFeatures = bsonFeatures;
+		_out = out;
+		_outChannel = channel;
+		if (channel instanceof SeekableByteChannel) {
+			_channel = (SeekableByteChannel)channel;
+			_channelOffset = _channel.position();
+		} else {
+			_channel = null;
+		}
+		init();
+	}
+	
+	/**
+	 * Initializes the generator's output buffer
+	 */
+	private void init() {
+		_buffer.setDirect(isEnabled(Feature.USE_DIRECT_BUFFERS));
 		if (isEnabled(Feature.ENABLE_STREAMING)) {
 			//if streaming is enabled, try to reuse some buffers
 			//this will save garbage collector cycles if the tokens
@@ -194,6 +435,77 @@ public class BsonGenerator extends GeneratorBase {
 		}
 	}
 	
+	/**
+	 * <p>Prepares the generator to write to a new output stream. The
+	 * generator forgets all documents it has written or started so far
+	 * (including any output that has not been written to the previous
+	 * output stream yet) and can be used as if it was newly created. Its
+	 * configuration (features, codec and character escapes) as well as
+	 * its cache of encoded field names are kept. This saves the cost of
+	 * creating a new generator for every message if many small messages
+	 * are written.</p>
+	 * <p>The previous output stream will not be flushed or closed. Call
+	 * {@link #close()} before resetting the generator if necessary.</p>
+	 * @param out the output stream to write to (may be null if the
+	 * generator should keep its output in memory, see
+	 * {@link #BsonGenerator(int, int)})
+	 * @see BsonFactory#leaseGenerator(OutputStream)
+	 * @since 2.9.1
+	 */
+	public void reset(OutputStream out) {
+		_buffer.clear();
+		_out = out;
+		_outChannel = null;
+		_channel = null;
+		_channelOffset = 0;
+		_documentSizes = null;
+		_recordedDocumentSizes = null;
+		_documentCount = 0;
+		_typeMarker = 0;
+		_currentDocument = null;
+		nextObjectIsEmbeddedInValue = false;
+		while (_writeContext.getParent() != null) {
+			_writeContext = _writeContext.getParent();
+		}
+		_closed = false;
+	}
+	
+	/**
+	 * Checks if the generator has been created with the given features
+	 * and if they have not been changed since
+	 * @param jsonFeatures the expected
+	 * {@link com.fasterxml.jackson.core.JsonGenerator.Feature}s
+	 * @param bsonFeatures the expected {@link Feature}s
+	 * @return true if exactly the given features are enabled
+	 */
+	protected boolean hasFeatures(int jsonFeatures, int bsonFeatures) {
+		return _features == jsonFeatures && _bsonFeatures == bsonFeatures;
+	}
+	
+	/**
+	 * Closes the generator (if it has not been closed yet) and forgets
+	 * its output and its codec, so neither of them is kept reachable
+	 * while the generator is not in use. The generator's configuration
+	 * and its cache of encoded field names are kept, so it can be reused
+	 * after calling {@link #reset(OutputStream)}.
+	 * @throws IOException if the generator could not be closed
+	 * @see BsonFactory#releaseGenerator(BsonGenerator)
+	 */
+	protected void detach() throws IOException {
+		try {
+			if (!isClosed()) {
+				close();
+			}
+		} finally {
+			_buffer.clear();
+			_out = null;
+			_outChannel = null;
+			_channel = null;
+			_currentDocument = null;
+			setCodec(null);
+		}
+	}
+	
 	@Override
 	public JsonGenerator setCharacterEscapes(CharacterEscapes esc) {
 		_characterEscapes = esc;
@@ -210,6 +522,16 @@ public class BsonGenerator extends GeneratorBase {
 		return _characterEscapes;
 	}
 	
+	/**
+	 * Sets the pool providing the generator's output buffers. Should
+	 * be called before anything is written.
+	 * @param pool the pool
+	 * @since 2.9.1
+	 */
+	public void setBufferPool(BufferPool pool) {
+		_buffer.setBufferPool(pool);
+	}
+	
 	/**
 	 * Checks if a generator feature is enabled
 	 * @param f the feature
@@ -245,7 +567,57 @@ public class BsonGenerator extends GeneratorBase {
 	 * Reserves bytes for the BSON document header
 	 */
 	protected void reserveHeader() {
-		_buffer.putInt(0);
+		_currentDocument.index = reserveSize();
+	}
+	
+	/**
+	 * Reserves bytes for the size of a document or a JavaScript value
+	 * with scope. Writes the precomputed size if available.
+	 * @return the index of the size in the order of appearance
+	 */
+	protected int reserveSize() {
+		int size = 0;
+		if (_documentSizes != null) {
+			if (_documentCount >= _documentSizes.length) {
+				throw new IllegalStateException("Number of documents " +
+						"differs from the precomputed one");
+			}
+			size = _documentSizes[_documentCount];
+		}
+		_buffer.putInt(size);
+		return _documentCount++;
+	}
+	
+	/**
+	 * Writes a size previously reserved with {@link #reserveSize()}.
+	 * Records the size if necessary (see {@link #recordDocumentSizes()}).
+	 * If streaming is enabled, the size will be patched in the channel or
+	 * compared with the precomputed one.
+	 * @param pos the position of the reserved bytes in the output buffer
+	 * @param index the index returned by {@link #reserveSize()}
+	 * @param size the size to write
+	 * @throws IOException if the size could not be written
+	 */
+	protected void writeSize(int pos, int index, int size) throws IOException {
+		if (_recordedDocumentSizes != null) {
+			if (index >= _recordedDocumentSizes.length) {
+				_recordedDocumentSizes = Arrays.copyOf(_recordedDocumentSizes,
+						Math.max(index + 1, _recordedDocumentSizes.length * 2));
+			}
+			_recordedDocumentSizes[index] = size;
+		}
+		
+		//re-write size (only if streaming is not enabled or if we can
+		//write to the channel since otherwise the buffer containing the
+		//reserved bytes might not be available anymore)
+		if (!isEnabled(Feature.ENABLE_STREAMING) || _out == null) {
+			_buffer.putInt(pos, size);
+		} else if (_channel != null) {
+			patchSize(pos, size);
+		} else if (_documentSizes != null && _documentSizes[index] != size) {
+			throw new IllegalStateException("Size of document differs " +
+					"from the precomputed one");
+		}
 	}
 	
 	/**
@@ -257,11 +629,278 @@ public class BsonGenerator extends GeneratorBase {
 		_buffer.putInt(pos, _buffer.size() - pos);
 	}
 	
+	/**
+	 * Writes a size at the given position. If parts of it have already
+	 * been flushed to {@link #_channel} they will be updated with a
+	 * positional write.
+	 * @param pos the position where to write the size
+	 * @param size the size to write
+	 * @throws IOException if the channel could not be written
+	 */
+	protected void patchSize(int pos, int size) throws IOException {
+		int flushed = _buffer.getFlushPosition() - pos;
+		if (flushed <= 0) {
+			_buffer.putInt(pos, size);
+			return;
+		}
+		
+		ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0, size);
+		
+		//update bytes still in memory
+		for (int i = flushed; i < 4; ++i) {
+			_buffer.putByte(pos + i, header.get(i));
+		}
+		
+		//update bytes already written
+		header.limit(Math.min(flushed, 4));
+		long channelPos = _channelOffset + pos;
+		if (_channel instanceof FileChannel) {
+			FileChannel fc = (FileChannel)_channel;
+			while (header.hasRemaining()) {
+				fc.write(header, channelPos + header.position());
+			}
+		} else {
+			long oldPos = _channel.position();
+			_channel.position(channelPos);
+			while (header.hasRemaining()) {
+				_channel.write(header);
+			}
+			_channel.position(oldPos);
+		}
+	}
+	
+	/**
+	 * Makes the generator record the sizes of all documents written
+	 * from now on. The recorded sizes can be passed to
+	 * {@link #setDocumentSizes(int[])} of another generator that writes
+	 * exactly the same tokens to a non-seekable target with
+	 * {@link Feature#ENABLE_STREAMING} enabled.
+	 * @see BsonFactory#writeValueStreaming(OutputStream, Object)
+	 * @since 2.9.1
+	 */
+	public void recordDocumentSizes() {
+		_recordedDocumentSizes = new int[16];
+		_documentCount = 0;
+	}
+	
+	/**
+	 * @return the document sizes recorded since
+	 * {@link #recordDocumentSizes()} has been called, or null if the
+	 * sizes have not been recorded
+	 * @since 2.9.1
+	 */
+	public int[] getRecordedDocumentSizes() {
+		if (_recordedDocumentSizes == null) {
+			return null;
+		}
+		return Arrays.copyOf(_recordedDocumentSizes, _documentCount);
+	}
+	
+	/**
+	 * <p>Specifies the expected size of the next top-level documents in
+	 * bytes. Before the generator starts a document and if its output
+	 * buffer is empty, it chooses the size of the buffer's internal
+	 * buffers accordingly (between {@link #MIN_ADAPTIVE_BUFFER_SIZE} and
+	 * {@link #MAX_ADAPTIVE_BUFFER_SIZE}). Small documents then only
+	 * occupy a small buffer while large ones are spread across fewer
+	 * internal buffers. The hint does not need to be exact.</p>
+	 * <p>If no hint is given, the size is estimated from the
+	 * histogram set with {@link #setSizeHistogram(SizeHistogram)}.
+	 * If there is no histogram either,
+	 * {@link DynamicOutputBuffer#DEFAULT_BUFFER_SIZE} will be used.</p>
+	 * @param size the expected document size or 0 if it is unknown
+	 * @since 2.9.1
+	 */
+	public void setSizeHint(int size) {
+		_sizeHint = size;
+	}
+	
+	/**
+	 * @return the expected size of the next top-level documents or 0
+	 * if it is unknown (see {@link #setSizeHint(int)})
+	 * @since 2.9.1
+	 */
+	public int getSizeHint() {
+		return _sizeHint;
+	}
+	
+	/**
+	 * Sets a histogram that records the sizes of all top-level documents
+	 * written from now on. If no size hint has been given (see
+	 * {@link #setSizeHint(int)}), the generator uses the histogram to
+	 * estimate the size of the next document. The same histogram can be
+	 * shared by several generators writing similar documents, so they
+	 * learn from each other.
+	 * @param histogram the histogram (may be null)
+	 * @see BsonFactory#getSizeHistograms()
+	 * @since 2.9.1
+	 */
+	public void setSizeHistogram(SizeHistogram histogram) {
+		_sizeHistogram = histogram;
+	}
+	
+	/**
+	 * @return the histogram recording the sizes of all top-level
+	 * documents written (may be null)
+	 * @since 2.9.1
+	 */
+	public SizeHistogram getSizeHistogram() {
+		return _sizeHistogram;
+	}
+	
+	/**
+	 * Chooses the size of the output buffer's internal buffers based on
+	 * the size hint or the size histogram. Must only be called if the
+	 * output buffer is empty.
+	 */
+	protected void adaptBufferSize() {
+		long expected = _sizeHint;
+		if (expected <= 0 && _sizeHistogram != null) {
+			expected = _sizeHistogram.getPercentile(SIZE_HISTOGRAM_PERCENTILE);
+		}
+		int size;
+		if (expected <= 0) {
+			size = DynamicOutputBuffer.DEFAULT_BUFFER_SIZE;
+		} else if (expected >= MAX_ADAPTIVE_BUFFER_SIZE) {
+			size = MAX_ADAPTIVE_BUFFER_SIZE;
+		} else {
+			size = Math.max(MIN_ADAPTIVE_BUFFER_SIZE,
+					Integer.highestOneBit((int)expected - 1) << 1);
+		}
+		_buffer.setBufferSize(size);
+	}
+	
+	/**
+	 * Sets precomputed sizes of all documents that will be written from
+	 * now on in the order of their appearance. The sizes will be used
+	 * to write valid headers if {@link Feature#ENABLE_STREAMING} is
+	 * enabled and the target is not seekable.
+	 * @param sizes the document sizes (see {@link #recordDocumentSizes()})
+	 * @since 2.9.1
+	 */
+	public void setDocumentSizes(int[] sizes) {
+		_documentSizes = sizes;
+		_documentCount = 0;
+	}
+	
+	/**
+	 * @return the number of bytes written so far, i.e. the size of the
+	 * array {@link #toByteArray()} returns once all documents have been
+	 * finished (only valid if the generator keeps its output in memory,
+	 * see {@link #BsonGenerator(int, int)})
+	 * @since 2.9.1
+	 */
+	public int getOutputSize() {
+		return _buffer.size();
+	}
+	
+	/**
+	 * Copies all documents written so far into a new byte array of
+	 * exactly the required size and removes them from the generator's
+	 * memory. The generator can be used to write more documents
+	 * afterwards (unless it has been closed).
+	 * @return the documents written so far
+	 * @throws IllegalStateException if the generator does not keep its
+	 * output in memory (see {@link #BsonGenerator(int, int)}) or if a
+	 * document has not been finished yet
+	 * @since 2.9.1
+	 */
+	public byte[] toByteArray() {
+		checkBufferedOutput();
+		byte[] r = _buffer.toByteArray();
+		_buffer.clear();
+		return r;
+	}
+	
+	/**
+	 * Copies all documents written so far into the given byte array and
+	 * removes them from the generator's memory. See {@link #toByteArray()}.
+	 * @param dst the array to copy to
+	 * @param offset the position in the array where the first byte
+	 * will be written to
+	 * @return the number of bytes copied
+	 * @throws IndexOutOfBoundsException if the array is not large enough
+	 * (see {@link #getOutputSize()}). Nothing will be copied in this case.
+	 * @throws IllegalStateException if the generator does not keep its
+	 * output in memory or if a document has not been finished yet
+	 * @since 2.9.1
+	 */
+	public int writeTo(byte[] dst, int offset) {
+		checkBufferedOutput();
+		int r = _buffer.writeTo(dst, offset);
+		_buffer.clear();
+		return r;
+	}
+	
+	/**
+	 * Copies all documents written so far into the given byte buffer
+	 * (starting at its current position) and removes them from the
+	 * generator's memory. See {@link #toByteArray()}.
+	 * @param dst the byte buffer to copy to
+	 * @return the number of bytes copied
+	 * @throws java.nio.BufferOverflowException if the byte buffer has
+	 * not enough remaining space (see {@link #getOutputSize()}). Nothing
+	 * will be copied in this case.
+	 * @throws IllegalStateException if the generator does not keep its
+	 * output in memory or if a document has not been finished yet
+	 * @since 2.9.1
+	 */
+	public int writeTo(ByteBuffer dst) {
+		checkBufferedOutput();
+		int r = _buffer.writeTo(dst);
+		_buffer.clear();
+		return r;
+	}
+	
+	/**
+	 * Checks if the generator keeps its output in memory and if all
+	 * documents have been finished
+	 * @throws IllegalStateException if one of the conditions is not met
+	 */
+	private void checkBufferedOutput() {
+		if (_out != null) {
+			throw new IllegalStateException("Generator writes its " +
+					"output to a stream");
+		}
+		if (_currentDocument != null) {
+			throw new IllegalStateException("Document has not been " +
+					"finished yet");
+		}
+	}
+	
 	@Override
 	public void flush() throws IOException {
-		_buffer.writeTo(_out);
+		if (_out == null) {
+			//output is kept in memory
+			return;
+		}
+		if (_channel != null && _currentDocument != null) {
+			//keep unfinished documents in memory so we can update
+			//their headers later
+			flushBuffer();
+			_out.flush();
+			return;
+		}
+		writeBuffer();
 		_buffer.clear();
 		_out.flush();
+		if (_channel != null) {
+			_channelOffset = _channel.position();
+		}
+	}
+	
+	/**
+	 * Writes all non-flushed contents of the output buffer to the
+	 * channel or the output stream
+	 * @throws IOException if the buffer could not be written
+	 */
+	protected void writeBuffer() throws IOException {
+		if (_outChannel != null) {
+			_buffer.writeTo(_outChannel);
+		} else {
+			_buffer.writeTo(_out);
+		}
 	}
 
 	@Override
@@ -279,13 +918,17 @@ public class BsonGenerator extends GeneratorBase {
 		}
 		
 		//write buffer to output stream (if streaming is enabled,
-		//this will write the the rest of the buffer)
-		_buffer.writeTo(_out);
-		_buffer.clear();
-		_out.flush();
-		
-		if (isEnabled(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
-			_out.close();
+		//this will write the the rest of the buffer). release
+		//internal buffers afterwards. keep them if there is no output
+		//stream and the output should be kept in memory.
+		if (_out != null) {
+			writeBuffer();
+			_buffer.clear();
+			_out.flush();
+			
+			if (isEnabled(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+				_out.close();
+			}
 		}
 		
 		super.close();
@@ -336,6 +979,8 @@ public class BsonGenerator extends GeneratorBase {
 			//embedded document/array
 			_buffer.putByte(_typeMarker, array ? BsonConstants.TYPE_ARRAY :
 				BsonConstants.TYPE_DOCUMENT);
+		} else if (_buffer.size() == 0) {
+			adaptBufferSize();
 		}
 		_currentDocument = new DocumentInfo(_currentDocument, _buffer.size(), array);
 		reserveHeader();
@@ -352,18 +997,17 @@ public class BsonGenerator extends GeneratorBase {
         writeEndObjectInternal();
 	}
         
-	protected void writeEndObjectInternal() {
+	protected void writeEndObjectInternal() throws IOException {
 		if (_currentDocument != null) {
 			_buffer.putByte(BsonConstants.TYPE_END);
 			DocumentInfo info = _currentDocument;
 			_currentDocument = _currentDocument.parent;
 			
-			//re-write header to update document size (only if
-			//streaming is not enabled since in this case the buffer
-			//containing the header might not be available anymore)
-			if (!isEnabled(Feature.ENABLE_STREAMING)) {
-				putHeader(info.headerPos);
+			int size = _buffer.size() - info.headerPos;
+			if (_currentDocument == null && _sizeHistogram != null) {
+				_sizeHistogram.record(size);
 			}
+			writeSize(info.headerPos, info.index, size);
 		}
 	}
 	
@@ -376,7 +1020,19 @@ public class BsonGenerator extends GeneratorBase {
 	protected void _writeArrayFieldNameIfNeeded() throws IOException {
 		if (isArray()) {
 			int p = getAndIncCurrentArrayPos();
-			_writeFieldName(String.valueOf(p));
+			if (_characterEscapes != null) {
+				_writeFieldName(String.valueOf(p));
+			} else if (p < ARRAY_INDEX_KEYS.length) {
+				_writeFieldName(ARRAY_INDEX_KEYS[p]);
+			} else {
+				//reserve bytes for the type
+				_typeMarker = _buffer.size();
+				_buffer.putByte((byte)0);
+				
+				//write index without creating a string
+				_buffer.putDecimal(p);
+				_buffer.putByte(BsonConstants.END_OF_STRING);
+			}
 		}
 	}
 
@@ -386,7 +1042,85 @@ public class BsonGenerator extends GeneratorBase {
         if (status == JsonWriteContext.STATUS_EXPECT_VALUE) {
             _reportError("Can not write a field name, expecting a value");
         }
-        _writeFieldName(name);
+        if (_characterEscapes == null && !isASCII(name)) {
+        	_writeFieldName(getEncodedFieldName(name));
+        } else {
+        	//ASCII names are copied into the buffer without being encoded
+        	_writeFieldName(name);
+        }
+	}
+	
+	/**
+	 * Checks if a string only consists of ASCII characters
+	 * @param s the string
+	 * @return true if the string only consists of ASCII characters
+	 */
+	private static boolean isASCII(String s) {
+		for (int i = 0; i < s.length(); ++i) {
+			if (s.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public void writeFieldName(SerializableString name) throws IOException, JsonGenerationException {
+		int status = _writeContext.writeFieldName(name.getValue());
+		if (status == JsonWriteContext.STATUS_EXPECT_VALUE) {
+			_reportError("Can not write a field name, expecting a value");
+		}
+		if (_characterEscapes == null) {
+			//the serializable string already contains the encoded name
+			_writeFieldName(name.asUnquotedUTF8());
+		} else {
+			_writeFieldName(name.getValue());
+		}
+	}
+	
+	/**
+	 * Gets the UTF-8 representation of the given field name from
+	 * {@link #_fieldNameCache} or encodes it and puts it into the cache
+	 * @param name the field name
+	 * @return the UTF-8 encoded field name
+	 */
+	protected byte[] getEncodedFieldName(String name) {
+		if (_fieldNameCache == null) {
+			_fieldNameCache = new HashMap<String, byte[]>();
+			_fieldNameEncoder = Charset.forName("UTF-8").newEncoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT);
+		}
+		byte[] r = _fieldNameCache.get(name);
+		if (r == null) {
+			ByteBuffer bb;
+			try {
+				bb = _fieldNameEncoder.encode(CharBuffer.wrap(name));
+			} catch (CharacterCodingException e) {
+				throw new RuntimeException("Could not encode string", e);
+			}
+			r = new byte[bb.remaining()];
+			bb.get(r);
+			if (_fieldNameCache.size() >= MAX_FIELD_NAME_CACHE_SIZE) {
+				_fieldNameCache.clear();
+			}
+			_fieldNameCache.put(name, r);
+		}
+		return r;
+	}
+	
+	/**
+	 * Writes a field name that has already been encoded to UTF-8
+	 * @param name the UTF-8 encoded field name
+	 */
+	protected void _writeFieldName(byte[] name) {
+		//reserve bytes for the type
+		_typeMarker = _buffer.size();
+		_buffer.putByte((byte)0);
+		
+		//write field name
+		_buffer.putBytes(name);
+		_buffer.putByte(BsonConstants.END_OF_STRING);
 	}
         
 	protected void _writeFieldName(String name) throws IOException, JsonGenerationException {
@@ -412,12 +1146,17 @@ public class BsonGenerator extends GeneratorBase {
 	
 	/**
 	 * Tries to flush the output buffer if streaming is enabled. This
-	 * method is a no-op if streaming is disabled.
+	 * method is a no-op if streaming is disabled or if the generator
+	 * keeps its output in memory.
 	 * @throws IOException if flushing failed
 	 */
 	protected void flushBuffer() throws IOException {
-		if (isEnabled(Feature.ENABLE_STREAMING)) {
-			_buffer.flushTo(_out);
+		if (_out != null && isEnabled(Feature.ENABLE_STREAMING)) {
+			if (_outChannel != null) {
+				_buffer.flushTo(_outChannel);
+			} else {
+				_buffer.flushTo(_out);
+			}
 		}
 	}
 
@@ -505,10 +1244,7 @@ public class BsonGenerator extends GeneratorBase {
 		if (end > data.length) {
 			end = data.length;
 		}
-		while (offset < end) {
-			_buffer.putByte(data[offset]);
-			++offset;
-		}
+		_buffer.putBytes(data, offset, end - offset);
 		flushBuffer();
 	}
 
@@ -628,13 +1364,11 @@ public class BsonGenerator extends GeneratorBase {
 		_buffer.putInt(0);
 		
 		//write string
-		for (int i = offset; i < length; ++i) {
-			_buffer.putByte(text[i]);
-		}
+		_buffer.putBytes(text, offset, length);
 		_buffer.putByte(BsonConstants.END_OF_STRING);
 		
-		//write string size
-		_buffer.putInt(p, length);
+		//write string size (including the trailing zero byte)
+		_buffer.putInt(p, length + 1);
 		
 		flushBuffer();		
 	}
@@ -749,7 +1483,7 @@ public class BsonGenerator extends GeneratorBase {
 			_buffer.putByte(_typeMarker, BsonConstants.TYPE_JAVASCRIPT_WITH_SCOPE);
 			// reserve space for the entire structure size
 			int p = _buffer.size();
-			_buffer.putInt(0);
+			int index = reserveSize();
 
 			// write the code
 			_writeString(javaScript.getCode());
@@ -757,11 +1491,8 @@ public class BsonGenerator extends GeneratorBase {
 			nextObjectIsEmbeddedInValue = true;
 			// write the document
 			provider.findValueSerializer(Map.class, null).serialize(javaScript.getScope(), this, provider);
-			// write the length
-			if (!isEnabled(Feature.ENABLE_STREAMING)) {
-				int l = _buffer.size() - p + 4;
-				_buffer.putInt(p, l);
-			}
+			// write the length (including the length itself)
+			writeSize(p, index, _buffer.size() - p);
 		}
 		flushBuffer();
 	}
@@ -780,6 +1511,72 @@ public class BsonGenerator extends GeneratorBase {
 		flushBuffer();
 	}
 
+	/**
+	 * Writes an encoded BSON document. The bytes are copied in bulk
+	 * without being decoded. If the generator is not inside a document,
+	 * the bytes will be written as a top-level document.
+	 * @param document the encoded document
+	 * @throws IOException If an error occurred in the stream while writing
+	 * @since 2.9.1
+	 */
+	public void writeRawDocument(RawBsonDocument document) throws IOException {
+		_writeArrayFieldNameIfNeeded();
+		_verifyValueWrite("write raw document");
+		if (_currentDocument != null) {
+			_buffer.putByte(_typeMarker, BsonConstants.TYPE_DOCUMENT);
+		}
+		_buffer.putBytes(document.getByteArray(), document.getOffset(),
+				document.getLength());
+		flushBuffer();
+	}
+
+	/**
+	 * <p>Copies the current event and all its children from the given
+	 * parser like {@link #copyCurrentStructure(JsonParser)}. If the parser
+	 * is a {@link BsonParser}, documents and arrays are copied as raw
+	 * bytes without being decoded and encoded again (see
+	 * {@link BsonParser#copyRawDocument(DynamicOutputBuffer)}). Only the
+	 * field name is rewritten if necessary (e.g. if the value is copied
+	 * into an array). Other parsers are handled by
+	 * {@link #copyCurrentStructure(JsonParser)}.</p>
+	 * <p>Raw copies are only made if no character escapes have been
+	 * configured and if the parser does not have a
+	 * {@link BsonProjection}. This method does not override
+	 * {@link #copyCurrentStructure(JsonParser)} because that method is
+	 * final in older Jackson versions.</p>
+	 * @param p the parser to copy from
+	 * @throws IOException if the structure could not be copied
+	 * @since 2.9.1
+	 */
+	public void copyRawStructure(JsonParser p) throws IOException {
+		if (!(p instanceof BsonParser) || _characterEscapes != null ||
+				((BsonParser)p).getProjection() != null) {
+			copyCurrentStructure(p);
+			return;
+		}
+		
+		BsonParser bp = (BsonParser)p;
+		JsonToken t = bp.getCurrentToken();
+		if (t == JsonToken.FIELD_NAME) {
+			writeFieldName(bp.getCurrentName());
+			t = bp.nextToken();
+		}
+		
+		if (t != JsonToken.START_OBJECT && t != JsonToken.START_ARRAY) {
+			copyCurrentEvent(bp);
+			return;
+		}
+		
+		_writeArrayFieldNameIfNeeded();
+		_verifyValueWrite("write raw document");
+		if (_currentDocument != null) {
+			_buffer.putByte(_typeMarker, t == JsonToken.START_ARRAY ?
+					BsonConstants.TYPE_ARRAY : BsonConstants.TYPE_DOCUMENT);
+		}
+		bp.copyRawDocument(_buffer);
+		flushBuffer();
+	}
+
 	/**
 	 * Write a BSON string structure (a null terminated string prependend by the length of the string)
 	 *
@@ -15,6 +15,7 @@
 package org.litote.bson4jackson;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -39,10 +40,15 @@ import com.fasterxml.jackson.core.io.IOContext;
 import com.fasterxml.jackson.core.type.TypeReference;
 
 import org.litote.bson4jackson.io.BoundedInputStream;
+import org.litote.bson4jackson.io.BufferPool;
 import org.litote.bson4jackson.io.ByteOrderUtil;
 import org.litote.bson4jackson.io.CountingInputStream;
+import org.litote.bson4jackson.io.DynamicOutputBuffer;
+import org.litote.bson4jackson.io.FieldNameCanonicalizer;
+import org.litote.bson4jackson.io.LittleEndianByteBufferInputStream;
 import org.litote.bson4jackson.io.LittleEndianInputStream;
 import org.litote.bson4jackson.io.StaticBufferedInputStream;
+import org.litote.bson4jackson.io.ThreadLocalBufferPool;
 import org.litote.bson4jackson.io.UnsafeByteArrayInputStream;
 import org.litote.bson4jackson.types.Decimal128;
 import org.litote.bson4jackson.types.JavaScript;
@@ -64,7 +70,37 @@ public class BsonParser extends ParserBase {
 		 * reading from streams that may contain other content after the
 		 * document that will be read by something else.
 		 */
-		HONOR_DOCUMENT_LENGTH;
+		HONOR_DOCUMENT_LENGTH,
+
+		/**
+		 * <p>Defers decoding of strings, binary data, ObjectIds, dates,
+		 * regular expressions, JavaScript code (without scope), symbols,
+		 * timestamps, DBPointers and Decimal128 values until they are
+		 * accessed through {@link BsonParser#getText()},
+		 * {@link BsonParser#getEmbeddedObject()},
+		 * {@link BsonParser#getBinaryValue(Base64Variant)} or the other
+		 * accessor methods. The parser only records the value's position.
+		 * Values that are never accessed will never be decoded.</p>
+		 * <p>This feature only has an effect if the parser reads directly
+		 * from a byte array or a {@link ByteBuffer}. It is ignored for
+		 * parsers reading from input streams.</p>
+		 * @since 2.9.1
+		 */
+		DEFER_VALUE_DECODING,
+
+		/**
+		 * <p>Makes {@link BsonFactory#createParser(java.io.File)} map the
+		 * file into memory instead of reading it through an input stream
+		 * (see
+		 * {@link org.litote.bson4jackson.io.MappedFileInputStream}). Large files will be mapped
+		 * in windows of up to 2GB. This avoids copying the file's contents
+		 * into user-space buffers and lets the operating system's page
+		 * cache serve repeated scans of the same file.</p>
+		 * <p>This feature is ignored if the factory has an input
+		 * decorator.</p>
+		 * @since 2.9.1
+		 */
+		MEMORY_MAP_FILES;
 
 		/**
 		 * @return the bit mask that identifies this feature
@@ -74,6 +110,19 @@ public class BsonParser extends ParserBase {
 		}
 	}
 
+	/**
+	 * The maximum number of bytes {@link #readRawDocument()} allocates
+	 * in advance based on a document's declared length if the parser
+	 * reads from a stream. Larger documents will be copied piece by piece.
+	 * @since 2.9.1
+	 */
+	public static final int MAX_RAW_DOCUMENT_ALLOCATION = 1024 * 1024;
+
+	/**
+	 * An empty byte array
+	 */
+	private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+
 	/**
 	 * The features for this parser
 	 */
@@ -85,9 +134,17 @@ public class BsonParser extends ParserBase {
 	protected LittleEndianInputStream _in;
 	
 	/**
-	 * Counts the number of bytes read from {@link #_in}
+	 * Counts the number of bytes read from {@link #_in}. Will be null
+	 * if the parser reads directly from a byte array or a buffer.
 	 */
 	protected CountingInputStream _counter;
+	
+	/**
+	 * The input to read from if the parser reads directly from a byte
+	 * array or a buffer (null otherwise). Refers to the same object
+	 * as {@link #_in}.
+	 */
+	protected LittleEndianByteBufferInputStream _bufferIn;
 
 	/**
 	 * The raw input stream passed in
@@ -113,6 +170,41 @@ public class BsonParser extends ParserBase {
 	 * The current parser state
 	 */
 	protected Context _currentContext;
+	
+	/**
+	 * The symbol table used to canonicalize field names (may be null
+	 * if field names should not be canonicalized)
+	 */
+	protected FieldNameCanonicalizer _fieldNameCanonicalizer;
+	
+	/**
+	 * True if {@link Feature#DEFER_VALUE_DECODING} is enabled and the
+	 * parser reads from a byte array or a buffer
+	 */
+	protected boolean _deferValueDecoding;
+	
+	/**
+	 * The pool providing the buffer for {@link #_bufferedIn}
+	 */
+	protected BufferPool _bufferPool;
+	
+	/**
+	 * The buffered stream wrapping {@link #_rawInputStream} (may be null).
+	 * Will be closed when the parser is closed to release its buffer.
+	 */
+	protected StaticBufferedInputStream _bufferedIn;
+	
+	/**
+	 * The fields to include when parsing top-level documents (may be
+	 * null if all fields should be included)
+	 */
+	protected BsonProjection _projection;
+	
+	/**
+	 * A temporary buffer used to copy raw bytes (may be null if it
+	 * has not been allocated yet)
+	 */
+	private byte[] _copyBuffer;
 
 	/**
 	 * Constructs a new parser
@@ -124,8 +216,34 @@ public class BsonParser extends ParserBase {
 	 * @param in the input stream to parse.
 	 */
 	public BsonParser(IOContext ctxt, int jsonFeatures, int bsonFeatures, InputStream in) {
+		this(ctxt, jsonFeatures, bsonFeatures, in, ThreadLocalBufferPool.getInstance());
+	}
+	
+	/**
+	 * Constructs a new parser
+	 * @param ctxt the Jackson IO context
+	 * @param jsonFeatures bit flag composed of bits that indicate which
+	 * {@link com.fasterxml.jackson.core.JsonParser.Feature}s are enabled.
+	 * @param bsonFeatures bit flag composed of bits that indicate which
+	 * {@link Feature}s are enabled.
+	 * @param in the input stream to parse.
+	 * @param pool the pool providing the buffer used to read from
+	 * the input stream
+	 * @since 2.9.1
+	 */
+	public BsonParser(IOContext ctxt, int jsonFeatures, int bsonFeatures,
+			InputStream in, BufferPool pool) {
 		super(ctxt, jsonFeatures);
 		_bsonFeatures = bsonFeatures;
+		_bufferPool = pool;
+		initInputStream(in);
+	}
+	
+	/**
+	 * Prepares the parser to read from the given input stream
+	 * @param in the input stream
+	 */
+	private void initInputStream(InputStream in) {
 		_rawInputStream = in;
 		//only initialize streams here if document length isn't going to be honored
 		if (!isEnabled(Feature.HONOR_DOCUMENT_LENGTH)) {
@@ -134,11 +252,205 @@ public class BsonParser extends ParserBase {
 			//their methods are synchronized. Our StaticBufferedInputStream
 			//is not thread-safe and thus much faster.
 			if (!(in instanceof UnsafeByteArrayInputStream)) {
-				in = new StaticBufferedInputStream(in);
+				_bufferedIn = new StaticBufferedInputStream(in, 8192, _bufferPool);
+				in = _bufferedIn;
 			}
 			_counter = new CountingInputStream(in);
-			_in = new LittleEndianInputStream(_counter);
+			if (_in != null && _in.getClass() == LittleEndianInputStream.class) {
+				//reuse existing stream and its buffers
+				_in.setInputStream(_counter, _bufferedIn);
+			} else {
+				_in = new LittleEndianInputStream(_counter, _bufferedIn);
+			}
+		} else {
+			_in = null;
+		}
+	}
+	
+	/**
+	 * Constructs a new parser that reads directly from a byte buffer
+	 * (heap or direct) without wrapping it into input streams
+	 * @param ctxt the Jackson IO context
+	 * @param jsonFeatures bit flag composed of bits that indicate which
+	 * {@link com.fasterxml.jackson.core.JsonParser.Feature}s are enabled.
+	 * @param bsonFeatures bit flag composed of bits that indicate which
+	 * {@link Feature}s are enabled.
+	 * @param buf the buffer to parse. The parser reads the bytes between
+	 * the buffer's position and its limit. The buffer's position, limit
+	 * and byte order will not be modified.
+	 * @since 2.9.1
+	 */
+	public BsonParser(IOContext ctxt, int jsonFeatures, int bsonFeatures, ByteBuffer buf) {
+		this(ctxt, jsonFeatures, bsonFeatures, new LittleEndianByteBufferInputStream(buf));
+	}
+	
+	/**
+	 * Constructs a new parser that reads from the given input
+	 * @param ctxt the Jackson IO context
+	 * @param jsonFeatures bit flag composed of bits that indicate which
+	 * {@link com.fasterxml.jackson.core.JsonParser.Feature}s are enabled.
+	 * @param bsonFeatures bit flag composed of bits that indicate which
+	 * {@link Feature}s are enabled.
+	 * @param in the input to parse
+	 * @since 2.9.1
+	 */
+	public BsonParser(IOContext ctxt, int jsonFeatures, int bsonFeatures,
+			LittleEndianByteBufferInputStream in) {
+		super(ctxt, jsonFeatures);
+		_bsonFeatures = bsonFeatures;
+		_bufferIn = in;
+		_in = in;
+		_deferValueDecoding = isEnabled(Feature.DEFER_VALUE_DECODING);
+	}
+
+	/**
+	 * Prepares the parser to read from a new input stream. See
+	 * {@link #reset(byte[], int, int)} for details. This method is only
+	 * called by {@link BsonFactory#leaseParser(InputStream)} for parsers
+	 * of this exact class. It is not part of the public API because not
+	 * all subclasses can read from input streams.
+	 * @param in the input stream to read from
+	 * @throws IOException if the buffers of the previous input could
+	 * not be released
+	 */
+	final void resetInputStream(InputStream in) throws IOException {
+		releaseInput();
+		if (_bufferPool == null) {
+			_bufferPool = ThreadLocalBufferPool.getInstance();
+		}
+		initInputStream(in);
+		resetState();
+	}
+	
+	/**
+	 * <p>Prepares the parser to read from a new byte array. The parser
+	 * forgets everything about its previous input and can be used as if
+	 * it was newly created. Its configuration (features, codec, field
+	 * name canonicalizer and projection) as well as its internal buffers
+	 * are kept. This saves the cost of creating a new parser for every
+	 * message if many small messages are parsed.</p>
+	 * <p>The previous input will not be closed, but buffers acquired for
+	 * it will be released.</p>
+	 * @param data the array to read from
+	 * @param offset the index of the first byte to read
+	 * @param len the number of bytes to read
+	 * @throws IOException if the buffers of the previous input could
+	 * not be released
+	 * @see BsonFactory#leaseParser(byte[], int, int)
+	 * @since 2.9.1
+	 */
+	public void reset(byte[] data, int offset, int len) throws IOException {
+		LittleEndianByteBufferInputStream in = _bufferIn;
+		releaseInput();
+		if (in != null && in.getClass() == LittleEndianByteBufferInputStream.class) {
+			//reuse existing stream and its buffers
+			in.setBuffer(data, offset, len);
+		} else {
+			in = new LittleEndianByteBufferInputStream(data, offset, len);
+		}
+		_bufferIn = in;
+		_in = in;
+		_deferValueDecoding = isEnabled(Feature.DEFER_VALUE_DECODING);
+		resetState();
+	}
+	
+	/**
+	 * Checks if the parser has been created with the given features
+	 * and if they have not been changed since
+	 * @param jsonFeatures the expected
+	 * {@link com.fasterxml.jackson.core.JsonParser.Feature}s
+	 * @param bsonFeatures the expected {@link Feature}s
+	 * @return true if exactly the given features are enabled
+	 */
+	protected boolean hasFeatures(int jsonFeatures, int bsonFeatures) {
+		return _features == jsonFeatures && _bsonFeatures == bsonFeatures;
+	}
+	
+	/**
+	 * Closes the parser and forgets its input and its codec, so neither
+	 * of them is kept reachable while the parser is not in use. The
+	 * parser's configuration and internal buffers are kept, so it can
+	 * be reused after calling {@link #reset(byte[], int, int)} or
+	 * {@link #resetInputStream(InputStream)}.
+	 * @return true if the parser can be reused, false if its IO context
+	 * still refers to its input
+	 * @throws IOException if the parser could not be closed
+	 * @see BsonFactory#releaseParser(BsonParser)
+	 */
+	protected boolean detach() throws IOException {
+		try {
+			close();
+		} finally {
+			LittleEndianByteBufferInputStream in = _bufferIn;
+			releaseInput();
+			if (in != null && in.getClass() == LittleEndianByteBufferInputStream.class) {
+				//keep the stream so it can be reused by reset(byte[], int, int)
+				in.setBuffer(EMPTY_BYTE_ARRAY, 0, 0);
+				_bufferIn = in;
+			} else if (_in != null && _in.getClass() == LittleEndianInputStream.class) {
+				//keep the stream so it can be reused by resetInputStream()
+				_in.setInputStream(null);
+				_in.trimBuffers();
+			} else {
+				_in = null;
+			}
+			_currentContext = null;
+			setCodec(null);
+		}
+		return _ioContext.getSourceReference() == null;
+	}
+	
+	/**
+	 * Releases the buffers acquired for the current input and forgets
+	 * about the input streams wrapping it
+	 * @throws IOException if the buffers could not be released
+	 */
+	private void releaseInput() throws IOException {
+		if (_bufferedIn != null) {
+			_bufferedIn.close();
+			_bufferedIn = null;
+		}
+		_rawInputStream = null;
+		_counter = null;
+		_bufferIn = null;
+		_deferValueDecoding = false;
+	}
+	
+	/**
+	 * Resets the parser's state so it can read from the beginning of
+	 * a new input
+	 */
+	protected void resetState() {
+		_currToken = null;
+		_lastClearedToken = null;
+		_currentContext = null;
+		_tokenPos = 0;
+		_closed = false;
+	}
+
+	/**
+	 * Sets the fields to include when parsing documents. Values of
+	 * fields that are not included will be skipped without being
+	 * decoded, so they never produce tokens. Must be called before the
+	 * first token is read.
+	 * @param projection the fields to include (may be null or
+	 * {@link BsonProjection#INCLUDE_ALL} if all fields should be included)
+	 * @since 2.9.1
+	 */
+	public void setProjection(BsonProjection projection) {
+		if (projection != null && projection.isIncludeAll()) {
+			projection = null;
 		}
+		_projection = projection;
+	}
+	
+	/**
+	 * @return the fields to include when parsing documents (may be null
+	 * if all fields are included)
+	 * @since 2.9.1
+	 */
+	public BsonProjection getProjection() {
+		return _projection;
 	}
 
 	/**
@@ -209,6 +521,18 @@ public class BsonParser extends ParserBase {
 		return super.isExpectedStartArrayToken();
 	}
 
+	/**
+	 * Sets the symbol table used to canonicalize field names. Field names
+	 * that have been read before will be looked up in the table by their
+	 * raw bytes instead of being decoded again.
+	 * @param canonicalizer the symbol table (may be null if field names
+	 * should not be canonicalized)
+	 * @since 2.9.1
+	 */
+	public void setFieldNameCanonicalizer(FieldNameCanonicalizer canonicalizer) {
+		_fieldNameCanonicalizer = canonicalizer;
+	}
+	
 	@Override
 	public ObjectCodec getCodec() {
 		return _codec;
@@ -221,10 +545,17 @@ public class BsonParser extends ParserBase {
 
 	@Override
 	public void close() throws IOException {
-		if (isEnabled(JsonParser.Feature.AUTO_CLOSE_SOURCE)) {
-			_in.close();
+		if (_closed) {
+			return;
 		}
 		_closed = true;
+		try {
+			if (isEnabled(JsonParser.Feature.AUTO_CLOSE_SOURCE) && _in != null) {
+				_in.close();
+			}
+		} finally {
+			_releaseBuffers();
+		}
 	}
 
 	@Override
@@ -239,7 +570,7 @@ public class BsonParser extends ParserBase {
 				return null;
 			}
 		} else {
-			_tokenPos = _counter.getPosition();
+			_tokenPos = getInputPosition();
 			if (ctx == null) {
 				if (_currToken == JsonToken.END_OBJECT) {
 					//end of input
@@ -274,12 +605,28 @@ public class BsonParser extends ParserBase {
 						
 						if (ctx.array) {
 							//immediately read value of array element (discard field name)
-							readValue = true;
 							skipCString();
 							ctx.fieldName = null;
+							if (ctx.projection != null && !isIncluded(ctx.projection, ctx.type)) {
+								//scalar elements cannot contain the fields
+								//on the path. skip value and ignore element.
+								skipValue(ctx.type);
+								ctx.reset();
+								continue;
+							}
+							readValue = true;
 						} else {
 							//read field name
-							ctx.fieldName = readCString();
+							ctx.fieldName = readFieldName();
+							if (ctx.projection != null && !isIncluded(ctx)) {
+								//skip value and then ignore this field
+								skipValue(ctx.type);
+								ctx.reset();
+								continue;
+							}
+						}
+						if (ctx.array) {
+							ctx.valueProjection = ctx.projection;
 						}
 					}
 					break;
@@ -288,113 +635,250 @@ public class BsonParser extends ParserBase {
 
 			if (readValue) {
 				//parse element's value
-				switch (ctx.type) {
-				case BsonConstants.TYPE_DOUBLE:
-					ctx.value = _in.readDouble();
-					_currToken = JsonToken.VALUE_NUMBER_FLOAT;
-					break;
-					
-				case BsonConstants.TYPE_STRING:
-					ctx.value = readString();
-					_currToken = JsonToken.VALUE_STRING;
-					break;
-					
-				case BsonConstants.TYPE_DOCUMENT:
-					_currToken = handleNewDocument(false);
-					break;
-					
-				case BsonConstants.TYPE_ARRAY:
-					_currToken = handleNewDocument(true);
-					break;
-					
-				case BsonConstants.TYPE_BINARY:
-					_currToken = handleBinary();
-					break;
-					
-				case BsonConstants.TYPE_OBJECTID:
-					ctx.value = readObjectId();
-					_currToken = JsonToken.VALUE_EMBEDDED_OBJECT;
-					break;
-					
-				case BsonConstants.TYPE_BOOLEAN:
-					boolean b = _in.readBoolean();
-					ctx.value = b;
-					_currToken = b ? JsonToken.VALUE_TRUE : JsonToken.VALUE_FALSE;
-					break;
-					
-				case BsonConstants.TYPE_DATETIME:
-					ctx.value = new Date(_in.readLong());
-					_currToken = JsonToken.VALUE_EMBEDDED_OBJECT;
-					break;
-					
-				case BsonConstants.TYPE_NULL:
-					_currToken = JsonToken.VALUE_NULL;
-					break;
-					
-				case BsonConstants.TYPE_REGEX:
-					_currToken = handleRegEx();
-					break;
-					
-				case BsonConstants.TYPE_DBPOINTER:
-					_currToken = handleDBPointer();
-					break;
-					
-				case BsonConstants.TYPE_JAVASCRIPT:
-					ctx.value = new JavaScript(readString());
-					_currToken = JsonToken.VALUE_EMBEDDED_OBJECT;
-					break;
-					
-				case BsonConstants.TYPE_SYMBOL:
-					ctx.value = readSymbol();
-					_currToken = JsonToken.VALUE_EMBEDDED_OBJECT;
-					break;
-					
-				case BsonConstants.TYPE_JAVASCRIPT_WITH_SCOPE:
-					_currToken = handleJavascriptWithScope();
-					break;
-					
-				case BsonConstants.TYPE_INT32:
-					ctx.value = _in.readInt();
-					_currToken = JsonToken.VALUE_NUMBER_INT;
-					break;
-					
-				case BsonConstants.TYPE_TIMESTAMP:
-					ctx.value = readTimestamp();
-					_currToken = JsonToken.VALUE_EMBEDDED_OBJECT;
-					break;
-					
-				case BsonConstants.TYPE_INT64:
-					ctx.value = _in.readLong();
-					_currToken = JsonToken.VALUE_NUMBER_INT;
-					break;
-
-				case BsonConstants.TYPE_DECIMAL128:
-					long low = _in.readLong();
-					long high = _in.readLong();
-					ctx.value = Decimal128.fromIEEE754BIDEncoding(high, low);
-					_currToken = JsonToken.VALUE_EMBEDDED_OBJECT;
-					break;
-					
-				case BsonConstants.TYPE_MINKEY:
-					ctx.value = "MinKey";
-					_currToken = JsonToken.VALUE_STRING;
-					break;
-					
-				case BsonConstants.TYPE_MAXKEY:
-					ctx.value = "MaxKey";
-					_currToken = JsonToken.VALUE_STRING;
-					break;
-				
-				default:
-					throw new JsonParseException("Unknown element type " + ctx.type,
-							getTokenLocation());
+				if (_deferValueDecoding && isDeferrable(ctx.type)) {
+					ctx.valuePos = getInputPosition();
+					ctx.deferred = true;
+					skipValue(ctx.type);
+					_currToken = ctx.type == BsonConstants.TYPE_STRING ?
+							JsonToken.VALUE_STRING : JsonToken.VALUE_EMBEDDED_OBJECT;
+				} else {
+					_currToken = readValue(ctx);
 				}
 				ctx.state = State.DONE;
 			}
 		}
 		return _currToken;
 	}
+
+	/**
+	 * Checks if the current field is included in the context's projection
+	 * and sets {@link Context#valueProjection} accordingly
+	 * @param ctx the current context
+	 * @return true if the field is included, false if its value
+	 * should be skipped
+	 */
+	private boolean isIncluded(Context ctx) {
+		BsonProjection child = ctx.projection.getChild(ctx.fieldName);
+		if (child != null) {
+			ctx.valueProjection = child.isIncludeAll() ? null : child;
+		}
+		return isIncluded(child, ctx.type);
+	}
+
+	/**
+	 * Checks if a field is included in a projection
+	 * @param child the projection's child for the field's name (may be
+	 * null if the projection does not contain the field)
+	 * @param type the BSON type of the field's value
+	 * @return true if the field is included, false if its value
+	 * should be skipped
+	 */
+	protected static boolean isIncluded(BsonProjection child, byte type) {
+		if (child == null) {
+			return false;
+		}
+		if (child.isIncludeAll()) {
+			return true;
+		}
+		//only documents and arrays can contain the fields on the path
+		return type == BsonConstants.TYPE_DOCUMENT ||
+				type == BsonConstants.TYPE_ARRAY;
+	}
+
+	/**
+	 * Reads the value of the current element
+	 * @param ctx the current context
+	 * @return the json token read
+	 * @throws IOException if the value could not be read
+	 */
+	@SuppressWarnings("deprecation")
+	protected JsonToken readValue(Context ctx) throws IOException {
+		JsonToken r;
+		switch (ctx.type) {
+		case BsonConstants.TYPE_DOUBLE:
+			ctx.doubleValue = _in.readDouble();
+			r = JsonToken.VALUE_NUMBER_FLOAT;
+			break;
+			
+		case BsonConstants.TYPE_STRING:
+			ctx.value = readString();
+			r = JsonToken.VALUE_STRING;
+			break;
+			
+		case BsonConstants.TYPE_DOCUMENT:
+			r = handleNewDocument(false);
+			break;
+			
+		case BsonConstants.TYPE_ARRAY:
+			r = handleNewDocument(true);
+			break;
+			
+		case BsonConstants.TYPE_BINARY:
+			r = handleBinary();
+			break;
+			
+		case BsonConstants.TYPE_OBJECTID:
+			ctx.value = readObjectId();
+			r = JsonToken.VALUE_EMBEDDED_OBJECT;
+			break;
+			
+		case BsonConstants.TYPE_BOOLEAN:
+			boolean b = _in.readBoolean();
+			ctx.intValue = b ? 1 : 0;
+			r = b ? JsonToken.VALUE_TRUE : JsonToken.VALUE_FALSE;
+			break;
+			
+		case BsonConstants.TYPE_DATETIME:
+			ctx.value = new Date(_in.readLong());
+			r = JsonToken.VALUE_EMBEDDED_OBJECT;
+			break;
+			
+		case BsonConstants.TYPE_NULL:
+			r = JsonToken.VALUE_NULL;
+			break;
+			
+		case BsonConstants.TYPE_REGEX:
+			r = handleRegEx();
+			break;
+			
+		case BsonConstants.TYPE_DBPOINTER:
+			r = handleDBPointer();
+			break;
+			
+		case BsonConstants.TYPE_JAVASCRIPT:
+			ctx.value = new JavaScript(readString());
+			r = JsonToken.VALUE_EMBEDDED_OBJECT;
+			break;
+			
+		case BsonConstants.TYPE_SYMBOL:
+			ctx.value = readSymbol();
+			r = JsonToken.VALUE_EMBEDDED_OBJECT;
+			break;
+			
+		case BsonConstants.TYPE_JAVASCRIPT_WITH_SCOPE:
+			r = handleJavascriptWithScope();
+			break;
+			
+		case BsonConstants.TYPE_INT32:
+			ctx.intValue = _in.readInt();
+			r = JsonToken.VALUE_NUMBER_INT;
+			break;
+			
+		case BsonConstants.TYPE_TIMESTAMP:
+			ctx.value = readTimestamp();
+			r = JsonToken.VALUE_EMBEDDED_OBJECT;
+			break;
+			
+		case BsonConstants.TYPE_INT64:
+			ctx.longValue = _in.readLong();
+			r = JsonToken.VALUE_NUMBER_INT;
+			break;
+
+		case BsonConstants.TYPE_DECIMAL128:
+			long low = _in.readLong();
+			long high = _in.readLong();
+			ctx.value = Decimal128.fromIEEE754BIDEncoding(high, low);
+			r = JsonToken.VALUE_EMBEDDED_OBJECT;
+			break;
+			
+		case BsonConstants.TYPE_MINKEY:
+			ctx.value = "MinKey";
+			r = JsonToken.VALUE_STRING;
+			break;
+			
+		case BsonConstants.TYPE_MAXKEY:
+			ctx.value = "MaxKey";
+			r = JsonToken.VALUE_STRING;
+			break;
+		
+		default:
+			throw new JsonParseException("Unknown element type " + ctx.type,
+					getTokenLocation());
+		}
+		return r;
+	}
+	
+	/**
+	 * Checks if the value of an element with the given type can be
+	 * decoded later (see {@link Feature#DEFER_VALUE_DECODING})
+	 * @param type the element's BSON type
+	 * @return true if decoding can be deferred
+	 */
+	@SuppressWarnings("deprecation")
+	protected boolean isDeferrable(byte type) {
+		switch (type) {
+		case BsonConstants.TYPE_STRING:
+		case BsonConstants.TYPE_BINARY:
+		case BsonConstants.TYPE_OBJECTID:
+		case BsonConstants.TYPE_DATETIME:
+		case BsonConstants.TYPE_REGEX:
+		case BsonConstants.TYPE_DBPOINTER:
+		case BsonConstants.TYPE_JAVASCRIPT:
+		case BsonConstants.TYPE_SYMBOL:
+		case BsonConstants.TYPE_TIMESTAMP:
+		case BsonConstants.TYPE_DECIMAL128:
+			return true;
+		default:
+			return false;
+		}
+	}
 	
+	/**
+	 * Decodes the value of the given context if it has been deferred
+	 * (see {@link Feature#DEFER_VALUE_DECODING})
+	 * @param ctx the context
+	 * @return the context's (non-primitive) value
+	 * @throws IOException if the value could not be decoded
+	 */
+	protected Object getDecodedValue(Context ctx) throws IOException {
+		if (ctx.deferred) {
+			int pos = _bufferIn.getPosition();
+			_bufferIn.setPosition(ctx.valuePos);
+			try {
+				readValue(ctx);
+			} finally {
+				_bufferIn.setPosition(pos);
+			}
+			ctx.deferred = false;
+		}
+		return ctx.value;
+	}
+
+	/**
+	 * Skips the current document or array without tokenizing its
+	 * elements. If the document's header declares a valid length, the
+	 * remaining bytes will be skipped in one go. Otherwise (e.g. if the
+	 * document has been written by a streaming generator) the elements
+	 * will be skipped one by one without decoding their values.
+	 * Afterwards, the current token is the matching
+	 * {@link JsonToken#END_OBJECT} or {@link JsonToken#END_ARRAY}.
+	 */
+	@Override
+	@SuppressWarnings("deprecation")
+	public JsonParser skipChildren() throws IOException, JsonParseException {
+		if (_currToken != JsonToken.START_OBJECT && _currToken != JsonToken.START_ARRAY) {
+			return this;
+		}
+
+		Context ctx = getContext();
+		int remaining = ctx.documentLength - (getInputPosition() - ctx.documentStart);
+		if (ctx.documentLength >= 5 && remaining >= 1) {
+			//skip everything but the terminating zero byte
+			skipFully(remaining - 1);
+			_tokenPos = getInputPosition();
+			if (_in.readByte() != BsonConstants.TYPE_END) {
+				throw new JsonParseException("Invalid document length", getTokenLocation());
+			}
+		} else {
+			skipElements();
+			_tokenPos = getInputPosition() - 1;
+		}
+
+		_currToken = ctx.array ? JsonToken.END_ARRAY : JsonToken.END_OBJECT;
+		_currentContext = ctx.parent;
+		return this;
+	}
+
 	/**
 	 * Can be called when a new embedded document is found. Reads the
 	 * document's header and creates a new context on the stack.
@@ -424,19 +908,46 @@ public class BsonParser extends ParserBase {
 			
 			//buffer if the raw input stream is not already buffered
 			if (!(_rawInputStream instanceof BufferedInputStream)) {
-				in = new StaticBufferedInputStream(in);
+				_bufferedIn = new StaticBufferedInputStream(in, 8192, _bufferPool);
+				in = _bufferedIn;
 			}
 			_counter = new CountingInputStream(in);
-			_in = new LittleEndianInputStream(_counter);
+			_in = new LittleEndianInputStream(_counter, _bufferedIn);
+
+			//the counter starts right after the header
+			_currentContext = newContext(array);
+			_currentContext.documentStart = -buf.length;
+			_currentContext.documentLength = documentLength;
 		} else {
-			//read document header (skip size, we're not interested)
-			_in.readInt();
+			if (_currentContext == null) {
+				//do not keep large string buffers between documents
+				_in.trimBuffers();
+			}
+			
+			//read document header
+			int start = getInputPosition();
+			int documentLength = _in.readInt();
+			_currentContext = newContext(array);
+			_currentContext.documentStart = start;
+			_currentContext.documentLength = documentLength;
 		}
 
-		_currentContext = new Context(_currentContext, array);
 		return array ? JsonToken.START_ARRAY : JsonToken.START_OBJECT;
 	}
 	
+	/**
+	 * Creates a context for a new document or array and makes it the
+	 * current one
+	 * @param array true if the new context represents an array
+	 * @return the new context
+	 */
+	private Context newContext(boolean array) {
+		Context parent = _currentContext;
+		Context r = new Context(parent, array);
+		r.projection = parent == null ? _projection : parent.valueProjection;
+		return r;
+	}
+	
 	/**
 	 * Reads binary data from the input stream
 	 * @return the json token read
@@ -559,6 +1070,312 @@ public class BsonParser extends ParserBase {
 		return _in.readUTF(-1);
 	}
 	
+	/**
+	 * Reads a field name (i.e. a null-terminated string) from the input
+	 * stream. Uses {@link #_fieldNameCanonicalizer} if available.
+	 * @return the field name
+	 * @throws IOException if the field name could not be read
+	 */
+	protected String readFieldName() throws IOException {
+		if (_fieldNameCanonicalizer != null) {
+			return _in.readCString(_fieldNameCanonicalizer);
+		}
+		return readCString();
+	}
+	
+	/**
+	 * <p>Reads the current document or array including its header and
+	 * returns its bytes without decoding its elements. Afterwards, the
+	 * current token is the matching {@link JsonToken#END_OBJECT} or
+	 * {@link JsonToken#END_ARRAY}.</p>
+	 * <p>If the document's header declares a valid length, the document
+	 * will be read in one go. Otherwise (e.g. if the document has been
+	 * written by a streaming generator) its elements will be copied one
+	 * by one and the returned bytes will contain the correct length.
+	 * The same happens if the parser reads from a stream and the declared
+	 * length exceeds {@link #MAX_RAW_DOCUMENT_ALLOCATION}, so a corrupt
+	 * header cannot make the parser allocate more memory than the input
+	 * actually contains. Projections (see {@link #setProjection(BsonProjection)}) are not
+	 * applied to the returned bytes.</p>
+	 * @return the document's bytes
+	 * @throws IOException if the document could not be read or if the
+	 * current token is neither {@link JsonToken#START_OBJECT} nor
+	 * {@link JsonToken#START_ARRAY}
+	 * @since 2.9.1
+	 */
+	@SuppressWarnings("deprecation")
+	public byte[] readRawDocument() throws IOException {
+		Context ctx = getRawDocumentContext();
+		int length = ctx.documentLength;
+		if (length < 5 || (_bufferIn == null && length > MAX_RAW_DOCUMENT_ALLOCATION)) {
+			DynamicOutputBuffer buf = new DynamicOutputBuffer(ByteOrder.LITTLE_ENDIAN);
+			copyRawDocument(buf);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(buf.size());
+			buf.writeTo(baos);
+			buf.clear();
+			return baos.toByteArray();
+		}
+		
+		//the header has already been read
+		if (_bufferIn != null && length - 4 > _bufferIn.available()) {
+			throw new JsonParseException("Invalid document length", getTokenLocation());
+		}
+		byte[] r = new byte[length];
+		r[0] = (byte)length;
+		r[1] = (byte)(length >> 8);
+		r[2] = (byte)(length >> 16);
+		r[3] = (byte)(length >> 24);
+		_in.readFully(r, 4, length - 4);
+		if (r[length - 1] != BsonConstants.TYPE_END) {
+			throw new JsonParseException("Invalid document length", getTokenLocation());
+		}
+		endRawDocument(ctx);
+		return r;
+	}
+	
+	/**
+	 * Reads the current document or array including its header and
+	 * appends its bytes to the given buffer without decoding its elements.
+	 * Afterwards, the current token is the matching
+	 * {@link JsonToken#END_OBJECT} or {@link JsonToken#END_ARRAY}. See
+	 * {@link #readRawDocument()} for details.
+	 * @param out the buffer to append the document to
+	 * @throws IOException if the document could not be read or if the
+	 * current token is neither {@link JsonToken#START_OBJECT} nor
+	 * {@link JsonToken#START_ARRAY}
+	 * @since 2.9.1
+	 */
+	@SuppressWarnings("deprecation")
+	public void copyRawDocument(DynamicOutputBuffer out) throws IOException {
+		Context ctx = getRawDocumentContext();
+		if (ctx.documentLength >= 5) {
+			//the header has already been read
+			out.putInt(ctx.documentLength);
+			try {
+				copyFully(ctx.documentLength - 5, out);
+			} catch (EOFException e) {
+				throw new JsonParseException("Invalid document length",
+						getTokenLocation(), e);
+			}
+			if (_in.readByte() != BsonConstants.TYPE_END) {
+				throw new JsonParseException("Invalid document length", getTokenLocation());
+			}
+			out.putByte(BsonConstants.TYPE_END);
+		} else {
+			int pos = out.size();
+			out.putInt(0);
+			copyElements(out);
+			out.putInt(pos, out.size() - pos);
+		}
+		endRawDocument(ctx);
+	}
+	
+	/**
+	 * Makes sure the current token is the start of a document or an array
+	 * @return the current context
+	 * @throws IOException if the current token is neither
+	 * {@link JsonToken#START_OBJECT} nor {@link JsonToken#START_ARRAY}
+	 */
+	@SuppressWarnings("deprecation")
+	protected Context getRawDocumentContext() throws IOException {
+		if (_currToken != JsonToken.START_OBJECT && _currToken != JsonToken.START_ARRAY) {
+			throw new JsonParseException("Current token is not the start " +
+					"of a document or an array", getCurrentLocation());
+		}
+		return getContext();
+	}
+	
+	/**
+	 * Ends the given document or array after it has been read raw
+	 * @param ctx the document's context
+	 */
+	private void endRawDocument(Context ctx) {
+		_tokenPos = getInputPosition() - 1;
+		_currToken = ctx.array ? JsonToken.END_ARRAY : JsonToken.END_OBJECT;
+		_currentContext = ctx.parent;
+	}
+	
+	/**
+	 * Copies all remaining elements of the current document including
+	 * the terminating zero byte to a buffer
+	 * @param out the buffer to copy to
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void copyElements(DynamicOutputBuffer out) throws IOException {
+		while (true) {
+			byte type = _in.readByte();
+			out.putByte(type);
+			if (type == BsonConstants.TYPE_END) {
+				break;
+			}
+			copyCString(out);
+			copyValue(type, out);
+		}
+	}
+	
+	/**
+	 * Copies an element's value to a buffer. Embedded documents without
+	 * a valid length will get one.
+	 * @param type the element's BSON type
+	 * @param out the buffer to copy to
+	 * @throws IOException if an I/O error occurs or if the type is unknown
+	 */
+	@SuppressWarnings("deprecation")
+	private void copyValue(byte type, DynamicOutputBuffer out) throws IOException {
+		switch (type) {
+		case BsonConstants.TYPE_BOOLEAN:
+			copyFully(1, out);
+			break;
+			
+		case BsonConstants.TYPE_INT32:
+			copyFully(4, out);
+			break;
+			
+		case BsonConstants.TYPE_DOUBLE:
+		case BsonConstants.TYPE_DATETIME:
+		case BsonConstants.TYPE_TIMESTAMP:
+		case BsonConstants.TYPE_INT64:
+			copyFully(8, out);
+			break;
+			
+		case BsonConstants.TYPE_OBJECTID:
+			copyFully(12, out);
+			break;
+			
+		case BsonConstants.TYPE_DECIMAL128:
+			copyFully(16, out);
+			break;
+			
+		case BsonConstants.TYPE_STRING:
+		case BsonConstants.TYPE_JAVASCRIPT:
+		case BsonConstants.TYPE_SYMBOL:
+			copyString(out);
+			break;
+			
+		case BsonConstants.TYPE_DOCUMENT:
+		case BsonConstants.TYPE_ARRAY:
+			copyDocument(out);
+			break;
+			
+		case BsonConstants.TYPE_BINARY: {
+			//the size does not include the subtype
+			int size = _in.readInt();
+			out.putInt(size);
+			copyFully(size + 1, out);
+			break;
+		}
+			
+		case BsonConstants.TYPE_REGEX:
+			copyCString(out);
+			copyCString(out);
+			break;
+			
+		case BsonConstants.TYPE_DBPOINTER:
+			copyString(out);
+			copyFully(12, out);
+			break;
+			
+		case BsonConstants.TYPE_JAVASCRIPT_WITH_SCOPE: {
+			//the size includes the size itself, the code and the scope
+			int size = _in.readInt();
+			if (size >= 14) {
+				out.putInt(size);
+				copyFully(size - 4, out);
+			} else {
+				int pos = out.size();
+				out.putInt(0);
+				copyString(out);
+				copyDocument(out);
+				out.putInt(pos, out.size() - pos);
+			}
+			break;
+		}
+			
+		case BsonConstants.TYPE_NULL:
+		case BsonConstants.TYPE_UNDEFINED:
+		case BsonConstants.TYPE_MINKEY:
+		case BsonConstants.TYPE_MAXKEY:
+			break;
+			
+		default:
+			throw new JsonParseException("Unknown element type " + type,
+					getCurrentLocation());
+		}
+	}
+	
+	/**
+	 * Copies a null-terminated string including the terminating zero
+	 * byte to a buffer
+	 * @param out the buffer to copy to
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void copyCString(DynamicOutputBuffer out) throws IOException {
+		byte b;
+		do {
+			b = _in.readByte();
+			out.putByte(b);
+		} while (b != 0);
+	}
+	
+	/**
+	 * Copies a string that consists of an integer denoting the number
+	 * of bytes and the bytes to a buffer
+	 * @param out the buffer to copy to
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void copyString(DynamicOutputBuffer out) throws IOException {
+		int bytes = _in.readInt();
+		if (bytes <= 0) {
+			throw new IOException("Invalid number of string bytes");
+		}
+		out.putInt(bytes);
+		copyFully(bytes, out);
+	}
+	
+	/**
+	 * Copies an embedded document or array including its header to a
+	 * buffer. Writes the correct length if the header does not declare
+	 * a valid one.
+	 * @param out the buffer to copy to
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void copyDocument(DynamicOutputBuffer out) throws IOException {
+		int length = _in.readInt();
+		if (length >= 5) {
+			out.putInt(length);
+			copyFully(length - 4, out);
+		} else {
+			int pos = out.size();
+			out.putInt(0);
+			copyElements(out);
+			out.putInt(pos, out.size() - pos);
+		}
+	}
+	
+	/**
+	 * Copies the given number of bytes from the input stream to a buffer
+	 * @param n the number of bytes to copy
+	 * @param out the buffer to copy to
+	 * @throws IOException if an I/O error occurs or if the end of
+	 * the input stream has been reached
+	 */
+	private void copyFully(int n, DynamicOutputBuffer out) throws IOException {
+		if (n < 0) {
+			throw new IOException("Invalid number of bytes to copy");
+		}
+		byte[] buf = _copyBuffer;
+		if (buf == null) {
+			buf = new byte[1024 * 8];
+			_copyBuffer = buf;
+		}
+		while (n > 0) {
+			int len = Math.min(buf.length, n);
+			_in.readFully(buf, 0, len);
+			out.putBytes(buf, 0, len);
+			n -= len;
+		}
+	}
+	
 	/**
 	 * Skips over a null-terminated string in the input stream
 	 * @throws IOException if an I/O error occurs
@@ -567,6 +1384,153 @@ public class BsonParser extends ParserBase {
 		while (_in.readByte() != 0);
 	}
 	
+	/**
+	 * Skips the given number of bytes in the input stream
+	 * @param n the number of bytes to skip
+	 * @throws IOException if an I/O error occurs or if the end of
+	 * the input stream has been reached
+	 */
+	protected void skipFully(int n) throws IOException {
+		if (n < 0) {
+			throw new IOException("Invalid number of bytes to skip");
+		}
+		int skipped = _in.skipBytes(n);
+		if (skipped < n) {
+			//the underlying stream could not skip all bytes.
+			//read the rest (this will throw an EOFException if
+			//the end of the stream has been reached).
+			byte[] buf = new byte[Math.min(n - skipped, 1024 * 8)];
+			while (skipped < n) {
+				int len = Math.min(buf.length, n - skipped);
+				_in.readFully(buf, 0, len);
+				skipped += len;
+			}
+		}
+	}
+	
+	/**
+	 * Skips over a string that consists of a integer denoting the number
+	 * of bytes and the bytes (including a terminating 0 byte)
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected void skipString() throws IOException {
+		int bytes = _in.readInt();
+		if (bytes <= 0) {
+			throw new IOException("Invalid number of string bytes");
+		}
+		skipFully(bytes);
+	}
+	
+	/**
+	 * Skips over an embedded document or array including its header.
+	 * Uses the length declared in the header if it is valid.
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected void skipDocument() throws IOException {
+		int length = _in.readInt();
+		if (length >= 5) {
+			skipFully(length - 4);
+		} else {
+			skipElements();
+		}
+	}
+	
+	/**
+	 * Skips over all remaining elements of the current document
+	 * including the terminating zero byte
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected void skipElements() throws IOException {
+		while (true) {
+			byte type = _in.readByte();
+			if (type == BsonConstants.TYPE_END) {
+				break;
+			}
+			skipCString();
+			skipValue(type);
+		}
+	}
+	
+	/**
+	 * Skips over an element's value without decoding it
+	 * @param type the element's BSON type
+	 * @throws IOException if an I/O error occurs or if the type is unknown
+	 */
+	@SuppressWarnings("deprecation")
+	protected void skipValue(byte type) throws IOException {
+		switch (type) {
+		case BsonConstants.TYPE_BOOLEAN:
+			skipFully(1);
+			break;
+			
+		case BsonConstants.TYPE_INT32:
+			skipFully(4);
+			break;
+			
+		case BsonConstants.TYPE_DOUBLE:
+		case BsonConstants.TYPE_DATETIME:
+		case BsonConstants.TYPE_TIMESTAMP:
+		case BsonConstants.TYPE_INT64:
+			skipFully(8);
+			break;
+			
+		case BsonConstants.TYPE_OBJECTID:
+			skipFully(12);
+			break;
+			
+		case BsonConstants.TYPE_DECIMAL128:
+			skipFully(16);
+			break;
+			
+		case BsonConstants.TYPE_STRING:
+		case BsonConstants.TYPE_JAVASCRIPT:
+		case BsonConstants.TYPE_SYMBOL:
+			skipString();
+			break;
+			
+		case BsonConstants.TYPE_DOCUMENT:
+		case BsonConstants.TYPE_ARRAY:
+			skipDocument();
+			break;
+			
+		case BsonConstants.TYPE_BINARY:
+			//the size does not include the subtype
+			skipFully(_in.readInt() + 1);
+			break;
+			
+		case BsonConstants.TYPE_REGEX:
+			skipCString();
+			skipCString();
+			break;
+			
+		case BsonConstants.TYPE_DBPOINTER:
+			skipString();
+			skipFully(12);
+			break;
+			
+		case BsonConstants.TYPE_JAVASCRIPT_WITH_SCOPE:
+			//the size includes the size itself, the code and the scope
+			int size = _in.readInt();
+			if (size >= 14) {
+				skipFully(size - 4);
+			} else {
+				skipString();
+				skipDocument();
+			}
+			break;
+			
+		case BsonConstants.TYPE_NULL:
+		case BsonConstants.TYPE_UNDEFINED:
+		case BsonConstants.TYPE_MINKEY:
+		case BsonConstants.TYPE_MAXKEY:
+			break;
+			
+		default:
+			throw new JsonParseException("Unknown element type " + type,
+					getCurrentLocation());
+		}
+	}
+	
 	/**
 	 * Reads a string that consists of a integer denoting the number of bytes,
 	 * the bytes (including a terminating 0 byte)
@@ -678,7 +1642,17 @@ public class BsonParser extends ParserBase {
 
 	@Override
 	public JsonLocation getCurrentLocation() {
-		return new BsonLocation(_in, _counter.getPosition());
+		return new BsonLocation(_in, getInputPosition());
+	}
+	
+	/**
+	 * @return the number of bytes read from the input so far
+	 */
+	protected int getInputPosition() {
+		if (_bufferIn != null) {
+			return _bufferIn.getPosition();
+		}
+		return _counter.getPosition();
 	}
 
 	@Override
@@ -689,7 +1663,18 @@ public class BsonParser extends ParserBase {
 		if (_currentContext.state == State.VALUE) {
 			return _currentContext.fieldName;
 		}
-		return String.valueOf(_currentContext.value);
+		switch (_currentContext.type) {
+		case BsonConstants.TYPE_INT32:
+			return Integer.toString(_currentContext.intValue);
+		case BsonConstants.TYPE_INT64:
+			return Long.toString(_currentContext.longValue);
+		case BsonConstants.TYPE_DOUBLE:
+			return Double.toString(_currentContext.doubleValue);
+		case BsonConstants.TYPE_BOOLEAN:
+			return _currentContext.intValue != 0 ? "true" : "false";
+		default:
+			return String.valueOf(getDecodedValue(_currentContext));
+		}
 	}
 
 	@Override
@@ -717,7 +1702,20 @@ public class BsonParser extends ParserBase {
 
 	@Override
 	public Number getNumberValue() throws IOException, JsonParseException {
-		return (Number)getContext().value;
+		Context ctx = getContext();
+		if (ctx.state == State.DONE) {
+			switch (ctx.type) {
+			case BsonConstants.TYPE_INT32:
+				return ctx.intValue;
+			case BsonConstants.TYPE_INT64:
+				return ctx.longValue;
+			case BsonConstants.TYPE_DOUBLE:
+				return ctx.doubleValue;
+			default:
+				break;
+			}
+		}
+		return (Number)getDecodedValue(ctx);
 	}
 
 	@Override
@@ -725,17 +1723,30 @@ public class BsonParser extends ParserBase {
 		if (_currentContext == null) {
 			return null;
 		}
-		if (_currentContext.value instanceof Integer) {
+		if (_currentContext.state == State.DONE) {
+			switch (_currentContext.type) {
+			case BsonConstants.TYPE_INT32:
+				return NumberType.INT;
+			case BsonConstants.TYPE_INT64:
+				return NumberType.LONG;
+			case BsonConstants.TYPE_DOUBLE:
+				return NumberType.DOUBLE;
+			default:
+				break;
+			}
+		}
+		Object value = getDecodedValue(_currentContext);
+		if (value instanceof Integer) {
 			return NumberType.INT;
-		} else if (_currentContext.value instanceof Long) {
+		} else if (value instanceof Long) {
 			return NumberType.LONG;
-		} else if (_currentContext.value instanceof BigInteger) {
+		} else if (value instanceof BigInteger) {
 			return NumberType.BIG_INTEGER;
-		} else if (_currentContext.value instanceof Float) {
+		} else if (value instanceof Float) {
 			return NumberType.FLOAT;
-		} else if (_currentContext.value instanceof Double) {
+		} else if (value instanceof Double) {
 			return NumberType.DOUBLE;
-		} else if (_currentContext.value instanceof BigDecimal) {
+		} else if (value instanceof BigDecimal) {
 			return NumberType.BIG_DECIMAL;
 		}
 		return null;
@@ -743,17 +1754,47 @@ public class BsonParser extends ParserBase {
 
 	@Override
 	public int getIntValue() throws IOException, JsonParseException {
-		return ((Number)getContext().value).intValue();
+		Context ctx = getContext();
+		switch (ctx.type) {
+		case BsonConstants.TYPE_INT32:
+			return ctx.intValue;
+		case BsonConstants.TYPE_INT64:
+			return (int)ctx.longValue;
+		case BsonConstants.TYPE_DOUBLE:
+			return (int)ctx.doubleValue;
+		default:
+			return ((Number)getDecodedValue(ctx)).intValue();
+		}
 	}
 
 	@Override
 	public long getLongValue() throws IOException, JsonParseException {
-		return ((Number)getContext().value).longValue();
+		Context ctx = getContext();
+		switch (ctx.type) {
+		case BsonConstants.TYPE_INT32:
+			return ctx.intValue;
+		case BsonConstants.TYPE_INT64:
+			return ctx.longValue;
+		case BsonConstants.TYPE_DOUBLE:
+			return (long)ctx.doubleValue;
+		default:
+			return ((Number)getDecodedValue(ctx)).longValue();
+		}
 	}
 
 	@Override
 	public BigInteger getBigIntegerValue() throws IOException,
 			JsonParseException {
+		Context ctx = getContext();
+		switch (ctx.type) {
+		case BsonConstants.TYPE_INT32:
+		case BsonConstants.TYPE_INT64:
+			return BigInteger.valueOf(getLongValue());
+		case BsonConstants.TYPE_DOUBLE:
+			return BigDecimal.valueOf(ctx.doubleValue).toBigInteger();
+		default:
+			break;
+		}
 		Number n = getNumberValue();
 		if (n == null) {
 			return null;
@@ -769,16 +1810,36 @@ public class BsonParser extends ParserBase {
 
 	@Override
 	public float getFloatValue() throws IOException, JsonParseException {
-		return ((Number)getContext().value).floatValue();
+		return (float)getDoubleValue();
 	}
 
 	@Override
 	public double getDoubleValue() throws IOException, JsonParseException {
-		return ((Number)getContext().value).doubleValue();
+		Context ctx = getContext();
+		switch (ctx.type) {
+		case BsonConstants.TYPE_INT32:
+			return ctx.intValue;
+		case BsonConstants.TYPE_INT64:
+			return ctx.longValue;
+		case BsonConstants.TYPE_DOUBLE:
+			return ctx.doubleValue;
+		default:
+			return ((Number)getDecodedValue(ctx)).doubleValue();
+		}
 	}
 
 	@Override
 	public BigDecimal getDecimalValue() throws IOException, JsonParseException {
+		Context ctx = getContext();
+		switch (ctx.type) {
+		case BsonConstants.TYPE_INT32:
+		case BsonConstants.TYPE_INT64:
+			return BigDecimal.valueOf(getLongValue());
+		case BsonConstants.TYPE_DOUBLE:
+			return BigDecimal.valueOf(ctx.doubleValue);
+		default:
+			break;
+		}
 		Number n = getNumberValue();
 		if (n == null) {
 			return null;
@@ -795,12 +1856,16 @@ public class BsonParser extends ParserBase {
 	@Override
 	public byte[] getBinaryValue(Base64Variant b64variant) throws IOException,
 			JsonParseException {
-		return (byte[])getContext().value;
+		return (byte[])getDecodedValue(getContext());
 	}
 	
 	@Override
 	public Object getEmbeddedObject() throws IOException, JsonParseException {
-		return _currentContext != null ? _currentContext.value : null;
+		if (_currentContext == null) {
+			return null;
+		}
+		getDecodedValue(_currentContext);
+		return _currentContext.getValue();
 	}
 
 	@Override
@@ -822,7 +1887,17 @@ public class BsonParser extends ParserBase {
 
 	@Override
 	protected void _closeInput() throws IOException {
-		_rawInputStream.close();
+		if (_rawInputStream != null) {
+			_rawInputStream.close();
+		}
+	}
+	
+	@Override
+	protected void _releaseBuffers() throws IOException {
+		super._releaseBuffers();
+		if (_bufferedIn != null) {
+			_bufferedIn.close();
+		}
 	}
 
 	/**
@@ -860,15 +1935,70 @@ public class BsonParser extends ParserBase {
 		String fieldName;
 		
 		/**
-		 * The value of the current element
+		 * The value of the current element if it is not a primitive
 		 */
 		Object value;
 		
+		/**
+		 * The value of the current element if it is a
+		 * {@link BsonConstants#TYPE_INT32} or a {@link BsonConstants#TYPE_BOOLEAN}
+		 * (1 for true, 0 for false)
+		 */
+		int intValue;
+		
+		/**
+		 * The value of the current element if it is a
+		 * {@link BsonConstants#TYPE_INT64}
+		 */
+		long longValue;
+		
+		/**
+		 * The value of the current element if it is a
+		 * {@link BsonConstants#TYPE_DOUBLE}
+		 */
+		double doubleValue;
+		
 		/**
 		 * The parsing state of the current token
 		 */
 		State state = State.FIELDNAME;
-		
+
+		/**
+		 * The input position of the document's header
+		 */
+		int documentStart;
+
+		/**
+		 * The document's length as declared in its header (including the
+		 * header itself and the terminating zero byte). May be 0 if the
+		 * document has been written by a streaming generator.
+		 */
+		int documentLength;
+
+		/**
+		 * True if the value of the current element has not been decoded
+		 * yet (see {@link Feature#DEFER_VALUE_DECODING})
+		 */
+		boolean deferred;
+
+		/**
+		 * The input position of the current element's value if
+		 * {@link #deferred} is true
+		 */
+		int valuePos;
+
+		/**
+		 * The fields of this document to include (null if all fields
+		 * should be included)
+		 */
+		BsonProjection projection;
+
+		/**
+		 * The fields to include from the current element's value if it
+		 * is a document or an array (null if all fields should be included)
+		 */
+		BsonProjection valueProjection;
+
 		public Context(Context parent, boolean array) {
 			this.parent = parent;
 			this.array = array;
@@ -878,6 +2008,7 @@ public class BsonParser extends ParserBase {
 			type = 0;
 			fieldName = null;
 			value = null;
+			deferred = false;
 			state = State.FIELDNAME;
 		}
 		
@@ -894,9 +2025,40 @@ public class BsonParser extends ParserBase {
 			r.type = type;
 			r.fieldName = fieldName;
 			r.value = value;
+			r.intValue = intValue;
+			r.longValue = longValue;
+			r.doubleValue = doubleValue;
 			r.state = state;
+			r.documentStart = documentStart;
+			r.documentLength = documentLength;
+			r.deferred = deferred;
+			r.valuePos = valuePos;
+			r.projection = projection;
+			r.valueProjection = valueProjection;
 			return r;
 		}
+		
+		/**
+		 * @return the value of the current element (primitive values
+		 * will be boxed)
+		 */
+		public Object getValue() {
+			if (state == State.DONE) {
+				switch (type) {
+				case BsonConstants.TYPE_INT32:
+					return intValue;
+				case BsonConstants.TYPE_INT64:
+					return longValue;
+				case BsonConstants.TYPE_DOUBLE:
+					return doubleValue;
+				case BsonConstants.TYPE_BOOLEAN:
+					return intValue != 0;
+				default:
+					break;
+				}
+			}
+			return value;
+		}
 	}
 	
 	/**
@@ -0,0 +1,138 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>A set of field paths that should be included when a document is
+ * parsed (see {@link BsonParser#setProjection(BsonProjection)}). Paths
+ * consist of field names separated by dots (e.g. {@code "a.b"}). If a
+ * path denotes an embedded document or an array, the whole value will
+ * be included. Paths apply to all elements of arrays on the way. For
+ * example, {@code "a.b"} includes the field {@code "b"} of all documents
+ * in the array {@code "a"}.</p>
+ * <p>Documents and arrays on a path are kept even if none of their
+ * fields match. Scalar values on a path (i.e. values that are neither
+ * documents nor arrays) are excluded.</p>
+ * <p>Projections are immutable and can be shared between threads.</p>
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class BsonProjection {
+	/**
+	 * A projection that includes everything
+	 */
+	public static final BsonProjection INCLUDE_ALL = new BsonProjection(
+			Collections.<String, BsonProjection>emptyMap());
+	
+	/**
+	 * The projections for the fields included (empty if this
+	 * projection is {@link #INCLUDE_ALL})
+	 */
+	private final Map<String, BsonProjection> _children;
+	
+	/**
+	 * Creates a new projection
+	 * @param children the projections for the fields included
+	 */
+	private BsonProjection(Map<String, BsonProjection> children) {
+		_children = children;
+	}
+	
+	/**
+	 * Creates a projection that includes the given field paths
+	 * @param paths the field paths (e.g. {@code "a.b"} or {@code "tags"})
+	 * @return the projection
+	 */
+	public static BsonProjection of(String... paths) {
+		return of(Arrays.asList(paths));
+	}
+	
+	/**
+	 * Creates a projection that includes the given field paths
+	 * @param paths the field paths (e.g. {@code "a.b"} or {@code "tags"})
+	 * @return the projection
+	 */
+	public static BsonProjection of(Collection<String> paths) {
+		Map<String, Object> tree = new HashMap<String, Object>();
+		for (String p : paths) {
+			if (p.isEmpty()) {
+				throw new IllegalArgumentException("Field path must not be empty");
+			}
+			Map<String, Object> node = tree;
+			String[] names = p.split("\\.", -1);
+			for (int i = 0; i < names.length; ++i) {
+				Object child = node.get(names[i]);
+				if (child == INCLUDE_ALL) {
+					//a shorter path already includes this one
+					break;
+				}
+				if (i == names.length - 1) {
+					node.put(names[i], INCLUDE_ALL);
+				} else {
+					if (child == null) {
+						child = new HashMap<String, Object>();
+						node.put(names[i], child);
+					}
+					@SuppressWarnings("unchecked")
+					Map<String, Object> m = (Map<String, Object>)child;
+					node = m;
+				}
+			}
+		}
+		return build(tree);
+	}
+	
+	/**
+	 * Converts a tree of field names to projections
+	 * @param tree the tree
+	 * @return the projection
+	 */
+	@SuppressWarnings("unchecked")
+	private static BsonProjection build(Map<String, Object> tree) {
+		Map<String, BsonProjection> children =
+				new HashMap<String, BsonProjection>(tree.size() * 2);
+		for (Map.Entry<String, Object> e : tree.entrySet()) {
+			Object v = e.getValue();
+			children.put(e.getKey(), v == INCLUDE_ALL ? INCLUDE_ALL :
+				build((Map<String, Object>)v));
+		}
+		return new BsonProjection(children);
+	}
+	
+	/**
+	 * @return true if this projection includes everything
+	 */
+	public boolean isIncludeAll() {
+		return this == INCLUDE_ALL;
+	}
+	
+	/**
+	 * Gets the projection for the value of a field
+	 * @param fieldName the field's name
+	 * @return the projection or null if the field is not included
+	 */
+	public BsonProjection getChild(String fieldName) {
+		if (this == INCLUDE_ALL) {
+			return INCLUDE_ALL;
+		}
+		return _children.get(fieldName);
+	}
+}
@@ -0,0 +1,89 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.filter.FilteringParserDelegate;
+import com.fasterxml.jackson.core.filter.TokenFilter;
+
+/**
+ * <p>A {@link TokenFilter} that includes the fields of a
+ * {@link BsonProjection}. It can be used with Jackson's
+ * {@link FilteringParserDelegate} or
+ * {@link com.fasterxml.jackson.core.filter.FilteringGeneratorDelegate}.</p>
+ * <p>Use {@link #filter(JsonParser, BsonProjection)} to apply a
+ * projection to a parser. If the parser is a {@link BsonParser}, the
+ * projection will be applied natively, so values that are not included
+ * will be skipped without being decoded.</p>
+ * <p>This class requires Jackson 2.6 or higher.</p>
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class BsonProjectionFilter extends TokenFilter {
+	/**
+	 * The projection to apply
+	 */
+	private final BsonProjection _projection;
+	
+	/**
+	 * Creates a new filter
+	 * @param projection the projection to apply
+	 */
+	public BsonProjectionFilter(BsonProjection projection) {
+		_projection = projection;
+	}
+	
+	/**
+	 * Applies a projection to a parser. If the parser is a
+	 * {@link BsonParser} that has not started parsing yet, the projection
+	 * will be set directly (see {@link BsonParser#setProjection(BsonProjection)}).
+	 * Otherwise, the parser will be wrapped into a
+	 * {@link FilteringParserDelegate}.
+	 * @param p the parser
+	 * @param projection the projection to apply
+	 * @return the parser that only returns the fields included
+	 */
+	public static JsonParser filter(JsonParser p, BsonProjection projection) {
+		if (p instanceof BsonParser && p.getCurrentToken() == null &&
+				((BsonParser)p).getProjection() == null) {
+			((BsonParser)p).setProjection(projection);
+			return p;
+		}
+		return new FilteringParserDelegate(p,
+				new BsonProjectionFilter(projection), true, true);
+	}
+	
+	@Override
+	public TokenFilter includeProperty(String name) {
+		BsonProjection child = _projection.getChild(name);
+		if (child == null) {
+			return null;
+		}
+		if (child.isIncludeAll()) {
+			return TokenFilter.INCLUDE_ALL;
+		}
+		return new BsonProjectionFilter(child);
+	}
+	
+	@Override
+	public TokenFilter includeElement(int index) {
+		return this;
+	}
+	
+	@Override
+	protected boolean _includeScalar() {
+		return _projection.isIncludeAll();
+	}
+}
@@ -0,0 +1,548 @@
+// Copyright 2010-2017 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.async.NonBlockingInputFeeder;
+import com.fasterxml.jackson.core.io.IOContext;
+
+import org.litote.bson4jackson.io.LittleEndianByteBufferInputStream;
+
+/**
+ * <p>A non-blocking BSON parser. Input is fed to the parser through the
+ * {@link ByteArrayFeeder} interface. If the bytes fed so far do not
+ * contain the next complete token, {@link #nextToken()} returns
+ * {@link JsonToken#NOT_AVAILABLE} and consumes nothing. The caller should
+ * then feed more input and try again. Call {@link #endOfInput()} once
+ * all input has been fed.</p>
+ * <p>The parser copies the bytes fed into an internal buffer, so the
+ * caller may reuse its array as soon as {@link #feedInput(byte[], int, int)}
+ * has returned. Bytes that belong to tokens already returned are
+ * discarded when new input is fed.</p>
+ * <p>The parser accepts a sequence of root documents. It returns
+ * <code>null</code> after the last document if {@link #endOfInput()} has
+ * been called.</p>
+ * <p>{@link BsonParser.Feature#DEFER_VALUE_DECODING} is not supported by
+ * this parser. {@link #skipChildren()} and {@link #readRawDocument()} only
+ * work for documents that have been fed completely.</p>
+ * <p>This class requires Jackson 2.9 or higher.</p>
+ * @see BsonFactory#createNonBlockingByteArrayParser()
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class NonBlockingBsonParser extends BsonParser implements ByteArrayFeeder {
+	/**
+	 * The buffer containing the bytes fed
+	 */
+	protected final FeedBuffer _feedBuffer;
+
+	/**
+	 * True if {@link #endOfInput()} has been called
+	 */
+	protected boolean _endOfInput;
+
+	/**
+	 * True if the last call to {@link #nextToken()} returned
+	 * {@link JsonToken#NOT_AVAILABLE}
+	 */
+	protected boolean _notAvailable;
+
+	/**
+	 * Creates a new parser
+	 * @param ctxt the Jackson IO context
+	 * @param jsonFeatures bit flag composed of bits that indicate which
+	 * {@link com.fasterxml.jackson.core.JsonParser.Feature}s are enabled.
+	 * @param bsonFeatures bit flag composed of bits that indicate which
+	 * {@link BsonParser.Feature}s are enabled.
+	 */
+	public NonBlockingBsonParser(IOContext ctxt, int jsonFeatures, int bsonFeatures) {
+		this(ctxt, jsonFeatures, bsonFeatures, new FeedBuffer());
+	}
+
+	/**
+	 * Creates a new parser
+	 * @param ctxt the Jackson IO context
+	 * @param jsonFeatures bit flag composed of bits that indicate which
+	 * {@link com.fasterxml.jackson.core.JsonParser.Feature}s are enabled.
+	 * @param bsonFeatures bit flag composed of bits that indicate which
+	 * {@link BsonParser.Feature}s are enabled.
+	 * @param buffer the buffer to collect the bytes fed
+	 */
+	protected NonBlockingBsonParser(IOContext ctxt, int jsonFeatures,
+			int bsonFeatures, FeedBuffer buffer) {
+		super(ctxt, jsonFeatures, bsonFeatures, buffer);
+		_feedBuffer = buffer;
+		//the buffer is compacted when new input is fed, so positions
+		//of deferred values would become invalid
+		_deferValueDecoding = false;
+	}
+
+	/**
+	 * Creates a new parser. This method can be used by classes that must
+	 * not refer to this class in their signatures (e.g. because they
+	 * should still be loadable with Jackson versions prior to 2.9).
+	 * @param ctxt the Jackson IO context
+	 * @param jsonFeatures bit flag composed of bits that indicate which
+	 * {@link com.fasterxml.jackson.core.JsonParser.Feature}s are enabled.
+	 * @param bsonFeatures bit flag composed of bits that indicate which
+	 * {@link BsonParser.Feature}s are enabled.
+	 * @return the new parser
+	 */
+	public static BsonParser create(IOContext ctxt, int jsonFeatures, int bsonFeatures) {
+		return new NonBlockingBsonParser(ctxt, jsonFeatures, bsonFeatures);
+	}
+
+	@Override
+	public boolean canParseAsync() {
+		return true;
+	}
+
+	@Override
+	public NonBlockingInputFeeder getNonBlockingInputFeeder() {
+		return this;
+	}
+
+	@Override
+	public boolean needMoreInput() {
+		return !_endOfInput && (_notAvailable || _feedBuffer.available() == 0);
+	}
+
+	@Override
+	public void endOfInput() {
+		_endOfInput = true;
+	}
+
+	@Override
+	@SuppressWarnings("deprecation")
+	public void feedInput(byte[] data, int offset, int end) throws IOException {
+		if (_endOfInput) {
+			throw new JsonParseException("Already closed, can not feed more input",
+					getCurrentLocation());
+		}
+		if (end < offset || offset < 0 || end > data.length) {
+			throw new JsonParseException("Invalid input range: offset " + offset +
+					", end " + end, getCurrentLocation());
+		}
+		_feedBuffer.feed(data, offset, end - offset);
+		_notAvailable = false;
+	}
+
+	@Override
+	protected int getInputPosition() {
+		return _feedBuffer.getConsumed() + _feedBuffer.getPosition();
+	}
+
+	@Override
+	public JsonToken nextToken() throws IOException, JsonParseException {
+		if (_closed) {
+			return null;
+		}
+
+		if (!isNextTokenAvailable()) {
+			if (_endOfInput) {
+				if (_currentContext == null && _feedBuffer.available() == 0) {
+					//end of input between documents
+					_notAvailable = false;
+					_currToken = null;
+					return null;
+				}
+				_handleEOF();
+			}
+			_notAvailable = true;
+			_currToken = JsonToken.NOT_AVAILABLE;
+			return _currToken;
+		}
+
+		_notAvailable = false;
+		if (_currentContext == null) {
+			//start a new root document
+			_tokenPos = getInputPosition();
+			_currToken = null;
+		}
+		return super.nextToken();
+	}
+
+	@Override
+	@SuppressWarnings("deprecation")
+	public JsonParser skipChildren() throws IOException, JsonParseException {
+		if ((_currToken == JsonToken.START_OBJECT || _currToken == JsonToken.START_ARRAY) &&
+				elementsEnd(0) < 0) {
+			throw new JsonParseException("Cannot skip children. The current " +
+					"document has not been fed completely.", getCurrentLocation());
+		}
+		return super.skipChildren();
+	}
+
+	/**
+	 * Discards all input fed so far (including the end-of-input marker)
+	 * and feeds the given bytes. The parser can be used as if it was
+	 * newly created. More input can be fed with
+	 * {@link #feedInput(byte[], int, int)}.
+	 * @param data the array containing the bytes to feed
+	 * @param offset the index of the first byte to feed
+	 * @param len the number of bytes to feed
+	 * @throws IOException if the given range is invalid
+	 */
+	@Override
+	public void reset(byte[] data, int offset, int len) throws IOException {
+		_feedBuffer.clear();
+		_endOfInput = false;
+		_notAvailable = false;
+		resetState();
+		feedInput(data, offset, offset + len);
+	}
+
+	@Override
+	@SuppressWarnings("deprecation")
+	protected Context getRawDocumentContext() throws IOException {
+		Context ctx = super.getRawDocumentContext();
+		if (elementsEnd(0) < 0) {
+			throw new JsonParseException("Cannot read raw document. The " +
+					"current document has not been fed completely.",
+					getCurrentLocation());
+		}
+		return ctx;
+	}
+
+	/**
+	 * Checks if the buffer contains all bytes required to read the next
+	 * token. Does not consume anything.
+	 * @return true if the next token can be read without blocking
+	 */
+	protected boolean isNextTokenAvailable() {
+		Context ctx = _currentContext;
+		if (ctx == null) {
+			//document header
+			return _feedBuffer.available() >= 4;
+		}
+
+		if (ctx.state == State.VALUE) {
+			return tokenEnd(ctx.type, 0) >= 0;
+		}
+
+		int i = 0;
+		while (true) {
+			if (i >= _feedBuffer.available()) {
+				return false;
+			}
+			byte type = _feedBuffer.peek(i++);
+			if (type == BsonConstants.TYPE_END) {
+				return true;
+			}
+			int nameStart = i;
+			i = cStringEnd(i);
+			if (i < 0) {
+				return false;
+			}
+			if (type == BsonConstants.TYPE_UNDEFINED) {
+				//the parser silently skips undefined elements
+				continue;
+			}
+			if (ctx.array) {
+				if (ctx.projection == null || isIncluded(ctx.projection, type)) {
+					//array elements are read immediately
+					return tokenEnd(type, i) >= 0;
+				}
+			} else if (ctx.projection == null || isIncluded(ctx.projection.getChild(
+					_feedBuffer.peekString(nameStart, i - 1)), type)) {
+				return true;
+			}
+			//the parser skips the values of excluded fields and elements
+			//in the same call, so they must be available too
+			i = valueEnd(type, i);
+			if (i < 0) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Checks if a given number of bytes is available
+	 * @param end the index one greater than the last byte required
+	 * (relative to the current read position)
+	 * @return <code>end</code> or -1 if not enough bytes are available
+	 */
+	private int require(long end) {
+		return end <= _feedBuffer.available() ? (int)end : -1;
+	}
+
+	/**
+	 * Calculates the number of bytes {@link #nextToken()} reads for a
+	 * value of the given type. This is the whole value except for embedded
+	 * documents and arrays, whose tokens only consist of their header.
+	 * @param type the value's BSON type
+	 * @param i the index where the value starts (relative to the current
+	 * read position)
+	 * @return the index after the token or -1 if not enough bytes
+	 * are available
+	 */
+	private int tokenEnd(byte type, int i) {
+		if (type == BsonConstants.TYPE_DOCUMENT || type == BsonConstants.TYPE_ARRAY) {
+			return require(i + 4);
+		}
+		return valueEnd(type, i);
+	}
+
+	/**
+	 * Calculates the index after a value
+	 * @param type the value's BSON type
+	 * @param i the index where the value starts (relative to the current
+	 * read position)
+	 * @return the index after the value or -1 if not enough bytes
+	 * are available
+	 */
+	@SuppressWarnings("deprecation")
+	private int valueEnd(byte type, int i) {
+		switch (type) {
+		case BsonConstants.TYPE_BOOLEAN:
+			return require(i + 1);
+
+		case BsonConstants.TYPE_INT32:
+			return require(i + 4);
+
+		case BsonConstants.TYPE_DOUBLE:
+		case BsonConstants.TYPE_DATETIME:
+		case BsonConstants.TYPE_TIMESTAMP:
+		case BsonConstants.TYPE_INT64:
+			return require(i + 8);
+
+		case BsonConstants.TYPE_OBJECTID:
+			return require(i + 12);
+
+		case BsonConstants.TYPE_DECIMAL128:
+			return require(i + 16);
+
+		case BsonConstants.TYPE_STRING:
+		case BsonConstants.TYPE_JAVASCRIPT:
+		case BsonConstants.TYPE_SYMBOL:
+			return stringEnd(i);
+
+		case BsonConstants.TYPE_DOCUMENT:
+		case BsonConstants.TYPE_ARRAY:
+			return documentEnd(i);
+
+		case BsonConstants.TYPE_BINARY: {
+			if (require(i + 4) < 0) {
+				return -1;
+			}
+			//size does not include the subtype
+			return require(i + 4L + 1 + Math.max(0, _feedBuffer.peekInt(i)));
+		}
+
+		case BsonConstants.TYPE_REGEX:
+			i = cStringEnd(i);
+			return i < 0 ? -1 : cStringEnd(i);
+
+		case BsonConstants.TYPE_DBPOINTER:
+			i = stringEnd(i);
+			return i < 0 ? -1 : require(i + 12);
+
+		case BsonConstants.TYPE_JAVASCRIPT_WITH_SCOPE: {
+			if (require(i + 4) < 0) {
+				return -1;
+			}
+			int size = _feedBuffer.peekInt(i);
+			if (size >= 14) {
+				return require((long)i + size);
+			}
+			//size has not been written (streaming mode)
+			i = stringEnd(i + 4);
+			return i < 0 ? -1 : documentEnd(i);
+		}
+
+		default:
+			//null, undefined, minkey, maxkey, or an unknown type
+			//the parser will report
+			return require(i);
+		}
+	}
+
+	/**
+	 * Calculates the index after a string that consists of a integer
+	 * denoting the number of bytes and the bytes
+	 * @param i the index where the string starts
+	 * @return the index after the string or -1 if not enough bytes
+	 * are available
+	 */
+	private int stringEnd(int i) {
+		if (require(i + 4) < 0) {
+			return -1;
+		}
+		//invalid lengths will be reported by the parser
+		return require(i + 4L + Math.max(0, _feedBuffer.peekInt(i)));
+	}
+
+	/**
+	 * Calculates the index after a null-terminated string
+	 * @param i the index where the string starts
+	 * @return the index after the terminating zero byte or -1 if not
+	 * enough bytes are available
+	 */
+	private int cStringEnd(int i) {
+		int avail = _feedBuffer.available();
+		while (i < avail) {
+			if (_feedBuffer.peek(i++) == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Calculates the index after an embedded document or array
+	 * @param i the index where the document's header starts
+	 * @return the index after the document or -1 if not enough bytes
+	 * are available
+	 */
+	private int documentEnd(int i) {
+		if (require(i + 4) < 0) {
+			return -1;
+		}
+		int length = _feedBuffer.peekInt(i);
+		if (length >= 5) {
+			return require((long)i + length);
+		}
+		//length has not been written (streaming mode)
+		return elementsEnd(i + 4);
+	}
+
+	/**
+	 * Calculates the index after the remaining elements of a document
+	 * (including its terminating zero byte)
+	 * @param i the index of the first element
+	 * @return the index after the document or -1 if not enough bytes
+	 * are available
+	 */
+	private int elementsEnd(int i) {
+		while (i >= 0) {
+			if (require(i + 1) < 0) {
+				return -1;
+			}
+			byte type = _feedBuffer.peek(i++);
+			if (type == BsonConstants.TYPE_END) {
+				return i;
+			}
+			i = cStringEnd(i);
+			if (i >= 0) {
+				i = valueEnd(type, i);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A growable buffer that collects the bytes fed to the parser
+	 */
+	protected static class FeedBuffer extends LittleEndianByteBufferInputStream {
+		/**
+		 * The UTF-8 character set
+		 */
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+
+		/**
+		 * The number of bytes that have been discarded from the
+		 * beginning of the buffer
+		 */
+		protected int _consumed;
+
+		/**
+		 * Creates an empty buffer
+		 */
+		public FeedBuffer() {
+			super(new byte[0]);
+		}
+
+		/**
+		 * @return the number of bytes that have been discarded from the
+		 * beginning of the buffer
+		 */
+		public int getConsumed() {
+			return _consumed;
+		}
+
+		/**
+		 * Appends bytes to the buffer. Discards all bytes before the
+		 * current read position.
+		 * @param data the array containing the bytes to append
+		 * @param off the offset of the first byte to append
+		 * @param len the number of bytes to append
+		 */
+		public void feed(byte[] data, int off, int len) {
+			byte[] buf = _bb.array();
+			int remaining = _limit - _pos;
+			if (remaining + len > buf.length) {
+				byte[] newBuf = new byte[Math.max(remaining + len, buf.length * 2)];
+				System.arraycopy(buf, _pos, newBuf, 0, remaining);
+				buf = newBuf;
+				_bb = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+			} else if (_pos > 0) {
+				System.arraycopy(buf, _pos, buf, 0, remaining);
+			}
+			System.arraycopy(data, off, buf, remaining, len);
+			_consumed += _pos;
+			_mark -= _pos;
+			_pos = 0;
+			_limit = remaining + len;
+		}
+
+		/**
+		 * Discards all bytes and resets the read position
+		 */
+		public void clear() {
+			_consumed = 0;
+			_mark = 0;
+			_pos = 0;
+			_limit = 0;
+		}
+
+		/**
+		 * Gets a byte without consuming it
+		 * @param i the byte's index relative to the current read position
+		 * @return the byte
+		 */
+		public byte peek(int i) {
+			return _bb.get(_pos + i);
+		}
+
+		/**
+		 * Decodes a UTF-8 string without consuming it
+		 * @param start the index of the string's first byte relative to
+		 * the current read position
+		 * @param end the index after the string's last byte relative to
+		 * the current read position
+		 * @return the string
+		 */
+		public String peekString(int start, int end) {
+			return new String(_bb.array(), _pos + start, end - start, UTF8);
+		}
+
+		/**
+		 * Gets a little-endian integer without consuming it
+		 * @param i the integer's index relative to the current read position
+		 * @return the integer
+		 */
+		public int peekInt(int i) {
+			return _bb.getInt(_pos + i);
+		}
+	}
+}
@@ -22,6 +22,7 @@ import com.fasterxml.jackson.databind.module.SimpleDeserializers;
 
 import org.litote.bson4jackson.types.JavaScript;
 import org.litote.bson4jackson.types.ObjectId;
+import org.litote.bson4jackson.types.RawBsonDocument;
 import org.litote.bson4jackson.types.Timestamp;
 
 /**
@@ -41,6 +42,7 @@ public class BsonDeserializers extends SimpleDeserializers {
 		addDeserializer(JavaScript.class, new BsonJavaScriptDeserializer());
 		addDeserializer(ObjectId.class, new BsonObjectIdDeserializer());
 		addDeserializer(Pattern.class, new BsonRegexDeserializer());
+		addDeserializer(RawBsonDocument.class, new BsonRawDocumentDeserializer());
 		addDeserializer(Timestamp.class, new BsonTimestampDeserializer());
 	}
 }
@@ -0,0 +1,62 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.deserializers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import org.litote.bson4jackson.BsonFactory;
+import org.litote.bson4jackson.BsonGenerator;
+import org.litote.bson4jackson.BsonParser;
+import org.litote.bson4jackson.types.RawBsonDocument;
+
+/**
+ * Deserializes raw BSON documents. Reads the document's bytes directly
+ * if the parser is a {@link BsonParser} (see
+ * {@link BsonParser#readRawDocument()}). Otherwise, encodes the
+ * document's tokens.
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class BsonRawDocumentDeserializer extends JsonDeserializer<RawBsonDocument> {
+	/**
+	 * The factory used to encode documents read by other parsers
+	 */
+	private static final BsonFactory FACTORY = new BsonFactory();
+	
+	@Override
+	@SuppressWarnings("deprecation")
+	public RawBsonDocument deserialize(JsonParser jp, DeserializationContext ctxt)
+			throws IOException {
+		if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+			throw ctxt.mappingException(RawBsonDocument.class);
+		}
+		if (jp instanceof BsonParser) {
+			return new RawBsonDocument(((BsonParser)jp).readRawDocument());
+		}
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BsonGenerator gen = FACTORY.createGenerator(baos);
+		gen.setCodec(jp.getCodec());
+		gen.copyCurrentStructure(jp);
+		gen.close();
+		return new RawBsonDocument(baos.toByteArray());
+	}
+}
@@ -0,0 +1,119 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for buffer pools. Allocates new buffers if the pool is
+ * empty and counts hits and misses.
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public abstract class AbstractBufferPool implements BufferPool {
+	/**
+	 * The minimum size of all buffers allocated. Larger buffers are
+	 * rounded up to the next power of two (see {@link #getAllocationSize(int)}).
+	 * Using a small number of distinct sizes makes it more likely that
+	 * a pooled buffer is large enough to be re-used.
+	 */
+	public static final int MIN_BUFFER_SIZE = 1024;
+	
+	/**
+	 * The number of times a buffer could be taken from the pool
+	 */
+	private final AtomicLong _hits = new AtomicLong();
+	
+	/**
+	 * The number of times a buffer had to be allocated
+	 */
+	private final AtomicLong _misses = new AtomicLong();
+	
+	@Override
+	public ByteBuffer acquireByteBuffer(int minSize) {
+		ByteBuffer r = poll(minSize, false);
+		if (r != null) {
+			_hits.incrementAndGet();
+			r.clear();
+			return r;
+		}
+		_misses.incrementAndGet();
+		return ByteBuffer.allocate(getAllocationSize(minSize));
+	}
+	
+	@Override
+	public ByteBuffer acquireDirectByteBuffer(int minSize) {
+		ByteBuffer r = poll(minSize, true);
+		if (r != null) {
+			_hits.incrementAndGet();
+			r.clear();
+			return r;
+		}
+		_misses.incrementAndGet();
+		return ByteBuffer.allocateDirect(getAllocationSize(minSize));
+	}
+	
+	@Override
+	public void releaseByteBuffer(ByteBuffer buf) {
+		if (buf != null) {
+			offer(buf);
+		}
+	}
+	
+	@Override
+	public long getHitCount() {
+		return _hits.get();
+	}
+	
+	@Override
+	public long getMissCount() {
+		return _misses.get();
+	}
+	
+	/**
+	 * Calculates the capacity of a new buffer
+	 * @param minSize the buffer's minimum capacity
+	 * @return the capacity (at least {@link #MIN_BUFFER_SIZE} and a
+	 * power of two if possible)
+	 */
+	protected static int getAllocationSize(int minSize) {
+		if (minSize <= MIN_BUFFER_SIZE) {
+			return MIN_BUFFER_SIZE;
+		}
+		int r = Integer.highestOneBit(minSize - 1) << 1;
+		if (r < 0) {
+			//too large to be rounded up
+			return minSize;
+		}
+		return r;
+	}
+	
+	/**
+	 * Takes a buffer out of the pool
+	 * @param minSize the buffer's minimum capacity
+	 * @param direct true if a direct buffer is requested, false if
+	 * a heap buffer is requested
+	 * @return the buffer or null if the pool does not contain
+	 * a suitable buffer
+	 */
+	protected abstract ByteBuffer poll(int minSize, boolean direct);
+	
+	/**
+	 * Puts a buffer into the pool or discards it if the pool is full
+	 * @param buf the buffer (heap or direct, see {@link ByteBuffer#isDirect()})
+	 */
+	protected abstract void offer(ByteBuffer buf);
+}
@@ -0,0 +1,66 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Provides re-usable byte buffers to parsers, generators and streams.
+ * Implementations decide how many buffers are kept and who they are
+ * shared with. Buffers acquired from a pool should be released to the
+ * same pool as soon as they are not needed anymore. They must not be
+ * used after they have been released.
+ * @see ThreadLocalBufferPool
+ * @see SharedBufferPool
+ * @see NonRecyclingBufferPool
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public interface BufferPool {
+	/**
+	 * Acquires a heap byte buffer from the pool or allocates a new one
+	 * if the pool does not contain a suitable buffer. The buffer's
+	 * position will be 0 and its limit will be equal to its capacity.
+	 * @param minSize the buffer's minimum capacity
+	 * @return the buffer
+	 */
+	ByteBuffer acquireByteBuffer(int minSize);
+	
+	/**
+	 * Acquires a direct byte buffer from the pool or allocates a new one
+	 * if the pool does not contain a suitable buffer. The buffer's
+	 * position will be 0 and its limit will be equal to its capacity.
+	 * @param minSize the buffer's minimum capacity
+	 * @return the buffer
+	 */
+	ByteBuffer acquireDirectByteBuffer(int minSize);
+	
+	/**
+	 * Puts a buffer (heap or direct) back into the pool so it can be re-used
+	 * @param buf the buffer to release (may be null)
+	 */
+	void releaseByteBuffer(ByteBuffer buf);
+	
+	/**
+	 * @return the number of times a buffer could be taken from the pool
+	 */
+	long getHitCount();
+	
+	/**
+	 * @return the number of times a new buffer had to be allocated
+	 * because the pool did not contain a suitable one
+	 */
+	long getMissCount();
+}
@@ -16,10 +16,12 @@ package org.litote.bson4jackson.io;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
@@ -60,7 +62,11 @@ import java.util.Queue;
  * ...
  * buf.writeTo(out);</pre>
  * <p>If flushing is never used a single call to one of the <code>writeTo</code>
- * methods is enough to write the whole buffer.</p>
+ * methods is enough to write the whole buffer. If the size of the target
+ * is known in advance (or can be chosen freely), the non-flushed buffers
+ * can also be copied into a byte array or a {@link ByteBuffer} with
+ * {@link #toByteArray()}, {@link #writeTo(byte[], int)} or
+ * {@link #writeTo(ByteBuffer)}.</p>
  * <p>Once the buffer has been written to an output stream or channel, putting
  * elements into it is not possible anymore and will lead to an
  * {@link java.lang.IndexOutOfBoundsException}.</p>
@@ -74,13 +80,19 @@ public class DynamicOutputBuffer {
 	
 	/**
 	 * A unique key to make the first buffer re-usable
+	 * @deprecated Buffers are now acquired from a {@link BufferPool}
 	 */
+	@Deprecated
 	protected static final StaticBuffers.Key BUFFER_KEY = StaticBuffers.Key.BUFFER2;
 	
 	/**
-	 * The default initial buffer size if nothing is specified
+	 * The default initial buffer size if nothing is specified. Kept small
+	 * so small messages do not occupy large buffers. Generators choose
+	 * larger sizes for large documents if they have a size hint or a
+	 * size histogram (see
+	 * {@link org.litote.bson4jackson.BsonGenerator#setSizeHint(int)}).
 	 */
-	public final static int DEFAULT_BUFFER_SIZE = Math.max(StaticBuffers.GLOBAL_MIN_SIZE, 1024 * 8);
+	public final static int DEFAULT_BUFFER_SIZE = 1024 * 8;
 	
 	/**
 	 * The byte order of this buffer
@@ -88,9 +100,10 @@ public class DynamicOutputBuffer {
 	protected final ByteOrder _order;
 	
 	/**
-	 * The size of each internal buffer (also the initial buffer size)
+	 * The size of each internal buffer (also the initial buffer size,
+	 * see {@link #setBufferSize(int)})
 	 */
-	protected final int _bufferSize;
+	protected int _bufferSize;
 	
 	/**
 	 * The current write position
@@ -140,6 +153,16 @@ public class DynamicOutputBuffer {
 	 */
 	protected int _reuseBuffersCount = 0;
 	
+	/**
+	 * The pool providing the internal buffers
+	 */
+	protected BufferPool _bufferPool = ThreadLocalBufferPool.getInstance();
+	
+	/**
+	 * True if the internal buffers should be direct buffers
+	 */
+	protected boolean _direct;
+	
 	/**
 	 * Creates a dynamic buffer with BIG_ENDIAN byte order and
 	 * a default initial buffer size of {@link #DEFAULT_BUFFER_SIZE} bytes.
@@ -182,6 +205,84 @@ public class DynamicOutputBuffer {
 		clear();
 	}
 	
+	/**
+	 * Sets the pool providing the internal buffers. Should be called
+	 * before anything is put into the buffer.
+	 * @param pool the pool
+	 * @since 2.9.1
+	 */
+	public void setBufferPool(BufferPool pool) {
+		_bufferPool = pool;
+	}
+	
+	/**
+	 * @return the pool providing the internal buffers
+	 * @since 2.9.1
+	 */
+	public BufferPool getBufferPool() {
+		return _bufferPool;
+	}
+	
+	/**
+	 * Changes the size of the internal buffers. This is only possible
+	 * as long as the buffer is empty (i.e. if nothing has been put into
+	 * it yet or if it has been cleared). Small sizes save memory if only
+	 * a few bytes will be written. Large sizes avoid spreading large
+	 * outputs across many internal buffers.
+	 * @param size the new size of each internal buffer
+	 * @throws IllegalStateException if the buffer is not empty
+	 * @since 2.9.1
+	 */
+	public void setBufferSize(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Buffer size must be larger than 0");
+		}
+		if (size == _bufferSize) {
+			return;
+		}
+		if (_size > 0 || !_buffers.isEmpty()) {
+			throw new IllegalStateException("Buffer size can only be " +
+					"changed as long as the buffer is empty");
+		}
+		if (_buffersToReuse != null) {
+			//saved buffers might be too small
+			while (!_buffersToReuse.isEmpty()) {
+				_bufferPool.releaseByteBuffer(_buffersToReuse.poll());
+			}
+		}
+		_bufferSize = size;
+	}
+	
+	/**
+	 * @return the size of each internal buffer
+	 * @since 2.9.1
+	 */
+	public int getBufferSize() {
+		return _bufferSize;
+	}
+	
+	/**
+	 * Specifies whether the internal buffers should be direct (off-heap)
+	 * buffers. Direct buffers can be written to NIO channels without
+	 * being copied first (see {@link #writeTo(WritableByteChannel)} and
+	 * {@link #flushTo(WritableByteChannel)}). Should be called before
+	 * anything is put into the buffer. Call {@link #clear()} to release
+	 * the buffers to the pool when they are not needed anymore.
+	 * @param direct true if direct buffers should be used
+	 * @since 2.9.1
+	 */
+	public void setDirect(boolean direct) {
+		_direct = direct;
+	}
+	
+	/**
+	 * @return true if the internal buffers are direct buffers
+	 * @since 2.9.1
+	 */
+	public boolean isDirect() {
+		return _direct;
+	}
+	
 	/**
 	 * Sets the number of buffers to save for reuse after they have been
 	 * invalidated by {@link #flushTo(OutputStream)} or {@link #flushTo(WritableByteChannel)}.
@@ -197,7 +298,7 @@ public class DynamicOutputBuffer {
 				_buffersToReuse = null;
 			} else {
 				while (_reuseBuffersCount < _buffersToReuse.size()) {
-					_buffersToReuse.poll();
+					_bufferPool.releaseByteBuffer(_buffersToReuse.poll());
 				}
 			}
 		}
@@ -211,29 +312,40 @@ public class DynamicOutputBuffer {
 		if (_buffersToReuse != null && !_buffersToReuse.isEmpty()) {
 			ByteBuffer bb = _buffersToReuse.poll();
 			bb.rewind();
-			bb.limit(bb.capacity());
+			bb.limit(_bufferSize);
 			return bb;
 		}
-		ByteBuffer r = StaticBuffers.getInstance().byteBuffer(BUFFER_KEY, _bufferSize);
+		ByteBuffer r;
+		if (_direct) {
+			r = _bufferPool.acquireDirectByteBuffer(_bufferSize);
+		} else {
+			r = _bufferPool.acquireByteBuffer(_bufferSize);
+		}
 		r.limit(_bufferSize);
 		return r.order(_order);
 	}
 	
 	/**
 	 * Removes a buffer from the list of internal buffers and saves it for
-	 * reuse if this feature is enabled. 
+	 * reuse if this feature is enabled. Otherwise the buffer will be
+	 * released to the buffer pool.
 	 * @param n the number of the buffer to remove
 	 */
 	protected void deallocateBuffer(int n) {
 		ByteBuffer bb = _buffers.set(n, null);
-		if (bb != null && _reuseBuffersCount > 0) {
+		if (bb == null) {
+			return;
+		}
+		if (_reuseBuffersCount > 0) {
 			if (_buffersToReuse == null) {
 				_buffersToReuse = new LinkedList<ByteBuffer>();
 			}
 			if (_reuseBuffersCount > _buffersToReuse.size()) {
 				_buffersToReuse.add(bb);
+				return;
 			}
 		}
+		_bufferPool.releaseByteBuffer(bb);
 	}
 	
 	/**
@@ -301,18 +413,28 @@ public class DynamicOutputBuffer {
 	}
 	
 	/**
-	 * Clear the buffer and reset size and write position
+	 * @return the number of bytes that have already been written to an
+	 * output stream or a channel by {@link #flushTo(OutputStream)} or
+	 * {@link #flushTo(WritableByteChannel)} and that are not held in
+	 * memory anymore
+	 * @since 2.9.1
+	 */
+	public int getFlushPosition() {
+		return _flushPosition;
+	}
+	
+	/**
+	 * Clear the buffer and reset size and write position. Releases
+	 * all internal buffers to the buffer pool.
 	 */
 	public void clear() {
-		//release a static buffer if possible
-		if (_buffersToReuse != null && !_buffersToReuse.isEmpty()) {
-			StaticBuffers.getInstance().releaseByteBuffer(BUFFER_KEY, _buffersToReuse.peek());
-		} else if (!_buffers.isEmpty()) {
-			StaticBuffers.getInstance().releaseByteBuffer(BUFFER_KEY, _buffers.get(0));
-		}
-		
 		if (_buffersToReuse != null) {
-			_buffersToReuse.clear();
+			while (!_buffersToReuse.isEmpty()) {
+				_bufferPool.releaseByteBuffer(_buffersToReuse.poll());
+			}
+		}
+		for (ByteBuffer bb : _buffers) {
+			_bufferPool.releaseByteBuffer(bb);
 		}
 		_buffers.clear();
 		_position = 0;
@@ -360,17 +482,49 @@ public class DynamicOutputBuffer {
 	 * @param bs an array of bytes to put
 	 */
 	public void putBytes(int pos, byte... bs) {
-		adaptSize(pos + bs.length);
-		ByteBuffer bb = null;
-		int i = _bufferSize;
-		for (byte b : bs) {
-			if (i == _bufferSize) {
-				bb = getBuffer(pos);
-				i = pos % _bufferSize;
+		putBytes(pos, bs, 0, bs.length);
+	}
+	
+	/**
+	 * Puts a range of bytes from the given array into the buffer at the
+	 * current write position and increases the write position accordingly.
+	 * The bytes are copied in bulk, segment by segment.
+	 * @param bs the array containing the bytes to put
+	 * @param offset the index of the first byte to put
+	 * @param len the number of bytes to put
+	 */
+	public void putBytes(byte[] bs, int offset, int len) {
+		putBytes(_position, bs, offset, len);
+		_position += len;
+	}
+	
+	/**
+	 * Puts a range of bytes from the given array into the buffer at the
+	 * given position. Does not increase the write position. The bytes are
+	 * copied in bulk, segment by segment.
+	 * @param pos the position where to put the bytes
+	 * @param bs the array containing the bytes to put
+	 * @param offset the index of the first byte to put
+	 * @param len the number of bytes to put
+	 */
+	public void putBytes(int pos, byte[] bs, int offset, int len) {
+		if (offset < 0 || len < 0 || offset > bs.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		adaptSize(pos + len);
+		while (len > 0) {
+			ByteBuffer bb = getBuffer(pos);
+			int i = pos % _bufferSize;
+			int n = Math.min(len, _bufferSize - i);
+			if (bb.hasArray()) {
+				System.arraycopy(bs, offset, bb.array(), bb.arrayOffset() + i, n);
+			} else {
+				bb.position(i);
+				bb.put(bs, offset, n);
 			}
-			bb.put(i, b);
-			++i;
-			++pos;
+			pos += n;
+			offset += n;
+			len -= n;
 		}
 	}
 	
@@ -520,6 +674,49 @@ public class DynamicOutputBuffer {
 		}
 	}
 	
+	/**
+	 * Puts the ASCII decimal representation of the given non-negative
+	 * integer into the buffer at the current write position and
+	 * increases the write position accordingly. This method does not
+	 * allocate any temporary objects.
+	 * @param i the integer to put (must not be negative)
+	 * @return the number of bytes put
+	 */
+	public int putDecimal(int i) {
+		int written = putDecimal(_position, i);
+		_position += written;
+		return written;
+	}
+	
+	/**
+	 * Puts the ASCII decimal representation of the given non-negative
+	 * integer into the buffer at the given position. This method does
+	 * not increase the write position and does not allocate any
+	 * temporary objects.
+	 * @param pos the position where to put the digits
+	 * @param i the integer to put (must not be negative)
+	 * @return the number of bytes put
+	 */
+	public int putDecimal(int pos, int i) {
+		if (i < 0) {
+			throw new IllegalArgumentException("Integer must not be negative");
+		}
+		
+		//count digits
+		int len = 1;
+		for (int j = i; j >= 10; j /= 10) {
+			++len;
+		}
+		
+		//write digits from right to left
+		adaptSize(pos + len);
+		for (int j = pos + len - 1; j >= pos; --j) {
+			putByte(j, (byte)('0' + i % 10));
+			i /= 10;
+		}
+		return len;
+	}
+	
 	/**
 	 * Encodes the given string as UTF-8, puts it into the buffer
 	 * and increases the write position accordingly.
@@ -535,17 +732,43 @@ public class DynamicOutputBuffer {
 	/**
 	 * Puts the given string as UTF-8 into the buffer at the
 	 * given position. This method does not increase the write position.
+	 * Leading ASCII characters are copied directly without allocating
+	 * any temporary objects. The rest of the string is encoded with a
+	 * {@link CharsetEncoder}.
 	 * @param pos the position where to put the string
 	 * @param s the string to put
 	 * @return the number of UTF-8 bytes put
 	 */
 	public int putUTF8(int pos, String s) {
+		int len = s.length();
+		int ascii = 0;
+		if (len > 0) {
+			ByteBuffer bb = getBuffer(pos);
+			int index = pos % _bufferSize;
+			while (ascii < len) {
+				char c = s.charAt(ascii);
+				if (c >= 0x80) {
+					break;
+				}
+				if (index == _bufferSize) {
+					bb = getBuffer(pos + ascii);
+					index = 0;
+				}
+				bb.put(index++, (byte)c);
+				++ascii;
+			}
+		}
+		if (ascii == len) {
+			adaptSize(pos + len);
+			return len;
+		}
+		
 		ByteBuffer minibb = null;
 		
 		CharsetEncoder enc = getUTF8Encoder();
-		CharBuffer in = CharBuffer.wrap(s);
+		CharBuffer in = CharBuffer.wrap(s, ascii, len);
 		
-		int pos2 = pos;
+		int pos2 = pos + ascii;
 		ByteBuffer bb = getBuffer(pos2);
 		int index = pos2 % _bufferSize;
 		bb.position(index);
@@ -601,8 +824,12 @@ public class DynamicOutputBuffer {
 	public void flushTo(OutputStream out) throws IOException {
 		int n1 = _flushPosition / _bufferSize;
 		int n2 = _position / _bufferSize;
-		if (n1 < n2) {
-			flushTo(Channels.newChannel(out));
+		WritableByteChannel channel = null;
+		while (n1 < n2) {
+			channel = writeSegment(_buffers.get(n1), _bufferSize, out, channel);
+			deallocateBuffer(n1);
+			_flushPosition += _bufferSize;
+			++n1;
 		}
 	}
 	
@@ -613,17 +840,27 @@ public class DynamicOutputBuffer {
 	 * the buffer the write position is currently pointing to nor does
 	 * it deallocate buffers following the write position. The method
 	 * increases an internal pointer so consecutive calls also copy
-	 * consecutive bytes.
+	 * consecutive bytes. If the channel is a {@link GatheringByteChannel}
+	 * all buffers will be written with as few calls as possible.
 	 * @param out the channel to write to
 	 * @throws IOException if the buffer could not be flushed
 	 */
 	public void flushTo(WritableByteChannel out) throws IOException {
 		int n1 = _flushPosition / _bufferSize;
 		int n2 = _position / _bufferSize;
-		while (n1 < n2) {
-			ByteBuffer bb = _buffers.get(n1);
+		if (n1 >= n2) {
+			return;
+		}
+		
+		ByteBuffer[] bbs = new ByteBuffer[n2 - n1];
+		for (int i = 0; i < bbs.length; ++i) {
+			ByteBuffer bb = _buffers.get(n1 + i);
 			bb.rewind();
-			out.write(bb);
+			bbs[i] = bb;
+		}
+		writeFully(out, bbs);
+		
+		while (n1 < n2) {
 			deallocateBuffer(n1);
 			_flushPosition += _bufferSize;
 			++n1;
@@ -638,13 +875,56 @@ public class DynamicOutputBuffer {
 	 * @throws IOException if the buffer could not be written
 	 */
 	public void writeTo(OutputStream out) throws IOException {
-		writeTo(Channels.newChannel(out));
+		int n1 = _flushPosition / _bufferSize;
+		int n2 = _buffers.size();
+		int toWrite = _size - _flushPosition;
+		WritableByteChannel channel = null;
+		while (n1 < n2 && toWrite > 0) {
+			int curWrite = Math.min(toWrite, _bufferSize);
+			channel = writeSegment(_buffers.get(n1), curWrite, out, channel);
+			++n1;
+			toWrite -= curWrite;
+		}
+	}
+	
+	/**
+	 * Writes the first bytes of an internal buffer to an output stream
+	 * and sets the buffer's limit to the number of bytes written (like
+	 * {@link #writeTo(WritableByteChannel)} does). Heap buffers are
+	 * written directly from their backing array. Other buffers are
+	 * written through a channel wrapping the output stream, which is
+	 * only created when it is needed for the first time.
+	 * @param bb the buffer to write
+	 * @param len the number of bytes to write
+	 * @param out the output stream to write to
+	 * @param channel a channel wrapping the output stream (may be null)
+	 * @return the channel wrapping the output stream (may be null if
+	 * it has not been created yet)
+	 * @throws IOException if the buffer could not be written
+	 */
+	private static WritableByteChannel writeSegment(ByteBuffer bb, int len,
+			OutputStream out, WritableByteChannel channel) throws IOException {
+		bb.position(len);
+		bb.flip();
+		if (bb.hasArray()) {
+			out.write(bb.array(), bb.arrayOffset(), len);
+			return channel;
+		}
+		if (channel == null) {
+			channel = Channels.newChannel(out);
+		}
+		while (bb.hasRemaining()) {
+			channel.write(bb);
+		}
+		return channel;
 	}
 	
 	/**
 	 * Writes all non-flushed internal buffers to the given channel.
 	 * If {@link #flushTo(WritableByteChannel)} has not been called
-	 * before, this method writes the whole buffer to the channel.
+	 * before, this method writes the whole buffer to the channel. If
+	 * the channel is a {@link GatheringByteChannel} all buffers will be
+	 * written with as few calls as possible.
 	 * @param out the channel to write to
 	 * @throws IOException if the buffer could not be written
 	 */
@@ -652,14 +932,126 @@ public class DynamicOutputBuffer {
 		int n1 = _flushPosition / _bufferSize;
 		int n2 = _buffers.size();
 		int toWrite = _size - _flushPosition;
-		while (n1 < n2) {
+		List<ByteBuffer> bbs = new ArrayList<ByteBuffer>(n2 - n1);
+		while (n1 < n2 && toWrite > 0) {
 			int curWrite = Math.min(toWrite, _bufferSize);
 			ByteBuffer bb = _buffers.get(n1);
 			bb.position(curWrite);
 			bb.flip();
-			out.write(bb);
+			bbs.add(bb);
 			++n1;
 			toWrite -= curWrite;
 		}
+		writeFully(out, bbs.toArray(new ByteBuffer[bbs.size()]));
+	}
+	
+	/**
+	 * Copies all non-flushed internal buffers into a new byte array
+	 * that has exactly the required size. In contrast to the
+	 * <code>writeTo</code> methods that write to output streams or
+	 * channels, this method does not modify the buffer, so more elements
+	 * can be put into it afterwards.
+	 * @return the new byte array
+	 * @since 2.9.1
+	 */
+	public byte[] toByteArray() {
+		byte[] r = new byte[_size - _flushPosition];
+		writeTo(r, 0);
+		return r;
+	}
+	
+	/**
+	 * Copies all non-flushed internal buffers into the given byte array.
+	 * Like {@link #toByteArray()}, this method does not modify the buffer.
+	 * @param dst the array to copy to
+	 * @param offset the position in the array where the first byte
+	 * will be written to
+	 * @return the number of bytes copied
+	 * @throws IndexOutOfBoundsException if the array is not large enough
+	 * @since 2.9.1
+	 */
+	public int writeTo(byte[] dst, int offset) {
+		int len = _size - _flushPosition;
+		if (offset < 0 || offset > dst.length - len) {
+			throw new IndexOutOfBoundsException("Array is too small. " +
+					"Required: " + len + " bytes at offset " + offset +
+					", available: " + (dst.length - offset));
+		}
+		int n = _flushPosition / _bufferSize;
+		int toWrite = len;
+		while (toWrite > 0) {
+			int curWrite = Math.min(toWrite, _bufferSize);
+			ByteBuffer bb = _buffers.get(n);
+			if (bb.hasArray()) {
+				System.arraycopy(bb.array(), bb.arrayOffset(), dst, offset, curWrite);
+			} else {
+				ByteBuffer src = bb.duplicate();
+				src.clear();
+				src.get(dst, offset, curWrite);
+			}
+			offset += curWrite;
+			toWrite -= curWrite;
+			++n;
+		}
+		return len;
+	}
+	
+	/**
+	 * Copies all non-flushed internal buffers into the given byte buffer
+	 * (starting at its current position) and advances the byte buffer's
+	 * position accordingly. Like {@link #toByteArray()}, this method does
+	 * not modify this buffer.
+	 * @param dst the byte buffer to copy to
+	 * @return the number of bytes copied
+	 * @throws BufferOverflowException if the byte buffer has not enough
+	 * remaining space. Nothing will be copied in this case.
+	 * @since 2.9.1
+	 */
+	public int writeTo(ByteBuffer dst) {
+		int len = _size - _flushPosition;
+		if (dst.remaining() < len) {
+			throw new BufferOverflowException();
+		}
+		int n = _flushPosition / _bufferSize;
+		int toWrite = len;
+		while (toWrite > 0) {
+			int curWrite = Math.min(toWrite, _bufferSize);
+			ByteBuffer src = _buffers.get(n).duplicate();
+			src.clear();
+			src.limit(curWrite);
+			dst.put(src);
+			toWrite -= curWrite;
+			++n;
+		}
+		return len;
+	}
+	
+	/**
+	 * Writes the remaining bytes of all given buffers to a channel. Uses
+	 * gathering writes if possible. Loops until all bytes have been
+	 * written, even if the channel is in non-blocking mode and accepts
+	 * only a part of them.
+	 * @param out the channel to write to
+	 * @param bbs the buffers to write
+	 * @throws IOException if the buffers could not be written
+	 */
+	private static void writeFully(WritableByteChannel out, ByteBuffer[] bbs)
+			throws IOException {
+		int i = 0;
+		if (out instanceof GatheringByteChannel) {
+			GatheringByteChannel gout = (GatheringByteChannel)out;
+			while (i < bbs.length) {
+				gout.write(bbs, i, bbs.length - i);
+				while (i < bbs.length && !bbs[i].hasRemaining()) {
+					++i;
+				}
+			}
+		} else {
+			for (; i < bbs.length; ++i) {
+				while (bbs[i].hasRemaining()) {
+					out.write(bbs[i]);
+				}
+			}
+		}
 	}
 }
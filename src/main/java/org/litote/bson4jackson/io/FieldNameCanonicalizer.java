@@ -0,0 +1,277 @@
+// Copyright 2010-2017 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+/**
+ * <p>A symbol table that maps the raw UTF-8 bytes of field names to
+ * canonical {@link String} instances. Field names that have been read
+ * before can be looked up by their bytes without decoding them and
+ * without creating new strings.</p>
+ * <p>The table is thread-safe and is meant to be shared between all
+ * parsers created by the same factory. Lookups do not acquire locks.
+ * Adding new field names is synchronized. The table stops accepting
+ * new names once it contains {@link #getMaxSize()} entries, so documents
+ * with arbitrary keys (e.g. maps keyed by IDs) cannot make it grow
+ * without bounds.</p>
+ * @see com.fasterxml.jackson.core.sym.ByteQuadsCanonicalizer
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class FieldNameCanonicalizer {
+	/**
+	 * The default maximum number of entries
+	 */
+	public static final int DEFAULT_MAX_SIZE = 1024 * 8;
+
+	/**
+	 * The initial number of hash buckets (must be a power of 2)
+	 */
+	protected static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * An entry in the table
+	 */
+	protected static final class Entry {
+		/**
+		 * The UTF-8 bytes of the field name
+		 */
+		final byte[] bytes;
+
+		/**
+		 * The hash code of {@link #bytes}
+		 */
+		final int hash;
+
+		/**
+		 * The canonical field name
+		 */
+		final String name;
+
+		/**
+		 * The next entry in the same bucket (may be null)
+		 */
+		final Entry next;
+
+		Entry(byte[] bytes, int hash, String name, Entry next) {
+			this.bytes = bytes;
+			this.hash = hash;
+			this.name = name;
+			this.next = next;
+		}
+
+		/**
+		 * Compares this entry's bytes with the given ones
+		 * @param buf the array containing the bytes to compare with
+		 * @param off the offset of the first byte
+		 * @param len the number of bytes to compare
+		 * @return true if the bytes are equal
+		 */
+		boolean matches(byte[] buf, int off, int len) {
+			if (bytes.length != len) {
+				return false;
+			}
+			for (int i = 0; i < len; ++i) {
+				if (bytes[i] != buf[off + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * True if field names should be interned using {@link String#intern()}
+	 * before they are added to the table
+	 */
+	protected final boolean _intern;
+
+	/**
+	 * The maximum number of entries
+	 */
+	protected final int _maxSize;
+
+	/**
+	 * The hash buckets. Will be replaced by a larger array when the
+	 * table grows. Entries are immutable, so readers never see
+	 * partially initialized entries.
+	 */
+	protected volatile Entry[] _buckets;
+
+	/**
+	 * The number of entries in the table
+	 */
+	protected int _size;
+
+	/**
+	 * Creates a new table that interns field names and that has
+	 * a maximum size of {@link #DEFAULT_MAX_SIZE}
+	 */
+	public FieldNameCanonicalizer() {
+		this(true);
+	}
+
+	/**
+	 * Creates a new table with a maximum size of {@link #DEFAULT_MAX_SIZE}
+	 * @param intern true if field names should be interned using
+	 * {@link String#intern()} before they are added to the table
+	 */
+	public FieldNameCanonicalizer(boolean intern) {
+		this(intern, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Creates a new table
+	 * @param intern true if field names should be interned using
+	 * {@link String#intern()} before they are added to the table
+	 * @param maxSize the maximum number of entries
+	 */
+	public FieldNameCanonicalizer(boolean intern, int maxSize) {
+		_intern = intern;
+		_maxSize = maxSize;
+		_buckets = new Entry[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * @return true if field names are interned before they are
+	 * added to the table
+	 */
+	public boolean isInterning() {
+		return _intern;
+	}
+
+	/**
+	 * @return the maximum number of entries
+	 */
+	public int getMaxSize() {
+		return _maxSize;
+	}
+
+	/**
+	 * @return the number of entries in the table
+	 */
+	public synchronized int size() {
+		return _size;
+	}
+
+	/**
+	 * Calculates the hash code of the given bytes
+	 * @param buf the array containing the bytes
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the hash code
+	 */
+	public static int hash(byte[] buf, int off, int len) {
+		int h = len;
+		int end = off + len;
+		for (int i = off; i < end; ++i) {
+			h = h * 31 + buf[i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Looks up a field name by its UTF-8 bytes
+	 * @param buf the array containing the bytes
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the canonical field name or null if the table
+	 * does not contain the field name
+	 */
+	public String lookup(byte[] buf, int off, int len) {
+		return lookup(buf, off, len, hash(buf, off, len));
+	}
+
+	/**
+	 * Looks up a field name by its UTF-8 bytes and their hash code
+	 * @param buf the array containing the bytes
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @param hash the hash code calculated by {@link #hash(byte[], int, int)}
+	 * @return the canonical field name or null if the table
+	 * does not contain the field name
+	 */
+	protected String lookup(byte[] buf, int off, int len, int hash) {
+		Entry[] buckets = _buckets;
+		Entry e = buckets[hash & (buckets.length - 1)];
+		while (e != null) {
+			if (e.hash == hash && e.matches(buf, off, len)) {
+				return e.name;
+			}
+			e = e.next;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a field name to the table if it does not already contain it
+	 * and if the table is not full
+	 * @param buf the array containing the field name's UTF-8 bytes
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @param name the decoded field name
+	 * @return the canonical field name
+	 */
+	public String add(byte[] buf, int off, int len, String name) {
+		int hash = hash(buf, off, len);
+		synchronized (this) {
+			String r = lookup(buf, off, len, hash);
+			if (r != null) {
+				return r;
+			}
+
+			if (_size >= _maxSize) {
+				//do not intern names that cannot be cached. otherwise
+				//arbitrary keys would fill the JVM's string table.
+				return name;
+			}
+			if (_intern) {
+				name = name.intern();
+			}
+
+			Entry[] buckets = _buckets;
+			if (_size >= buckets.length - (buckets.length >> 2)) {
+				buckets = rehash(buckets);
+			}
+
+			byte[] bytes = new byte[len];
+			System.arraycopy(buf, off, bytes, 0, len);
+			int i = hash & (buckets.length - 1);
+			buckets[i] = new Entry(bytes, hash, name, buckets[i]);
+			++_size;
+
+			//publish (new) array
+			_buckets = buckets;
+			return name;
+		}
+	}
+
+	/**
+	 * Creates a new bucket array that is twice as large as the given one
+	 * and copies all entries
+	 * @param buckets the current buckets
+	 * @return the new buckets
+	 */
+	private static Entry[] rehash(Entry[] buckets) {
+		Entry[] r = new Entry[buckets.length << 1];
+		for (Entry e : buckets) {
+			while (e != null) {
+				int i = e.hash & (r.length - 1);
+				r[i] = new Entry(e.bytes, e.hash, e.name, r[i]);
+				e = e.next;
+			}
+		}
+		return r;
+	}
+}
@@ -0,0 +1,435 @@
+// Copyright 2010-2017 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CharacterCodingException;
+
+/**
+ * <p>A {@link LittleEndianInputStream} that reads directly from a byte
+ * array or a {@link ByteBuffer} (heap or direct) instead of wrapping
+ * another input stream. Values are read by index from the source, so
+ * there is no intermediate copy and no chain of delegating streams.</p>
+ * <p>The stream keeps track of the number of bytes read or skipped
+ * (see {@link #getPosition()}), so it does not have to be wrapped by
+ * a {@link CountingInputStream}.</p>
+ * <p>This class is not thread-safe.</p>
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class LittleEndianByteBufferInputStream extends LittleEndianInputStream {
+	/**
+	 * The buffer to read from. This is a little-endian view of the
+	 * buffer passed to the constructor. Index 0 is the first byte to serve.
+	 */
+	protected ByteBuffer _bb;
+
+	/**
+	 * The current read position (relative to the first byte to serve)
+	 */
+	protected int _pos;
+
+	/**
+	 * The index one greater than the last byte to serve
+	 */
+	protected int _limit;
+
+	/**
+	 * The current marked position
+	 */
+	protected int _mark;
+
+	/**
+	 * Creates a new stream that serves the whole given array
+	 * @param buf the array to serve
+	 */
+	public LittleEndianByteBufferInputStream(byte[] buf) {
+		this(buf, 0, buf.length);
+	}
+
+	/**
+	 * Creates a new stream that serves part of the given array
+	 * @param buf the array to serve
+	 * @param off the index of the first byte to serve
+	 * @param len the number of bytes to serve
+	 */
+	public LittleEndianByteBufferInputStream(byte[] buf, int off, int len) {
+		this(ByteBuffer.wrap(buf, off, Math.min(len, buf.length - off)));
+	}
+
+	/**
+	 * Creates a new stream that serves the remaining bytes of the given
+	 * buffer (i.e. the bytes between its position and its limit). The
+	 * buffer's position, limit and byte order will not be modified.
+	 * @param buf the buffer to serve
+	 */
+	public LittleEndianByteBufferInputStream(ByteBuffer buf) {
+		super(null);
+		_bb = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+		_limit = _bb.limit();
+	}
+
+	/**
+	 * Replaces the array to read from and resets the read position. The
+	 * internal buffers and the UTF-8 decoder are kept, so they can be
+	 * reused for the new input.
+	 * @param buf the array to serve
+	 * @param off the index of the first byte to serve
+	 * @param len the number of bytes to serve
+	 * @since 2.9.1
+	 */
+	public void setBuffer(byte[] buf, int off, int len) {
+		setBuffer(ByteBuffer.wrap(buf, off, Math.min(len, buf.length - off)));
+	}
+
+	/**
+	 * Replaces the buffer to read from and resets the read position. The
+	 * stream will serve the remaining bytes of the given buffer. Its
+	 * position, limit and byte order will not be modified.
+	 * @param buf the buffer to serve
+	 * @since 2.9.1
+	 */
+	public void setBuffer(ByteBuffer buf) {
+		_bb = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+		_limit = _bb.limit();
+		_pos = 0;
+		_mark = 0;
+	}
+
+	/**
+	 * @return the number of bytes read or skipped
+	 */
+	public int getPosition() {
+		return _pos;
+	}
+
+	/**
+	 * Sets the current read position. This can be used to go back to
+	 * data that has already been read.
+	 * @param pos the new position (relative to the first byte to serve)
+	 * @throws IllegalArgumentException if the position is negative
+	 * or beyond the end of the buffer
+	 * @throws IOException if a subclass could not move to the new position
+	 */
+	public void setPosition(int pos) throws IOException {
+		if (pos < 0 || pos > _limit) {
+			throw new IllegalArgumentException("Invalid position: " + pos);
+		}
+		_pos = pos;
+	}
+
+	/**
+	 * Makes sure the given number of bytes can be read from the current
+	 * position. Subclasses may override this method to make more bytes
+	 * available.
+	 * @param n the number of bytes required
+	 * @throws IOException if there are not enough bytes left
+	 */
+	protected void ensureAvailable(int n) throws IOException {
+		if (_limit - _pos < n) {
+			throw new EOFException();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (_pos >= _limit) {
+			return -1;
+		}
+		return _bb.get(_pos++) & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		int avail = _limit - _pos;
+		if (avail <= 0) {
+			return -1;
+		}
+		int cnt = len < avail ? len : avail;
+		copy(_pos, b, off, cnt);
+		_pos += cnt;
+		return cnt;
+	}
+
+	/**
+	 * Copies bytes from the buffer to an array. Does not change the
+	 * current read position.
+	 * @param index the index of the first byte to copy
+	 * @param b the destination array
+	 * @param off the offset in the destination array
+	 * @param len the number of bytes to copy
+	 */
+	protected void copy(int index, byte[] b, int off, int len) {
+		if (_bb.hasArray()) {
+			System.arraycopy(_bb.array(), _bb.arrayOffset() + index, b, off, len);
+		} else {
+			_bb.position(index);
+			_bb.get(b, off, len);
+		}
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		int avail = _limit - _pos;
+		if (avail <= 0) {
+			return 0;
+		}
+		if (avail < n) {
+			n = avail;
+		}
+		_pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return _limit - _pos;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public void mark(int readlimit) {
+		_mark = _pos;
+	}
+
+	@Override
+	public void reset() throws IOException {
+		_pos = _mark;
+	}
+
+	@Override
+	public void close() throws IOException {
+		//nothing to do here
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		ensureAvailable(len);
+		copy(_pos, b, off, len);
+		_pos += len;
+	}
+
+	@Override
+	public int skipBytes(int n) throws IOException {
+		return (int)skip(n);
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		if (_pos >= _limit) {
+			ensureAvailable(1);
+		}
+		return _bb.get(_pos++);
+	}
+
+	@Override
+	public int readUnsignedByte() throws IOException {
+		return readByte() & 0xff;
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		ensureAvailable(2);
+		short r = _bb.getShort(_pos);
+		_pos += 2;
+		return r;
+	}
+
+	@Override
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xffff;
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		ensureAvailable(4);
+		int r = _bb.getInt(_pos);
+		_pos += 4;
+		return r;
+	}
+
+	@Override
+	public long readLong() throws IOException {
+		ensureAvailable(8);
+		long r = _bb.getLong(_pos);
+		_pos += 8;
+		return r;
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	@Override
+	public String readLine() throws IOException {
+		if (_pos >= _limit) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		while (_pos < _limit) {
+			int c = _bb.get(_pos++) & 0xff;
+			if (c == '\n') {
+				break;
+			} else if (c == '\r') {
+				if (_pos < _limit && _bb.get(_pos) == '\n') {
+					++_pos;
+				}
+				break;
+			}
+			sb.append((char)c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reads a modified UTF-8 string directly from the buffer
+	 * @param len the number of bytes to read (please do not mix that up
+	 * with the number of characters!). If this is -1 then the method
+	 * will read bytes until the first one is zero (0x00). The zero
+	 * byte will not be included in the result string.
+	 * @return the UTF-8 string
+	 * @throws IOException if an I/O error occurs
+	 * @throws CharacterCodingException if an invalid UTF-8 character
+	 * has been read
+	 */
+	@Override
+	public String readUTF(int len) throws IOException {
+		//make bytes available before remembering the start index
+		//because subclasses may move the read position
+		int start;
+		if (len < 0) {
+			int end = indexOfZero(_pos);
+			start = _pos;
+			len = end - start;
+			_pos = end + 1;
+		} else {
+			ensureAvailable(len);
+			start = _pos;
+			_pos += len;
+		}
+		return decodeUTF8(start, len);
+	}
+
+	/**
+	 * Searches the buffer for the next zero byte (i.e. for the end of
+	 * a null-terminated string). If {@link #ensureAvailable(int)} has to
+	 * be called, the current read position might change. The index
+	 * returned is always relative to the new read position.
+	 * @param start the index where to start searching (usually the
+	 * current read position)
+	 * @return the index of the zero byte
+	 * @throws IOException if the end of the buffer has been reached
+	 * before a zero byte could be found
+	 */
+	protected int indexOfZero(int start) throws IOException {
+		int i = start;
+		while (true) {
+			if (i >= _limit) {
+				int off = i - _pos;
+				ensureAvailable(off + 1);
+				i = _pos + off;
+			}
+			if (_bb.get(i) == 0) {
+				return i;
+			}
+			++i;
+		}
+	}
+
+	/**
+	 * Decodes UTF-8 encoded bytes from the buffer. Does not change the
+	 * current read position.
+	 * @param index the index of the first byte to decode
+	 * @param len the number of bytes to decode
+	 * @return the decoded string
+	 * @throws CharacterCodingException if an invalid UTF-8 character
+	 * has been read
+	 */
+	protected String decodeUTF8(int index, int len) throws CharacterCodingException {
+		if (_bb.hasArray()) {
+			return decodeUTF8(_bb.array(), _bb.arrayOffset() + index, len);
+		}
+		byte[] buf = _stringBuf;
+		if (buf == null || buf.length < len) {
+			buf = new byte[Math.max(64, len)];
+			_stringBuf = buf;
+		}
+		copy(index, buf, 0, len);
+		return decodeUTF8(buf, 0, len);
+	}
+
+	/**
+	 * Reads a null-terminated UTF-8 string and canonicalizes it using
+	 * the given symbol table. The string's bytes are looked up directly
+	 * in the buffer if it is backed by an array.
+	 * @param canonicalizer the symbol table
+	 * @return the canonical string
+	 * @throws IOException if an I/O error occurs
+	 * @throws CharacterCodingException if an invalid UTF-8 character
+	 * has been read
+	 */
+	@Override
+	public String readCString(FieldNameCanonicalizer canonicalizer) throws IOException {
+		int end = indexOfZero(_pos);
+		int start = _pos;
+		int len = end - start;
+		_pos = end + 1;
+		
+		byte[] buf;
+		int off;
+		if (_bb.hasArray()) {
+			buf = _bb.array();
+			off = _bb.arrayOffset() + start;
+		} else {
+			buf = _stringBuf;
+			if (buf == null || buf.length < len) {
+				buf = new byte[Math.max(64, len)];
+				_stringBuf = buf;
+			}
+			copy(start, buf, 0, len);
+			off = 0;
+		}
+		
+		String r = canonicalizer.lookup(buf, off, len);
+		if (r == null) {
+			r = canonicalizer.add(buf, off, len, decodeUTF8(buf, off, len));
+		}
+		return r;
+	}
+}
@@ -28,6 +28,7 @@ import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
+import java.util.Arrays;
 
 /**
  * Works like {@link DataInputStream} but reads values using
@@ -39,9 +40,18 @@ import java.nio.charset.CoderResult;
 public class LittleEndianInputStream extends FilterInputStream implements DataInput {
 	/**
 	 * A unique key for a buffer used in {@link #readUTF(DataInput, int)}
+	 * @deprecated strings are now decoded using buffers owned by the
+	 * stream instance. This constant is not used anymore.
 	 */
+	@Deprecated
 	protected static final StaticBuffers.Key UTF8_BUFFER = StaticBuffers.Key.BUFFER0;
 	
+	/**
+	 * The maximum size of the string buffers kept by {@link #trimBuffers()}
+	 * @since 2.9.1
+	 */
+	public static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 8;
+	
 	/**
 	 * A small buffer to speed up reading slightly
 	 */
@@ -57,15 +67,96 @@ public class LittleEndianInputStream extends FilterInputStream implements DataIn
 	 */
 	protected CharBuffer _lineBuffer;
 	
+	/**
+	 * A buffer for the raw bytes of strings read by
+	 * {@link #readUTF(DataInput, int)} and
+	 * {@link #readCString(FieldNameCanonicalizer)}. Will be created lazily.
+	 */
+	protected byte[] _stringBuf;
+	
+	/**
+	 * A buffer for strings that contain multi-byte UTF-8 sequences.
+	 * Will be created lazily by {@link #decodeUTF8(byte[], int, int)}.
+	 */
+	protected char[] _charBuf;
+	
+	/**
+	 * A UTF-8 decoder that will lazily be initialized by
+	 * {@link #getUTF8Decoder()}
+	 */
+	protected CharsetDecoder _utf8Decoder;
+	
+	/**
+	 * The buffered stream at the bottom of the streams this stream reads
+	 * from. Used to look for the end of null-terminated strings in bulk.
+	 * May be null.
+	 */
+	protected StaticBufferedInputStream _bufferedIn;
+	
 	/**
 	 * @see FilterInputStream#FilterInputStream(InputStream)
 	 */
 	public LittleEndianInputStream(InputStream in) {
+		this(in, null);
+	}
+	
+	/**
+	 * Creates a new stream that reads from the given input stream
+	 * @param in the input stream to read from
+	 * @param bufferedIn the buffered stream the given input stream
+	 * eventually reads from (may be null). All streams between
+	 * <code>in</code> and <code>bufferedIn</code> must forward the
+	 * bytes read without modifying or holding them back.
+	 * @since 2.9.1
+	 */
+	public LittleEndianInputStream(InputStream in, StaticBufferedInputStream bufferedIn) {
 		super(in);
+		_bufferedIn = bufferedIn;
 		_rawBuf = new byte[8];
 		_buf = ByteBuffer.wrap(_rawBuf).order(ByteOrder.LITTLE_ENDIAN);
 	}
 	
+	/**
+	 * Replaces the input stream to read from. The internal buffers and
+	 * the UTF-8 decoder are kept, so they can be reused for the new input.
+	 * The previous input stream will not be closed.
+	 * @param in the new input stream
+	 * @since 2.9.1
+	 */
+	public void setInputStream(InputStream in) {
+		setInputStream(in, null);
+	}
+	
+	/**
+	 * Replaces the input stream to read from. The internal buffers and
+	 * the UTF-8 decoder are kept, so they can be reused for the new input.
+	 * The previous input stream will not be closed.
+	 * @param in the new input stream
+	 * @param bufferedIn the buffered stream the new input stream
+	 * eventually reads from (may be null)
+	 * @see #LittleEndianInputStream(InputStream, StaticBufferedInputStream)
+	 * @since 2.9.1
+	 */
+	public void setInputStream(InputStream in, StaticBufferedInputStream bufferedIn) {
+		this.in = in;
+		_bufferedIn = bufferedIn;
+	}
+	
+	/**
+	 * Releases the string buffers if a long string made them larger
+	 * than {@link #MAX_RETAINED_BUFFER_SIZE}, so a reused stream does
+	 * not keep them for its whole lifetime
+	 * @since 2.9.1
+	 */
+	public void trimBuffers() {
+		if (_stringBuf != null && _stringBuf.length > MAX_RETAINED_BUFFER_SIZE) {
+			_stringBuf = null;
+		}
+		if (_charBuf != null && _charBuf.length > MAX_RETAINED_BUFFER_SIZE) {
+			_charBuf = null;
+		}
+	}
+	
 	@Override
 	public void readFully(byte[] b) throws IOException {
 		readFully(b, 0, b.length);
@@ -176,6 +267,8 @@ public class LittleEndianInputStream extends FilterInputStream implements DataIn
 				if (c2 != -1 && c2 != '\n') {
 					if (!(in instanceof PushbackInputStream)) {
 						in = new PushbackInputStream(in);
+						//the pushed back byte is not in the buffered stream
+						_bufferedIn = null;
 					}
 					((PushbackInputStream)in).unread(c2);
 				}
@@ -240,65 +333,171 @@ public class LittleEndianInputStream extends FilterInputStream implements DataIn
 	 * has been read
 	 */
 	public String readUTF(DataInput input, int len) throws IOException {
-		StaticBuffers staticBuffers = StaticBuffers.getInstance();
+		if (len < 0) {
+			len = readCStringBytes(input);
+		} else {
+			byte[] buf = _stringBuf;
+			if (buf == null || buf.length < len) {
+				buf = new byte[Math.max(64, len)];
+				_stringBuf = buf;
+			}
+			input.readFully(buf, 0, len);
+		}
+		return decodeUTF8(_stringBuf, 0, len);
+	}
+	
+	/**
+	 * Reads the bytes of a null-terminated string into {@link #_stringBuf}.
+	 * The zero byte will be consumed but not stored.
+	 * @param input the DataInput object to read from
+	 * @return the number of bytes stored
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected int readCStringBytes(DataInput input) throws IOException {
+		byte[] buf = _stringBuf;
+		if (buf == null) {
+			buf = new byte[64];
+			_stringBuf = buf;
+		}
 		
-		ByteBuffer utf8buf = staticBuffers.byteBuffer(UTF8_BUFFER, 1024 * 8);
-		byte[] rawUtf8Buf = utf8buf.array();
-
-		CharsetDecoder dec = Charset.forName("UTF-8").newDecoder();
-		int expectedLen = (len > 0 ? (int)(dec.averageCharsPerByte() * len) + 1 : 1024);
-		CharBuffer cb = staticBuffers.charBuffer(UTF8_BUFFER, expectedLen);
-		try {
-			while (len != 0 || utf8buf.position() > 0) {
-				//read as much as possible
-				if (len < 0) {
-					//read until the first zero byte
-					while (utf8buf.remaining() > 0) {
-						byte b = input.readByte();
-						if (b == 0) {
-							len = 0;
-							break;
-						}
-						utf8buf.put(b);
-					}
-					utf8buf.flip();
-				} else if (len > 0) {
-					int r = Math.min(len, utf8buf.remaining());
-					input.readFully(rawUtf8Buf, utf8buf.position(), r);
-					len -= r;
-					utf8buf.limit(utf8buf.position() + r);
-					utf8buf.rewind();
-				} else {
-					utf8buf.flip();
+		if (input == this && _bufferedIn != null) {
+			return readCStringBytesBuffered(buf);
+		}
+		
+		int len = 0;
+		while (true) {
+			int b;
+			if (input == this) {
+				b = read();
+				if (b < 0) {
+					throw new EOFException();
 				}
+			} else {
+				b = input.readByte();
+			}
+			if (b == 0) {
+				break;
+			}
+			if (len == buf.length) {
+				buf = Arrays.copyOf(buf, len << 1);
+				_stringBuf = buf;
+			}
+			buf[len++] = (byte)b;
+		}
+		return len;
+	}
 	
-				//decode byte buffer
-				CoderResult cr = dec.decode(utf8buf, cb, len == 0);
-				if (cr.isUnderflow()) {
-					//too few input bytes. move rest of the buffer
-					//to the beginning and then try again
-					utf8buf.compact();
-				} else if (cr.isOverflow()) {
-					//output buffer to small. enlarge buffer and try again
-					utf8buf.compact();
-					
-					//create a new char buffer with the same key
-					CharBuffer newBuf = staticBuffers.charBuffer(UTF8_BUFFER,
-							cb.capacity() + 1024);
-					
-					cb.flip();
-					newBuf.put(cb);
-					cb = newBuf;
-				} else if (cr.isError()) {
-					cr.throwException();
-				}
+	/**
+	 * Reads the bytes of a null-terminated string into {@link #_stringBuf}
+	 * by looking for the zero byte in the buffer of {@link #_bufferedIn}
+	 * and copying all bytes before it at once. The zero byte will be
+	 * consumed but not stored.
+	 * @param buf the current value of {@link #_stringBuf}
+	 * @return the number of bytes stored
+	 * @throws IOException if an I/O error occurs
+	 */
+	private int readCStringBytesBuffered(byte[] buf) throws IOException {
+		int len = 0;
+		while (true) {
+			int avail = _bufferedIn.buffered();
+			if (avail == 0) {
+				throw new EOFException();
+			}
+			int end = _bufferedIn.indexOf((byte)0);
+			int cnt = (end < 0 ? avail : end);
+			if (len + cnt > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(len + cnt, buf.length << 1));
+				_stringBuf = buf;
 			}
-		} finally {
-			staticBuffers.releaseCharBuffer(UTF8_BUFFER, cb);
-			staticBuffers.releaseByteBuffer(UTF8_BUFFER, utf8buf);
+			
+			//read through the other streams so they see every byte
+			readFully(buf, len, cnt);
+			len += cnt;
+			if (end >= 0) {
+				//consume zero byte
+				read();
+				return len;
+			}
+		}
+	}
+	
+	/**
+	 * Reads a null-terminated UTF-8 string and canonicalizes it using
+	 * the given symbol table. If the table already contains a string with
+	 * the same bytes, this string will be returned without decoding the
+	 * bytes again. Otherwise, the bytes will be decoded and the new string
+	 * will be added to the table.
+	 * @param canonicalizer the symbol table
+	 * @return the canonical string
+	 * @throws IOException if an I/O error occurs
+	 * @throws CharacterCodingException if an invalid UTF-8 character
+	 * has been read
+	 */
+	public String readCString(FieldNameCanonicalizer canonicalizer) throws IOException {
+		int len = readCStringBytes(this);
+		byte[] buf = _stringBuf;
+		String r = canonicalizer.lookup(buf, 0, len);
+		if (r == null) {
+			r = canonicalizer.add(buf, 0, len, decodeUTF8(buf, 0, len));
+		}
+		return r;
+	}
+	
+	/**
+	 * @return a lazily created UTF-8 decoder that reports malformed input
+	 */
+	protected CharsetDecoder getUTF8Decoder() {
+		if (_utf8Decoder == null) {
+			_utf8Decoder = Charset.forName("UTF-8").newDecoder();
+		}
+		return _utf8Decoder;
+	}
+	
+	/**
+	 * Decodes UTF-8 encoded bytes. Strings that only consist of ASCII
+	 * characters are created directly from the bytes. All other strings
+	 * are decoded with the stream's UTF-8 decoder into a reusable
+	 * char buffer.
+	 * @param buf the array containing the bytes
+	 * @param off the offset of the first byte to decode
+	 * @param len the number of bytes to decode
+	 * @return the decoded string
+	 * @throws CharacterCodingException if an invalid UTF-8 character
+	 * has been found
+	 */
+	@SuppressWarnings("deprecation")
+	protected String decodeUTF8(byte[] buf, int off, int len) throws CharacterCodingException {
+		if (len == 0) {
+			return "";
 		}
 		
-		cb.flip();
-		return cb.toString();
+		int end = off + len;
+		int i = off;
+		while (i < end && buf[i] >= 0) {
+			++i;
+		}
+		if (i == end) {
+			//ASCII only. every byte maps to exactly one char.
+			return new String(buf, 0, off, len);
+		}
+		
+		//UTF-8 never produces more chars than bytes
+		char[] cbuf = _charBuf;
+		if (cbuf == null || cbuf.length < len) {
+			cbuf = new char[Math.max(64, len)];
+			_charBuf = cbuf;
+		}
+		CharBuffer cb = CharBuffer.wrap(cbuf);
+		CharsetDecoder dec = getUTF8Decoder();
+		dec.reset();
+		CoderResult cr = dec.decode(ByteBuffer.wrap(buf, off, len), cb, true);
+		if (!cr.isUnderflow()) {
+			cr.throwException();
+		}
+		cr = dec.flush(cb);
+		if (!cr.isUnderflow()) {
+			cr.throwException();
+		}
+		return new String(cbuf, 0, cb.position());
 	}
 }
@@ -0,0 +1,257 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>A {@link LittleEndianByteBufferInputStream} that reads a file
+ * through {@link FileChannel#map(FileChannel.MapMode, long, long)}.
+ * Files larger than the maximum window size (2GB by default) are mapped
+ * window by window. A new window is mapped as soon as a value is read
+ * that does not fit into the current one, so values and documents
+ * spanning windows are handled transparently.</p>
+ * <p>Reading from a mapped file avoids copying its contents into
+ * user-space buffers and lets the operating system's page cache serve
+ * repeated scans of the same file. Mapped windows are released by the
+ * garbage collector.</p>
+ * <p>{@link #getPosition()} returns the file offset truncated to an
+ * integer. The value wraps around for files larger than 2GB but the
+ * difference between two positions remains valid as long as they are
+ * less than 2GB apart.</p>
+ * <p>This class is not thread-safe.</p>
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class MappedFileInputStream extends LittleEndianByteBufferInputStream {
+	/**
+	 * The default maximum number of bytes mapped at once
+	 */
+	public static final int DEFAULT_MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+	
+	/**
+	 * The channel to map
+	 */
+	protected final FileChannel _channel;
+	
+	/**
+	 * The size of the file
+	 */
+	protected final long _fileSize;
+	
+	/**
+	 * The maximum number of bytes to map at once
+	 */
+	protected final int _maxWindowSize;
+	
+	/**
+	 * The file offset of the first byte of the current window
+	 */
+	protected long _windowStart;
+	
+	/**
+	 * The file offset of the current marked position
+	 */
+	protected long _markOffset;
+	
+	/**
+	 * Creates a new stream that maps the given channel starting at its
+	 * current position
+	 * @param channel the channel to map
+	 * @throws IOException if the channel could not be mapped
+	 */
+	public MappedFileInputStream(FileChannel channel) throws IOException {
+		this(channel, DEFAULT_MAX_WINDOW_SIZE);
+	}
+	
+	/**
+	 * Creates a new stream that maps the given channel starting at its
+	 * current position
+	 * @param channel the channel to map
+	 * @param maxWindowSize the maximum number of bytes to map at once.
+	 * Windows may be larger if a single value does not fit into them.
+	 * @throws IOException if the channel could not be mapped
+	 */
+	public MappedFileInputStream(FileChannel channel, int maxWindowSize)
+			throws IOException {
+		super(ByteBuffer.allocate(0));
+		if (maxWindowSize <= 0) {
+			throw new IllegalArgumentException("Window size must be positive");
+		}
+		_channel = channel;
+		_fileSize = channel.size();
+		_maxWindowSize = maxWindowSize;
+		map(channel.position(), 0);
+		_markOffset = _windowStart;
+	}
+	
+	/**
+	 * Maps a new window
+	 * @param offset the file offset of the window's first byte
+	 * @param minSize the minimum number of bytes to map
+	 * @throws IOException if the window could not be mapped
+	 */
+	protected void map(long offset, int minSize) throws IOException {
+		long size = Math.min(Math.max(_maxWindowSize, minSize), _fileSize - offset);
+		if (size <= 0) {
+			_bb = ByteBuffer.allocate(0);
+			size = 0;
+		} else {
+			_bb = _channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+		}
+		_bb.order(ByteOrder.LITTLE_ENDIAN);
+		_windowStart = offset;
+		_pos = 0;
+		_limit = (int)size;
+	}
+	
+	/**
+	 * @return the file offset of the current read position
+	 */
+	public long getOffset() {
+		return _windowStart + _pos;
+	}
+	
+	/**
+	 * Moves the read position to the given file offset. Maps a new
+	 * window if the offset is outside the current one.
+	 * @param offset the file offset
+	 * @throws IOException if a new window could not be mapped
+	 */
+	protected void moveTo(long offset) throws IOException {
+		if (offset >= _windowStart && offset - _windowStart <= _limit) {
+			_pos = (int)(offset - _windowStart);
+		} else {
+			map(offset, 0);
+		}
+	}
+	
+	/**
+	 * Maps the next window if the current one has been read completely
+	 * @return true if there are bytes left to read
+	 * @throws IOException if the next window could not be mapped
+	 */
+	protected boolean fill() throws IOException {
+		if (_pos < _limit) {
+			return true;
+		}
+		long offset = getOffset();
+		if (offset >= _fileSize) {
+			return false;
+		}
+		map(offset, 0);
+		return true;
+	}
+	
+	@Override
+	public int getPosition() {
+		return (int)getOffset();
+	}
+	
+	@Override
+	public void setPosition(int pos) throws IOException {
+		long offset = getOffset() + (pos - getPosition());
+		if (offset < 0 || offset > _fileSize) {
+			throw new IllegalArgumentException("Invalid position: " + pos);
+		}
+		moveTo(offset);
+	}
+	
+	@Override
+	protected void ensureAvailable(int n) throws IOException {
+		if (_limit - _pos >= n) {
+			return;
+		}
+		long offset = getOffset();
+		if (_fileSize - offset < n) {
+			throw new EOFException();
+		}
+		map(offset, n);
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return super.read();
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		return super.read(b, off, len);
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		long offset = getOffset();
+		n = Math.min(n, _fileSize - offset);
+		moveTo(offset + n);
+		return n;
+	}
+	
+	@Override
+	public int available() {
+		return (int)Math.min(Integer.MAX_VALUE, _fileSize - getOffset());
+	}
+	
+	@Override
+	public void mark(int readlimit) {
+		_markOffset = getOffset();
+	}
+	
+	@Override
+	public void reset() throws IOException {
+		moveTo(_markOffset);
+	}
+	
+	@Override
+	public String readLine() throws IOException {
+		int c = read();
+		if (c < 0) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		while (c >= 0 && c != '\n') {
+			if (c == '\r') {
+				if (fill() && _bb.get(_pos) == '\n') {
+					++_pos;
+				}
+				break;
+			}
+			sb.append((char)c);
+			c = read();
+		}
+		return sb.toString();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+}
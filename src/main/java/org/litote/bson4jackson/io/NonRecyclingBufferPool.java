@@ -0,0 +1,38 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer pool that does not keep any buffers. A new buffer will
+ * be allocated every time one is acquired. Useful if buffers should
+ * be left to the garbage collector, for example if there are many
+ * short-lived threads. Note that the memory of direct buffers will only
+ * be freed once they have been garbage collected.
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class NonRecyclingBufferPool extends AbstractBufferPool {
+	@Override
+	protected ByteBuffer poll(int minSize, boolean direct) {
+		return null;
+	}
+	
+	@Override
+	protected void offer(ByteBuffer buf) {
+		//discard buffer
+	}
+}
@@ -0,0 +1,128 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A buffer pool that is shared between all threads. The pool is lock-free
+ * and keeps a bounded number of buffers, so memory consumption does not
+ * depend on the number of threads. Buffers are kept in one queue per
+ * power-of-two size class, so a request for a large buffer does not
+ * discard smaller ones.
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class SharedBufferPool extends AbstractBufferPool {
+	/**
+	 * The default maximum number of buffers to keep
+	 */
+	public static final int DEFAULT_MAX_BUFFERS = 16;
+	
+	/**
+	 * The maximum number of buffers to keep
+	 */
+	protected final int _maxBuffers;
+	
+	/**
+	 * The number of size classes. The buffers in class {@code i} have a
+	 * capacity of at least {@code 2^i} bytes.
+	 */
+	private static final int SIZE_CLASSES = 32;
+	
+	/**
+	 * The pooled heap buffers per size class
+	 */
+	protected final Queue<ByteBuffer>[] _buffers = newQueues();
+	
+	/**
+	 * The pooled direct buffers per size class
+	 */
+	protected final Queue<ByteBuffer>[] _directBuffers = newQueues();
+	
+	/**
+	 * The number of buffers in {@link #_buffers} and {@link #_directBuffers}
+	 * (tracked separately since {@link ConcurrentLinkedQueue#size()} is
+	 * not a constant-time operation)
+	 */
+	protected final AtomicInteger _size = new AtomicInteger();
+	
+	/**
+	 * Creates a pool that keeps at most {@link #DEFAULT_MAX_BUFFERS} buffers
+	 */
+	public SharedBufferPool() {
+		this(DEFAULT_MAX_BUFFERS);
+	}
+	
+	/**
+	 * Creates a pool that keeps a given maximum number of buffers
+	 * @param maxBuffers the maximum number of buffers to keep
+	 */
+	public SharedBufferPool(int maxBuffers) {
+		if (maxBuffers < 0) {
+			throw new IllegalArgumentException("Maximum number of buffers must not be negative");
+		}
+		_maxBuffers = maxBuffers;
+	}
+	
+	/**
+	 * @return an array of empty queues, one for each size class
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Queue<ByteBuffer>[] newQueues() {
+		Queue<ByteBuffer>[] r = new Queue[SIZE_CLASSES];
+		for (int i = 0; i < r.length; ++i) {
+			r[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+		}
+		return r;
+	}
+	
+	@Override
+	protected ByteBuffer poll(int minSize, boolean direct) {
+		Queue<ByteBuffer>[] queues = (direct ? _directBuffers : _buffers);
+		//start with the smallest class whose buffers are all large enough
+		int c = minSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(minSize - 1);
+		for (; c < queues.length; ++c) {
+			ByteBuffer r = queues[c].poll();
+			if (r != null) {
+				_size.decrementAndGet();
+				return r;
+			}
+		}
+		return null;
+	}
+	
+	@Override
+	protected void offer(ByteBuffer buf) {
+		if (_size.incrementAndGet() > _maxBuffers) {
+			//pool is full
+			_size.decrementAndGet();
+			return;
+		}
+		//put buffer into the largest class it is large enough for
+		int c = 31 - Integer.numberOfLeadingZeros(Math.max(buf.capacity(), 1));
+		(buf.isDirect() ? _directBuffers : _buffers)[c].offer(buf);
+	}
+	
+	/**
+	 * @return the number of buffers currently kept in the pool
+	 */
+	public int size() {
+		return _size.get();
+	}
+}
@@ -0,0 +1,183 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.litote.bson4jackson.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A thread-safe histogram of sizes (e.g. of serialized documents).
+ * Sizes are counted in buckets whose upper bounds are powers of two.
+ * Bucket <code>i</code> counts all sizes in the range
+ * <code>(2^(i-1), 2^i]</code>. Bucket 0 counts sizes of 0 and 1
+ * bytes.</p>
+ * <p>Recording a size is cheap and does not allocate memory, so a
+ * histogram can be updated for every document written. Generators use
+ * it to choose the size of their internal buffers (see
+ * {@link org.litote.bson4jackson.BsonGenerator#setSizeHistogram(SizeHistogram)}).</p>
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class SizeHistogram {
+	/**
+	 * The number of buckets
+	 */
+	public static final int BUCKET_COUNT = 32;
+	
+	/**
+	 * The number of sizes recorded per bucket
+	 */
+	private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_COUNT);
+	
+	/**
+	 * The number of sizes recorded
+	 */
+	private final AtomicLong _count = new AtomicLong();
+	
+	/**
+	 * The sum of all sizes recorded
+	 */
+	private final AtomicLong _total = new AtomicLong();
+	
+	/**
+	 * Gets the number of the bucket counting the given size
+	 * @param size the size
+	 * @return the bucket number
+	 */
+	public static int getBucket(int size) {
+		if (size <= 1) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+	
+	/**
+	 * Gets the largest size counted by the given bucket
+	 * @param bucket the bucket number
+	 * @return the bucket's upper bound
+	 */
+	public static long getBucketUpperBound(int bucket) {
+		return 1L << bucket;
+	}
+	
+	/**
+	 * Records a size
+	 * @param size the size
+	 */
+	public void record(int size) {
+		_buckets.incrementAndGet(getBucket(size));
+		_count.incrementAndGet();
+		_total.addAndGet(size);
+	}
+	
+	/**
+	 * @return the number of sizes recorded
+	 */
+	public long getCount() {
+		return _count.get();
+	}
+	
+	/**
+	 * @return the average of all sizes recorded (0 if no size has
+	 * been recorded yet)
+	 */
+	public double getMean() {
+		long count = _count.get();
+		if (count == 0) {
+			return 0;
+		}
+		return (double)_total.get() / count;
+	}
+	
+	/**
+	 * Gets the number of sizes recorded in the given bucket
+	 * @param bucket the bucket number
+	 * @return the number of sizes
+	 */
+	public long getBucketCount(int bucket) {
+		return _buckets.get(bucket);
+	}
+	
+	/**
+	 * @return a copy of the number of sizes recorded per bucket
+	 */
+	public long[] getBucketCounts() {
+		long[] r = new long[BUCKET_COUNT];
+		for (int i = 0; i < r.length; ++i) {
+			r[i] = _buckets.get(i);
+		}
+		return r;
+	}
+	
+	/**
+	 * Estimates the given percentile of all sizes recorded
+	 * @param p the percentile (between 0 and 1, e.g. 0.9 for the
+	 * 90th percentile)
+	 * @return the upper bound of the bucket containing the percentile
+	 * or 0 if no size has been recorded yet
+	 */
+	public long getPercentile(double p) {
+		long[] counts = getBucketCounts();
+		long count = 0;
+		for (long c : counts) {
+			count += c;
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long)Math.ceil(p * count);
+		long n = 0;
+		for (int i = 0; i < counts.length; ++i) {
+			n += counts[i];
+			if (n >= rank && counts[i] > 0) {
+				return getBucketUpperBound(i);
+			}
+		}
+		return getBucketUpperBound(counts.length - 1);
+	}
+	
+	/**
+	 * Removes all recorded sizes
+	 */
+	public void clear() {
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			_buckets.set(i, 0);
+		}
+		_count.set(0);
+		_total.set(0);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("count=").append(getCount());
+		sb.append(", mean=").append(Math.round(getMean()));
+		sb.append(", buckets={");
+		boolean first = true;
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			long c = _buckets.get(i);
+			if (c > 0) {
+				if (!first) {
+					sb.append(", ");
+				}
+				sb.append("<=").append(getBucketUpperBound(i)).append(": ").append(c);
+				first = false;
+			}
+		}
+		sb.append("}");
+		return sb.toString();
+	}
+}
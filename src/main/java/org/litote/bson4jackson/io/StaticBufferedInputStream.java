@@ -20,30 +20,32 @@ import java.nio.ByteBuffer;
 
 /**
  * Works like {@link java.io.BufferedInputStream}, but is not thread-safe and
- * also uses a a re-usable static buffer provided by {@link StaticBuffers} to
+ * also uses a a re-usable buffer provided by a {@link BufferPool} to
  * achieve better performance
  * @author Michel Kraemer
  */
 public class StaticBufferedInputStream extends InputStream {
 	/**
 	 * A unique key for the re-usable buffer
+	 * @deprecated The buffer is now acquired from a {@link BufferPool}
 	 */
+	@Deprecated
 	protected static final StaticBuffers.Key BUFFER_KEY = StaticBuffers.Key.BUFFER1;
 	
 	/**
 	 * Provides re-usable buffers
 	 */
-	protected final StaticBuffers _staticBuffers;
+	protected final BufferPool _bufferPool;
 	
 	/**
 	 * A re-usable buffer
 	 */
-	protected final ByteBuffer _byteBuffer;
+	protected ByteBuffer _byteBuffer;
 	
 	/**
 	 * The raw re-usable buffer
 	 */
-	protected final byte[] _raw;
+	protected byte[] _raw;
 	
 	/**
 	 * The original unbuffered input stream
@@ -65,6 +67,11 @@ public class StaticBufferedInputStream extends InputStream {
 	 */
 	protected int _mark = -1;
 	
+	/**
+	 * True if the stream has been closed and the buffer has been released
+	 */
+	protected boolean _closed;
+	
 	/**
 	 * Creates a new buffered input stream
 	 * @param in the original unbuffered input stream
@@ -79,15 +86,34 @@ public class StaticBufferedInputStream extends InputStream {
 	 * @param size the minimum buffer size
 	 */
 	public StaticBufferedInputStream(InputStream in, int size) {
+		this(in, size, ThreadLocalBufferPool.getInstance());
+	}
+	
+	/**
+	 * Creates a new buffered input stream
+	 * @param in the original unbuffered input stream
+	 * @param size the minimum buffer size
+	 * @param pool the pool providing the buffer. The buffer will be
+	 * released when the stream is closed.
+	 * @since 2.9.1
+	 */
+	public StaticBufferedInputStream(InputStream in, int size, BufferPool pool) {
 		_in = in;
-		_staticBuffers = StaticBuffers.getInstance();
-		_byteBuffer = _staticBuffers.byteBuffer(BUFFER_KEY, size);
+		_bufferPool = pool;
+		_byteBuffer = pool.acquireByteBuffer(size);
 		_raw = _byteBuffer.array();
 	}
 	
+	/**
+	 * Releases the buffer back to the pool. Does not close the
+	 * original input stream.
+	 */
 	@Override
 	public void close() throws IOException {
-		_staticBuffers.releaseByteBuffer(BUFFER_KEY, _byteBuffer);
+		if (!_closed) {
+			_closed = true;
+			_bufferPool.releaseByteBuffer(_byteBuffer);
+		}
 		super.close();
 	}
 	
@@ -170,13 +196,68 @@ public class StaticBufferedInputStream extends InputStream {
 		return cnt;
 	}
 	
+	/**
+	 * Returns the number of bytes that can be read from the buffer without
+	 * blocking. Fills the buffer first if it is empty.
+	 * @return the number of buffered bytes or 0 if the end of the stream
+	 * has been reached
+	 * @throws IOException if the buffer could not be filled
+	 * @since 2.9.1
+	 */
+	public int buffered() throws IOException {
+		if (_pos >= _count) {
+			fill();
+			if (_pos >= _count) {
+				return 0;
+			}
+		}
+		return _count - _pos;
+	}
+	
+	/**
+	 * Looks for the given byte in the buffered bytes without consuming
+	 * anything and without filling the buffer
+	 * @param b the byte to look for
+	 * @return the number of buffered bytes before the first occurrence of
+	 * the given byte or -1 if the buffer does not contain it
+	 * @see #buffered()
+	 * @since 2.9.1
+	 */
+	public int indexOf(byte b) {
+		byte[] raw = _raw;
+		for (int i = _pos; i < _count; ++i) {
+			if (raw[i] == b) {
+				return i - _pos;
+			}
+		}
+		return -1;
+	}
+	
 	@Override
 	public boolean markSupported() {
 		return true;
 	}
 	
+	/**
+	 * Marks the current position. Replaces the buffer with a larger one
+	 * from the pool if necessary to keep at least the given number of
+	 * bytes valid.
+	 * @param marklimit the maximum number of bytes that can be read
+	 * before the mark becomes invalid
+	 */
 	@Override
 	public void mark(int marklimit) {
+		if (marklimit > _raw.length && !_closed) {
+			int avail = Math.max(_count - _pos, 0);
+			ByteBuffer bb = _bufferPool.acquireByteBuffer(Math.max(marklimit, avail));
+			byte[] raw = bb.array();
+			System.arraycopy(_raw, _pos, raw, 0, avail);
+			_bufferPool.releaseByteBuffer(_byteBuffer);
+			_byteBuffer = bb;
+			_raw = raw;
+			_pos = 0;
+			_count = avail;
+		}
 		_mark = _pos;
 	}
 	
@@ -22,7 +22,8 @@ import java.nio.CharBuffer;
  * Keeps thread-local re-usable buffers. Each buffer is identified by a key.
  * This class is a singleton, whereas the reference to the instance is hold
  * in a {@link SoftReference} so buffers can be freed when they are not needed
- * anymore.
+ * anymore. Parsers and generators do not use this class anymore. They
+ * acquire their buffers from a {@link BufferPool} instead.
  * @see com.fasterxml.jackson.core.util.BufferRecycler
  * @author Michel Kraemer
  */
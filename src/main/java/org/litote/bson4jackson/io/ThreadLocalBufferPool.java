@@ -0,0 +1,144 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * A buffer pool that keeps a small number of buffers per thread. The
+ * buffers are held in a {@link SoftReference} so they can be freed
+ * when memory is low. This pool does not require any synchronization
+ * but its memory consumption grows with the number of threads. This is
+ * the default pool (see {@link #getInstance()}).
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class ThreadLocalBufferPool extends AbstractBufferPool {
+	/**
+	 * The default maximum number of buffers to keep per thread. Heap
+	 * and direct buffers are counted separately.
+	 */
+	public static final int DEFAULT_MAX_BUFFERS_PER_THREAD = 4;
+	
+	/**
+	 * The instance used by default
+	 */
+	private static final ThreadLocalBufferPool INSTANCE = new ThreadLocalBufferPool();
+	
+	/**
+	 * The maximum number of buffers to keep per thread. Heap and
+	 * direct buffers are counted separately.
+	 */
+	protected final int _maxBuffersPerThread;
+	
+	/**
+	 * The buffers of each thread
+	 */
+	protected final ThreadLocal<SoftReference<Buffers>> _buffers =
+			new ThreadLocal<SoftReference<Buffers>>();
+	
+	/**
+	 * The buffers of a single thread
+	 */
+	protected static class Buffers {
+		/**
+		 * Heap buffers
+		 */
+		final Deque<ByteBuffer> heap = new ArrayDeque<ByteBuffer>();
+		
+		/**
+		 * Direct buffers
+		 */
+		final Deque<ByteBuffer> direct = new ArrayDeque<ByteBuffer>();
+	}
+	
+	/**
+	 * Creates a pool that keeps at most {@link #DEFAULT_MAX_BUFFERS_PER_THREAD}
+	 * buffers per thread
+	 */
+	public ThreadLocalBufferPool() {
+		this(DEFAULT_MAX_BUFFERS_PER_THREAD);
+	}
+	
+	/**
+	 * Creates a pool that keeps a given maximum number of buffers per thread
+	 * @param maxBuffersPerThread the maximum number of buffers to keep
+	 * per thread
+	 */
+	public ThreadLocalBufferPool(int maxBuffersPerThread) {
+		if (maxBuffersPerThread < 0) {
+			throw new IllegalArgumentException("Maximum number of buffers must not be negative");
+		}
+		_maxBuffersPerThread = maxBuffersPerThread;
+	}
+	
+	/**
+	 * @return the pool used by default if no other one has been configured
+	 */
+	public static ThreadLocalBufferPool getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * @param create true if the current thread's buffers should be
+	 * created if they do not exist yet
+	 * @return the buffers of the current thread (may be null if
+	 * <code>create</code> is false)
+	 */
+	private Buffers getBuffers(boolean create) {
+		SoftReference<Buffers> ref = _buffers.get();
+		Buffers r = (ref == null ? null : ref.get());
+		if (r == null && create) {
+			r = new Buffers();
+			_buffers.set(new SoftReference<Buffers>(r));
+		}
+		return r;
+	}
+	
+	@Override
+	protected ByteBuffer poll(int minSize, boolean direct) {
+		Buffers buffers = getBuffers(false);
+		if (buffers == null) {
+			return null;
+		}
+		//take the most recently released buffer that is large enough
+		Deque<ByteBuffer> d = (direct ? buffers.direct : buffers.heap);
+		Iterator<ByteBuffer> it = d.descendingIterator();
+		while (it.hasNext()) {
+			ByteBuffer r = it.next();
+			if (r.capacity() >= minSize) {
+				it.remove();
+				return r;
+			}
+		}
+		//all buffers are too small. discard the oldest one to make
+		//room for a larger buffer.
+		d.pollFirst();
+		return null;
+	}
+	
+	@Override
+	protected void offer(ByteBuffer buf) {
+		Buffers buffers = getBuffers(true);
+		Deque<ByteBuffer> d = (buf.isDirect() ? buffers.direct : buffers.heap);
+		if (d.size() < _maxBuffersPerThread) {
+			d.addLast(buf);
+		}
+	}
+}
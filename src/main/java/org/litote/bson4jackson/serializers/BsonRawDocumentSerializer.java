@@ -0,0 +1,61 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.serializers;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import org.litote.bson4jackson.BsonFactory;
+import org.litote.bson4jackson.BsonGenerator;
+import org.litote.bson4jackson.BsonParser;
+import org.litote.bson4jackson.types.RawBsonDocument;
+
+/**
+ * Serializer for raw BSON documents. Copies the document's bytes in
+ * bulk if the generator is a {@link BsonGenerator}. Otherwise, decodes
+ * the document and writes its elements.
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class BsonRawDocumentSerializer extends JsonSerializer<RawBsonDocument> {
+	/**
+	 * The factory used to decode documents for other generators
+	 */
+	private static final BsonFactory FACTORY = new BsonFactory();
+	
+	@Override
+	public void serialize(RawBsonDocument value, JsonGenerator gen,
+			SerializerProvider provider) throws IOException {
+		if (value == null) {
+			provider.defaultSerializeNull(gen);
+		} else if (gen instanceof BsonGenerator) {
+			BsonGenerator bgen = (BsonGenerator)gen;
+			bgen.writeRawDocument(value);
+		} else {
+			BsonParser p = FACTORY.createParser(value.getByteArray(),
+					value.getOffset(), value.getLength());
+			try {
+				p.setCodec(gen.getCodec());
+				p.nextToken();
+				gen.copyCurrentStructure(p);
+			} finally {
+				p.close();
+			}
+		}
+	}
+}
@@ -23,6 +23,7 @@ import com.fasterxml.jackson.databind.module.SimpleSerializers;
 
 import org.litote.bson4jackson.types.JavaScript;
 import org.litote.bson4jackson.types.ObjectId;
+import org.litote.bson4jackson.types.RawBsonDocument;
 import org.litote.bson4jackson.types.Symbol;
 import org.litote.bson4jackson.types.Timestamp;
 
@@ -44,6 +45,7 @@ public class BsonSerializers extends SimpleSerializers {
 		addSerializer(JavaScript.class, new BsonJavaScriptSerializer());
 		addSerializer(ObjectId.class, new BsonObjectIdSerializer());
 		addSerializer(Pattern.class, new BsonRegexSerializer());
+		addSerializer(RawBsonDocument.class, new BsonRawDocumentSerializer());
 		addSerializer(Symbol.class, new BsonSymbolSerializer());
 		addSerializer(Timestamp.class, new BsonTimestampSerializer());
 		addSerializer(UUID.class, new BsonUuidSerializer());
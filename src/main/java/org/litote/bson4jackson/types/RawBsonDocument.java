@@ -0,0 +1,153 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.types;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>A BSON document that is kept in its encoded form. Raw documents can
+ * be read and written without decoding and encoding their elements,
+ * which is useful if documents just have to be passed through.</p>
+ * <p>If {@link org.litote.bson4jackson.BsonModule} is registered, raw
+ * documents will be read directly from a
+ * {@link org.litote.bson4jackson.BsonParser} using the length declared
+ * in the document's header and they will be copied in bulk to a
+ * {@link org.litote.bson4jackson.BsonGenerator}.</p>
+ * <p>The byte array passed to the constructor is not copied. It must
+ * not be modified afterwards.</p>
+ * @author Michel Kraemer
+ * @since 2.9.1
+ */
+public class RawBsonDocument {
+	/**
+	 * The array containing the document
+	 */
+	protected final byte[] _bytes;
+	
+	/**
+	 * The offset of the document in {@link #_bytes}
+	 */
+	protected final int _offset;
+	
+	/**
+	 * The length of the document
+	 */
+	protected final int _length;
+	
+	/**
+	 * Creates a new raw document
+	 * @param bytes the encoded document
+	 * @throws IllegalArgumentException if the array does not contain
+	 * a valid document
+	 */
+	public RawBsonDocument(byte[] bytes) {
+		this(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Creates a new raw document
+	 * @param bytes the array containing the encoded document
+	 * @param offset the offset of the document in the array
+	 * @param length the length of the document
+	 * @throws IllegalArgumentException if the array does not contain
+	 * a valid document at the given offset
+	 */
+	public RawBsonDocument(byte[] bytes, int offset, int length) {
+		if (offset < 0 || length < 5 || offset + length > bytes.length) {
+			throw new IllegalArgumentException("Invalid document bounds");
+		}
+		int declaredLength = (bytes[offset] & 0xFF) |
+				((bytes[offset + 1] & 0xFF) << 8) |
+				((bytes[offset + 2] & 0xFF) << 16) |
+				((bytes[offset + 3] & 0xFF) << 24);
+		if (declaredLength != length || bytes[offset + length - 1] != 0) {
+			throw new IllegalArgumentException("Invalid document length");
+		}
+		_bytes = bytes;
+		_offset = offset;
+		_length = length;
+	}
+	
+	/**
+	 * @return the array containing the document (not a copy)
+	 */
+	public byte[] getByteArray() {
+		return _bytes;
+	}
+	
+	/**
+	 * @return the offset of the document in the array returned by
+	 * {@link #getByteArray()}
+	 */
+	public int getOffset() {
+		return _offset;
+	}
+	
+	/**
+	 * @return the length of the document including its header
+	 */
+	public int getLength() {
+		return _length;
+	}
+	
+	/**
+	 * @return a read-only buffer containing the document
+	 */
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(_bytes, _offset, _length).slice().asReadOnlyBuffer();
+	}
+	
+	/**
+	 * @return a copy of the document's bytes
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOfRange(_bytes, _offset, _offset + _length);
+	}
+	
+	@Override
+	public String toString() {
+		return "RawBsonDocument[" + _length + " bytes]";
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof RawBsonDocument)) {
+			return false;
+		}
+		RawBsonDocument d = (RawBsonDocument)o;
+		if (_length != d._length) {
+			return false;
+		}
+		for (int i = 0; i < _length; ++i) {
+			if (_bytes[_offset + i] != d._bytes[d._offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public int hashCode() {
+		int result = 1;
+		for (int i = 0; i < _length; ++i) {
+			result = 31 * result + _bytes[_offset + i];
+		}
+		return result;
+	}
+}
@@ -0,0 +1,364 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.litote.bson4jackson;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * <p>Makes sure the hot paths of {@link BsonParser} and
+ * {@link BsonGenerator} do not allocate more memory than necessary. Each
+ * test warms up an operation and then measures the number of bytes the
+ * current thread allocates per token with
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}.
+ * The tests are skipped on JVMs that do not support this method.</p>
+ * <p>The budgets below are upper bounds in bytes per token (field names
+ * and values count as separate tokens). Fixed costs such as creating the
+ * parser or generator are amortized over a large number of tokens.
+ * Writing must not allocate anything per token. Reading may only
+ * allocate the objects returned to the caller (e.g. strings) but no
+ * temporary buffers or decoders. The budgets leave some headroom for
+ * different JVMs and object layouts. If a test fails, the hot path has
+ * most likely started to allocate a new object per token.</p>
+ * @author Michel Kraemer
+ */
+public class AllocationTest {
+	/**
+	 * Budget for reading field names (which are canonicalized), numbers
+	 * and booleans
+	 */
+	private static final double PARSER_SCALAR_BUDGET = 2;
+
+	/**
+	 * Budget for reading field names and strings of 16 ASCII characters.
+	 * Every string value needs a new {@link String} of about 60-80 bytes,
+	 * which is about half of that per token.
+	 */
+	private static final double PARSER_STRING_BUDGET = 64;
+
+	/**
+	 * Budget for writing field names, numbers, booleans and array
+	 * elements (whose field names are generated by the generator)
+	 */
+	private static final double GENERATOR_SCALAR_BUDGET = 2;
+
+	/**
+	 * Budget for writing field names and strings of 16 ASCII characters
+	 */
+	private static final double GENERATOR_STRING_BUDGET = 2;
+
+	/**
+	 * The number of fields in the documents read and written
+	 */
+	private static final int FIELDS = 1000;
+
+	/**
+	 * The number of times an operation is run before it is measured
+	 */
+	private static final int WARMUP = 2000;
+
+	/**
+	 * The number of times an operation is run while it is measured
+	 */
+	private static final int RUNS = 200;
+
+	/**
+	 * The bean used to get the number of allocated bytes (null if the
+	 * JVM does not support measuring allocations)
+	 */
+	private static com.sun.management.ThreadMXBean threadBean;
+
+	/**
+	 * An operation to measure
+	 */
+	private interface Operation {
+		/**
+		 * Runs the operation
+		 * @return the number of tokens read or written
+		 * @throws IOException if the operation failed
+		 */
+		int run() throws IOException;
+	}
+
+	/**
+	 * Gets the bean used to measure allocations
+	 */
+	@BeforeClass
+	public static void setUpClass() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean)bean;
+			if (b.isThreadAllocatedMemorySupported()) {
+				b.setThreadAllocatedMemoryEnabled(true);
+				threadBean = b;
+			}
+		}
+	}
+
+	/**
+	 * Measures the number of bytes allocated by an operation
+	 * @param op the operation
+	 * @return the number of bytes allocated per token
+	 * @throws IOException if the operation failed
+	 */
+	private static double measure(Operation op) throws IOException {
+		assumeTrue(threadBean != null);
+		for (int i = 0; i < WARMUP; ++i) {
+			op.run();
+		}
+		long id = Thread.currentThread().getId();
+		long tokens = 0;
+		long start = threadBean.getThreadAllocatedBytes(id);
+		for (int i = 0; i < RUNS; ++i) {
+			tokens += op.run();
+		}
+		long allocated = threadBean.getThreadAllocatedBytes(id) - start;
+		return (double)allocated / tokens;
+	}
+
+	/**
+	 * Asserts that an operation stays within its budget
+	 * @param name the operation's name
+	 * @param op the operation
+	 * @param budget the maximum number of bytes allocated per token
+	 * @throws IOException if the operation failed
+	 */
+	private static void assertBudget(String name, Operation op, double budget)
+			throws IOException {
+		double perToken = measure(op);
+		assertTrue(name + " allocated " + perToken + " bytes per token " +
+				"(budget: " + budget + ")", perToken <= budget);
+	}
+
+	/**
+	 * Creates a document with {@link #FIELDS} fields
+	 * @param strings true if the document should contain strings,
+	 * false if it should contain numbers and booleans
+	 * @return the encoded document
+	 * @throws IOException if the document could not be written
+	 */
+	private static byte[] createDocument(final boolean strings) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		JsonGenerator gen = new BsonFactory().createGenerator(baos);
+		writeDocument(gen, strings);
+		gen.close();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Writes a document with {@link #FIELDS} fields
+	 * @param gen the generator to write to
+	 * @param strings true if the document should contain strings,
+	 * false if it should contain numbers and booleans
+	 * @return the number of tokens written
+	 * @throws IOException if the document could not be written
+	 */
+	private static int writeDocument(JsonGenerator gen, boolean strings)
+			throws IOException {
+		gen.writeStartObject();
+		for (int i = 0; i < FIELDS; ++i) {
+			gen.writeFieldName(FIELD_NAMES[i]);
+			if (strings) {
+				gen.writeString(STRINGS[i % STRINGS.length]);
+			} else {
+				switch (i % 4) {
+				case 0:
+					gen.writeNumber(i);
+					break;
+				case 1:
+					gen.writeNumber((long)i << 32);
+					break;
+				case 2:
+					gen.writeNumber(i * 0.5);
+					break;
+				default:
+					gen.writeBoolean(i % 2 == 0);
+					break;
+				}
+			}
+		}
+		gen.writeEndObject();
+		return FIELDS * 2 + 2;
+	}
+
+	/**
+	 * The field names used in the documents
+	 */
+	private static final String[] FIELD_NAMES = new String[FIELDS];
+
+	/**
+	 * The strings used in the documents
+	 */
+	private static final String[] STRINGS = new String[16];
+
+	static {
+		for (int i = 0; i < FIELD_NAMES.length; ++i) {
+			FIELD_NAMES[i] = "field" + i;
+		}
+		for (int i = 0; i < STRINGS.length; ++i) {
+			STRINGS[i] = "string value #" + (i < 10 ? "0" + i : String.valueOf(i));
+		}
+	}
+
+	/**
+	 * Reads all tokens from a document
+	 * @param fac the factory used to create the parser
+	 * @param data the document
+	 * @return the number of tokens read
+	 * @throws IOException if the document could not be read
+	 */
+	private static int readDocument(BsonFactory fac, byte[] data) throws IOException {
+		JsonParser p = fac.createParser(data);
+		int tokens = 0;
+		JsonToken t;
+		while ((t = p.nextToken()) != null) {
+			if (t == JsonToken.VALUE_STRING) {
+				p.getText();
+			} else if (t == JsonToken.VALUE_NUMBER_INT ||
+					t == JsonToken.VALUE_NUMBER_FLOAT) {
+				p.getNumberType();
+			}
+			++tokens;
+		}
+		p.close();
+		return tokens;
+	}
+
+	/**
+	 * Checks how much memory is allocated while reading field names,
+	 * numbers and booleans
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void parseScalars() throws Exception {
+		final BsonFactory fac = new BsonFactory();
+		final byte[] data = createDocument(false);
+		assertBudget("parseScalars", new Operation() {
+			@Override
+			public int run() throws IOException {
+				return readDocument(fac, data);
+			}
+		}, PARSER_SCALAR_BUDGET);
+	}
+
+	/**
+	 * Checks how much memory is allocated while reading strings
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void parseStrings() throws Exception {
+		final BsonFactory fac = new BsonFactory();
+		final byte[] data = createDocument(true);
+		assertBudget("parseStrings", new Operation() {
+			@Override
+			public int run() throws IOException {
+				return readDocument(fac, data);
+			}
+		}, PARSER_STRING_BUDGET);
+	}
+
+	/**
+	 * Checks how much memory is allocated while writing field names,
+	 * numbers and booleans
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void generateScalars() throws Exception {
+		final BsonFactory fac = new BsonFactory();
+		final OutputStream out = new NullOutputStream();
+		assertBudget("generateScalars", new Operation() {
+			@Override
+			public int run() throws IOException {
+				JsonGenerator gen = fac.createGenerator(out);
+				int tokens = writeDocument(gen, false);
+				gen.close();
+				return tokens;
+			}
+		}, GENERATOR_SCALAR_BUDGET);
+	}
+
+	/**
+	 * Checks how much memory is allocated while writing strings
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void generateStrings() throws Exception {
+		final BsonFactory fac = new BsonFactory();
+		final OutputStream out = new NullOutputStream();
+		assertBudget("generateStrings", new Operation() {
+			@Override
+			public int run() throws IOException {
+				JsonGenerator gen = fac.createGenerator(out);
+				int tokens = writeDocument(gen, true);
+				gen.close();
+				return tokens;
+			}
+		}, GENERATOR_STRING_BUDGET);
+	}
+
+	/**
+	 * Checks how much memory is allocated while writing array elements
+	 * (the generator has to write the element index as field name)
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void generateArray() throws Exception {
+		final BsonFactory fac = new BsonFactory();
+		final OutputStream out = new NullOutputStream();
+		assertBudget("generateArray", new Operation() {
+			@Override
+			public int run() throws IOException {
+				JsonGenerator gen = fac.createGenerator(out);
+				gen.writeStartObject();
+				gen.writeArrayFieldStart("array");
+				for (int i = 0; i < FIELDS * 2; ++i) {
+					gen.writeNumber(i);
+				}
+				gen.writeEndArray();
+				gen.writeEndObject();
+				gen.close();
+				return FIELDS * 2 + 5;
+			}
+		}, GENERATOR_SCALAR_BUDGET);
+	}
+
+	/**
+	 * An output stream that discards all bytes
+	 */
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+			//discard
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			//discard
+		}
+	}
+}
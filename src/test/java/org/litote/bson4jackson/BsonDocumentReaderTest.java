@@ -0,0 +1,200 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests {@link BsonDocumentReader}
+ * @author Michel Kraemer
+ */
+public class BsonDocumentReaderTest {
+	/**
+	 * A folder for temporary files
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * A simple class documents can be mapped to
+	 */
+	@SuppressWarnings("javadoc")
+	public static class Item {
+		public int i;
+		public String s;
+	}
+	
+	/**
+	 * Creates a sequence of concatenated documents
+	 * @param n the number of documents
+	 * @return the sequence
+	 * @throws Exception if something goes wrong
+	 */
+	private static byte[] createSequence(int n) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for (int i = 0; i < n; ++i) {
+			BSONObject o = new BasicBSONObject();
+			o.put("i", i);
+			o.put("s", "Document " + i);
+			baos.write(new BasicBSONEncoder().encode(o));
+		}
+		return baos.toByteArray();
+	}
+	
+	/**
+	 * Creates a factory with an object mapper
+	 * @return the factory
+	 */
+	private static BsonFactory createFactory() {
+		BsonFactory fac = new BsonFactory();
+		fac.setCodec(new ObjectMapper(fac));
+		return fac;
+	}
+	
+	/**
+	 * Maps a sequence of documents to POJOs
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void readPojos() throws Exception {
+		BsonDocumentReader<Item> reader = createFactory().createDocumentReader(
+				new ByteArrayInputStream(createSequence(5)), Item.class);
+		BsonParser p = reader.getParser();
+		int n = 0;
+		while (reader.hasNext()) {
+			assertSame(p, reader.getParser());
+			Item item = reader.next();
+			assertEquals(n, item.i);
+			assertEquals("Document " + n, item.s);
+			++n;
+		}
+		assertEquals(5, n);
+		assertFalse(reader.hasNext());
+		assertTrue(p.isClosed());
+		try {
+			reader.next();
+			fail("Reader should not return more documents");
+		} catch (NoSuchElementException e) {
+			//this is what we expect
+		}
+	}
+	
+	/**
+	 * Maps a sequence of documents to trees
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void readTrees() throws Exception {
+		BsonDocumentReader<JsonNode> reader = createFactory().createDocumentReader(
+				new ByteArrayInputStream(createSequence(3)), JsonNode.class);
+		List<JsonNode> nodes = reader.readAll();
+		assertEquals(3, nodes.size());
+		for (int i = 0; i < nodes.size(); ++i) {
+			assertEquals(i, nodes.get(i).get("i").intValue());
+			assertEquals("Document " + i, nodes.get(i).get("s").textValue());
+		}
+		reader.close();
+	}
+	
+	/**
+	 * Reads a sequence of documents from a file with and without
+	 * memory mapping
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void readFile() throws Exception {
+		File f = folder.newFile();
+		FileOutputStream fos = new FileOutputStream(f);
+		try {
+			fos.write(createSequence(10));
+		} finally {
+			fos.close();
+		}
+		
+		for (boolean map : new boolean[] { false, true }) {
+			BsonFactory fac = createFactory();
+			fac.configure(BsonParser.Feature.MEMORY_MAP_FILES, map);
+			fac.enable(BsonParser.Feature.HONOR_DOCUMENT_LENGTH);
+			BsonDocumentReader<Item> reader = fac.createDocumentReader(f, Item.class);
+			//both branches must configure the parser the same way
+			assertFalse(reader.getParser().isEnabled(
+					BsonParser.Feature.HONOR_DOCUMENT_LENGTH));
+			assertEquals(map, reader.getParser().isEnabled(
+					BsonParser.Feature.MEMORY_MAP_FILES));
+			List<Item> items = reader.readAll();
+			assertEquals(10, items.size());
+			assertEquals(9, items.get(9).i);
+			assertNull(reader.getParser());
+		}
+	}
+	
+	/**
+	 * Makes sure the reader reads all documents even if
+	 * {@link BsonParser.Feature#HONOR_DOCUMENT_LENGTH} is enabled
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void honorDocumentLength() throws Exception {
+		BsonFactory fac = createFactory();
+		fac.enable(BsonParser.Feature.HONOR_DOCUMENT_LENGTH);
+		BsonDocumentReader<Item> reader = fac.createDocumentReader(
+				new ByteArrayInputStream(createSequence(4)), Item.class);
+		assertEquals(4, reader.readAll().size());
+	}
+	
+	/**
+	 * Reads an empty input
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void empty() throws Exception {
+		BsonDocumentReader<Item> reader = createFactory().createDocumentReader(
+				new ByteArrayInputStream(new byte[0]), Item.class);
+		assertFalse(reader.hasNextValue());
+		assertTrue(reader.readAll().isEmpty());
+	}
+	
+	/**
+	 * Makes sure a reader cannot be created without an object codec
+	 * @throws Exception if something goes wrong
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void noCodec() throws Exception {
+		new BsonFactory().createDocumentReader(
+				new ByteArrayInputStream(createSequence(1)), Item.class);
+	}
+}
@@ -0,0 +1,181 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests {@link BsonDocumentSplitter}
+ * @author Michel Kraemer
+ */
+public class BsonDocumentSplitterTest {
+	/**
+	 * A folder for temporary files
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * A simple class documents can be mapped to
+	 */
+	@SuppressWarnings("javadoc")
+	public static class Item {
+		public int i;
+		public String s;
+	}
+	
+	/**
+	 * Writes a sequence of documents of different sizes to a file
+	 * @param n the number of documents
+	 * @param trailing bytes to append after the last document
+	 * @return the file
+	 * @throws Exception if something goes wrong
+	 */
+	private File createFile(int n, byte... trailing) throws Exception {
+		File f = folder.newFile();
+		FileOutputStream fos = new FileOutputStream(f);
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < n; ++i) {
+				sb.append(i % 10);
+				BSONObject o = new BasicBSONObject();
+				o.put("i", i);
+				o.put("s", sb.toString());
+				fos.write(new BasicBSONEncoder().encode(o));
+			}
+			fos.write(trailing);
+		} finally {
+			fos.close();
+		}
+		return f;
+	}
+	
+	/**
+	 * Creates a factory with an object mapper
+	 * @return the factory
+	 */
+	private static BsonFactory createFactory() {
+		BsonFactory fac = new BsonFactory();
+		fac.setCodec(new ObjectMapper(fac));
+		return fac;
+	}
+	
+	/**
+	 * Checks the index of document offsets
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void index() throws Exception {
+		File f = createFile(100);
+		BsonDocumentSplitter splitter = new BsonDocumentSplitter(createFactory(), f);
+		try {
+			assertEquals(100, splitter.getDocumentCount());
+			assertEquals(0, splitter.getOffset(0));
+			long offset = 0;
+			for (int i = 0; i < 100; ++i) {
+				assertEquals(offset, splitter.getOffset(i));
+				offset += splitter.getLength(i);
+			}
+			assertEquals(f.length(), offset);
+			
+			BsonDocumentReader<Item> reader = splitter.createDocumentReader(
+					10, 20, Item.class);
+			List<Item> items = reader.readAll();
+			assertEquals(10, items.size());
+			assertEquals(10, items.get(0).i);
+			assertEquals(19, items.get(9).i);
+		} finally {
+			splitter.close();
+		}
+	}
+	
+	/**
+	 * Reads all documents in parallel
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void readAll() throws Exception {
+		File f = createFile(1000);
+		BsonDocumentSplitter splitter = new BsonDocumentSplitter(createFactory(), f);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			splitter.setMaxTaskSize(1000);
+			List<Item> items = splitter.readAll(Item.class, pool);
+			assertEquals(1000, items.size());
+			for (int i = 0; i < items.size(); ++i) {
+				assertEquals(i, items.get(i).i);
+				assertEquals(i + 1, items.get(i).s.length());
+			}
+		} finally {
+			pool.shutdown();
+			splitter.close();
+		}
+	}
+	
+	/**
+	 * Reads an empty file
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void empty() throws Exception {
+		BsonDocumentSplitter splitter = new BsonDocumentSplitter(
+				createFactory(), createFile(0));
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			assertEquals(0, splitter.getDocumentCount());
+			assertEquals(0, splitter.readAll(Item.class, pool).size());
+		} finally {
+			pool.shutdown();
+			splitter.close();
+		}
+	}
+	
+	/**
+	 * Makes sure invalid document lengths are detected while building
+	 * the index
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void invalidLength() throws Exception {
+		try {
+			new BsonDocumentSplitter(createFactory(), createFile(3, new byte[] { 1, 0 }));
+			fail("Splitter should have detected truncated length");
+		} catch (IOException e) {
+			//this is what we expect
+		}
+		try {
+			new BsonDocumentSplitter(createFactory(), createFile(3, new byte[] { 100, 0, 0, 0, 0 }));
+			fail("Splitter should have detected invalid length");
+		} catch (IOException e) {
+			//this is what we expect
+		}
+	}
+}
@@ -14,14 +14,30 @@
 
 package org.litote.bson4jackson;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Tests {@link BsonFactory}
@@ -90,4 +106,125 @@ public class BsonFactoryTest {
 
         assertEquals(factory.isEnabled(feature), copy.isEnabled(feature));
     }
+
+    /**
+     * A released parser or generator should be handed out again by the
+     * next lease unless the factory's features have changed
+     * @throws Exception if something goes wrong
+     */
+    @Test
+    public void shouldReuseReleasedInstances() throws Exception {
+        byte[] data = new BasicBSONEncoder().encode(new BasicBSONObject("a", 1));
+
+        BsonParser p1 = factory.leaseParser(data, 0, data.length);
+        factory.releaseParser(p1);
+        BsonParser p2 = factory.leaseParser(new ByteArrayInputStream(data));
+        assertSame(p1, p2);
+        assertEquals(JsonToken.START_OBJECT, p2.nextToken());
+        factory.releaseParser(p2);
+
+        BsonGenerator g1 = factory.leaseGenerator(new ByteArrayOutputStream());
+        factory.releaseGenerator(g1);
+        assertSame(g1, factory.leaseGenerator(new ByteArrayOutputStream()));
+        factory.releaseGenerator(g1);
+
+        factory.enable(BsonParser.Feature.HONOR_DOCUMENT_LENGTH);
+        factory.enable(BsonGenerator.Feature.ENABLE_STREAMING);
+        BsonParser p3 = factory.leaseParser(data, 0, data.length);
+        assertNotSame(p1, p3);
+        assertTrue(p3.isEnabled(BsonParser.Feature.HONOR_DOCUMENT_LENGTH));
+        BsonGenerator g2 = factory.leaseGenerator(new ByteArrayOutputStream());
+        assertNotSame(g1, g2);
+        assertTrue(g2.isEnabled(BsonGenerator.Feature.ENABLE_STREAMING));
+    }
+
+    /**
+     * Parsers that cannot read from input streams should never be
+     * handed out by a lease that needs to reset them to a stream
+     * @throws Exception if something goes wrong
+     */
+    @Test
+    @Category(value = RequiresJackson_v2_9.class)
+    public void shouldNotReuseNonBlockingParsers() throws Exception {
+        byte[] data = new BasicBSONEncoder().encode(new BasicBSONObject("a", 1));
+
+        BsonParser nb = factory.createNonBlockingByteArrayParser();
+        factory.releaseParser(nb);
+        assertTrue(nb.isClosed());
+
+        BsonParser p = factory.leaseParser(new ByteArrayInputStream(data));
+        assertNotSame(nb, p);
+        assertSame(BsonParser.class, p.getClass());
+        assertEquals(JsonToken.START_OBJECT, p.nextToken());
+        factory.releaseParser(p);
+    }
+
+    /**
+     * Released parsers and generators should neither keep their input
+     * and output nor the factory reachable
+     * @throws Exception if something goes wrong
+     */
+    @Test
+    public void shouldNotLeakReleasedInstances() throws Exception {
+        List<WeakReference<Object>> refs = new ArrayList<WeakReference<Object>>();
+        for (int i = 0; i < 20; ++i) {
+            useAndDiscardFactory(i, refs);
+        }
+        for (int i = 0; i < 100 && !allCleared(refs); ++i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        for (WeakReference<Object> r : refs) {
+            assertNull(r.get());
+        }
+    }
+
+    /**
+     * Creates a factory, leases and releases parsers and generators,
+     * and remembers the factory and all inputs and outputs
+     * @param i a number to write into the test document
+     * @param refs a list the weak references to the factory, the
+     * inputs and the outputs will be added to
+     * @throws Exception if something goes wrong
+     */
+    private static void useAndDiscardFactory(int i,
+            List<WeakReference<Object>> refs) throws Exception {
+        BsonFactory fac = new BsonFactory();
+        fac.setCodec(new ObjectMapper(fac));
+        byte[] data = new BasicBSONEncoder().encode(new BasicBSONObject("a", i));
+        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        fac.releaseParser(fac.leaseParser(data, 0, data.length));
+        BsonParser p = fac.leaseParser(in);
+        assertEquals(JsonToken.START_OBJECT, p.nextToken());
+        fac.releaseParser(p);
+
+        BsonGenerator g = fac.leaseGenerator(out);
+        g.writeStartObject();
+        g.writeNumberField("a", i);
+        g.writeEndObject();
+        fac.releaseGenerator(g);
+        assertArrayEquals(data, fac.writeValueAsBytes(
+                Collections.singletonMap("a", i)));
+
+        refs.add(new WeakReference<Object>(fac));
+        refs.add(new WeakReference<Object>(data));
+        refs.add(new WeakReference<Object>(in));
+        refs.add(new WeakReference<Object>(out));
+    }
+
+    /**
+     * Checks if all given references have been cleared
+     * @param refs the references
+     * @return true if all references have been cleared
+     */
+    private static boolean allCleared(List<WeakReference<Object>> refs) {
+        for (WeakReference<Object> r : refs) {
+            if (r.get() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -19,17 +19,30 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -41,16 +54,24 @@ import java.util.regex.Pattern;
 import org.bson.BSONDecoder;
 import org.bson.BSONObject;
 import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
 import org.bson.types.BSONTimestamp;
 import org.bson.types.Code;
 import org.bson.types.CodeWScope;
-import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
 
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.SerializableString;
 import com.fasterxml.jackson.core.io.CharacterEscapes;
+import com.fasterxml.jackson.core.io.IOContext;
+import com.fasterxml.jackson.core.io.OutputDecorator;
 import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -60,6 +81,8 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 
 import org.litote.bson4jackson.BsonGenerator.Feature;
 import org.litote.bson4jackson.io.DynamicOutputBuffer;
+import org.litote.bson4jackson.io.SharedBufferPool;
+import org.litote.bson4jackson.io.SizeHistogram;
 import org.litote.bson4jackson.types.Decimal128;
 import org.litote.bson4jackson.types.JavaScript;
 import org.litote.bson4jackson.types.ObjectId;
@@ -70,6 +93,12 @@ import org.litote.bson4jackson.types.Timestamp;
  * @author Michel Kraemer
  */
 public class BsonGeneratorTest {
+	/**
+	 * A folder for temporary files
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
 	/**
 	 * Simple dummy object for testing object (de-)serialization.
 	 */
@@ -153,6 +182,291 @@ public class BsonGeneratorTest {
 		assertTrue(baos.size() > DynamicOutputBuffer.DEFAULT_BUFFER_SIZE * 3);
 	}
 	
+	/**
+	 * Creates a document that is larger than the generator's buffer
+	 * segments and that contains embedded documents spanning them
+	 * @return the document
+	 */
+	private static Map<String, Object> createLargeDocument() {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		List<Object> items = new ArrayList<Object>();
+		for (int i = 0; i < 3000; ++i) {
+			Map<String, Object> item = new LinkedHashMap<String, Object>();
+			item.put("i", i);
+			item.put("s", "Item number " + i);
+			item.put("b", new byte[i % 100]);
+			items.add(item);
+		}
+		data.put("items", items);
+		data.put("binary", new byte[DynamicOutputBuffer.DEFAULT_BUFFER_SIZE * 3 / 2]);
+		data.put("end", true);
+		return data;
+	}
+	
+	/**
+	 * Serializes the given value without streaming
+	 * @param value the value
+	 * @return the serialized value
+	 * @throws Exception if something goes wrong
+	 */
+	private static byte[] writeBuffered(Object value) throws Exception {
+		return new ObjectMapper(new BsonFactory()).writeValueAsBytes(value);
+	}
+	
+	/**
+	 * Test if the streaming feature produces valid documents if
+	 * the target is a seekable channel
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void streamToChannel() throws Exception {
+		Map<String, Object> data = createLargeDocument();
+		byte[] expected = writeBuffered(data);
+		assertTrue(expected.length > DynamicOutputBuffer.DEFAULT_BUFFER_SIZE * 4);
+		
+		BsonFactory fac = new BsonFactory();
+		fac.enable(BsonGenerator.Feature.ENABLE_STREAMING);
+		ObjectMapper om = new ObjectMapper(fac);
+		
+		//write to a file channel
+		File f = folder.newFile();
+		FileChannel fc = new RandomAccessFile(f, "rw").getChannel();
+		fc.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+		BsonGenerator gen = fac.createGenerator(fc);
+		om.writeValue(gen, data);
+		gen.close();
+		assertFalse(fc.isOpen());
+		byte[] written = readFile(f);
+		assertEquals(3 + expected.length, written.length);
+		assertArrayEquals(expected, Arrays.copyOfRange(written, 3, written.length));
+		
+		//write to a generic seekable channel
+		f = folder.newFile();
+		final FileChannel fc2 = new RandomAccessFile(f, "rw").getChannel();
+		SeekableByteChannel sbc = new SeekableByteChannel() {
+			@Override
+			public boolean isOpen() {
+				return fc2.isOpen();
+			}
+			
+			@Override
+			public void close() throws IOException {
+				fc2.close();
+			}
+			
+			@Override
+			public int write(ByteBuffer src) throws IOException {
+				return fc2.write(src);
+			}
+			
+			@Override
+			public SeekableByteChannel truncate(long size) throws IOException {
+				fc2.truncate(size);
+				return this;
+			}
+			
+			@Override
+			public long size() throws IOException {
+				return fc2.size();
+			}
+			
+			@Override
+			public int read(ByteBuffer dst) throws IOException {
+				return fc2.read(dst);
+			}
+			
+			@Override
+			public SeekableByteChannel position(long newPosition) throws IOException {
+				fc2.position(newPosition);
+				return this;
+			}
+			
+			@Override
+			public long position() throws IOException {
+				return fc2.position();
+			}
+		};
+		gen = fac.createGenerator(sbc);
+		om.writeValue(gen, data);
+		gen.close();
+		assertArrayEquals(expected, readFile(f));
+		
+		//write to a file
+		f = folder.newFile();
+		gen = fac.createGenerator(f, JsonEncoding.UTF8);
+		om.writeValue(gen, data);
+		gen.close();
+		assertArrayEquals(expected, readFile(f));
+	}
+	
+	/**
+	 * Test if direct buffers are passed to a channel without being copied
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void directBuffersToChannel() throws Exception {
+		Map<String, Object> data = createLargeDocument();
+		byte[] expected = writeBuffered(data);
+		
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final int[] writes = new int[1];
+		WritableByteChannel channel = new WritableByteChannel() {
+			private boolean open = true;
+			
+			@Override
+			public boolean isOpen() {
+				return open;
+			}
+			
+			@Override
+			public void close() {
+				open = false;
+			}
+			
+			@Override
+			public int write(ByteBuffer src) {
+				assertTrue(src.isDirect());
+				++writes[0];
+				int r = src.remaining();
+				while (src.hasRemaining()) {
+					baos.write(src.get());
+				}
+				return r;
+			}
+		};
+		
+		SharedBufferPool pool = new SharedBufferPool(1024);
+		BsonFactory fac = new BsonFactory();
+		fac.enable(BsonGenerator.Feature.USE_DIRECT_BUFFERS);
+		fac.setBufferPool(pool);
+		ObjectMapper om = new ObjectMapper(fac);
+		BsonGenerator gen = fac.createGenerator(channel);
+		om.writeValue(gen, data);
+		gen.close();
+		
+		assertFalse(channel.isOpen());
+		assertArrayEquals(expected, baos.toByteArray());
+		assertTrue(writes[0] > 1);
+		
+		//all buffers must have been released
+		assertEquals(pool.getMissCount(), pool.size());
+		
+		//write with streaming enabled
+		baos.reset();
+		fac.enable(BsonGenerator.Feature.ENABLE_STREAMING);
+		channel = Channels.newChannel(baos);
+		gen = fac.createGenerator(channel);
+		om.writeValue(gen, data);
+		gen.close();
+		assertEquals(expected.length, baos.size());
+	}
+	
+	/**
+	 * Test if the streaming feature produces valid documents if
+	 * document sizes are precomputed
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void streamWithPrecomputedSizes() throws Exception {
+		Map<String, Object> data = createLargeDocument();
+		byte[] expected = writeBuffered(data);
+		
+		BsonFactory fac = new BsonFactory();
+		new ObjectMapper(fac);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		fac.writeValueStreaming(baos, data);
+		assertArrayEquals(expected, baos.toByteArray());
+		
+		//the output decorator must be applied to the second pass only
+		final ByteArrayOutputStream decorated = new ByteArrayOutputStream();
+		final int[] decorations = new int[1];
+		fac.setOutputDecorator(new OutputDecorator() {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			public OutputStream decorate(IOContext ctxt, OutputStream out) {
+				++decorations[0];
+				return new FilterOutputStream(out) {
+					@Override
+					public void write(int b) throws IOException {
+						out.write(b);
+						decorated.write(b);
+					}
+				};
+			}
+			
+			@Override
+			public Writer decorate(IOContext ctxt, Writer w) {
+				return w;
+			}
+		});
+		baos.reset();
+		fac.writeValueStreaming(baos, data);
+		assertEquals(1, decorations[0]);
+		assertArrayEquals(expected, baos.toByteArray());
+		assertArrayEquals(expected, decorated.toByteArray());
+	}
+	
+	/**
+	 * Test if the streaming feature writes the length of JavaScript
+	 * values with scope to seekable channels and with precomputed sizes
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void streamJavaScriptWithScope() throws Exception {
+		Map<String, Object> smallScope = new LinkedHashMap<String, Object>();
+		smallScope.put("x", 1);
+		Map<String, Object> largeScope = new LinkedHashMap<String, Object>();
+		largeScope.put("b", new byte[DynamicOutputBuffer.DEFAULT_BUFFER_SIZE * 3 / 2]);
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("js", new JavaScript("return x;", smallScope));
+		data.put("large", new JavaScript("return b;", largeScope));
+		
+		BsonFactory fac = new BsonFactory();
+		ObjectMapper om = new ObjectMapper(fac);
+		om.registerModule(new BsonModule());
+		byte[] expected = om.writeValueAsBytes(data);
+		
+		//compare with the reference implementation
+		BSONObject obj = new BasicBSONDecoder().readObject(expected);
+		CodeWScope js = (CodeWScope)obj.get("js");
+		assertEquals("return x;", js.getCode());
+		assertEquals(smallScope, js.getScope().toMap());
+		BSONObject encoded = new BasicBSONObject("js", new CodeWScope(
+				"return x;", new BasicBSONObject(smallScope)));
+		byte[] reference = new BasicBSONEncoder().encode(encoded);
+		assertArrayEquals(Arrays.copyOfRange(reference, 4, reference.length - 1),
+				Arrays.copyOfRange(expected, 4, reference.length - 1));
+		
+		fac.enable(BsonGenerator.Feature.ENABLE_STREAMING);
+		File f = folder.newFile();
+		BsonGenerator gen = fac.createGenerator(new RandomAccessFile(f, "rw").getChannel());
+		om.writeValue(gen, data);
+		gen.close();
+		assertArrayEquals(expected, readFile(f));
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		fac.writeValueStreaming(baos, data);
+		assertArrayEquals(expected, baos.toByteArray());
+	}
+	
+	/**
+	 * Reads a whole file
+	 * @param f the file
+	 * @return the file's contents
+	 * @throws IOException if the file could not be read
+	 */
+	private static byte[] readFile(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			byte[] r = new byte[(int)raf.length()];
+			raf.readFully(r);
+			return r;
+		} finally {
+			raf.close();
+		}
+	}
+	
 	private void assertRaw(byte[] r) throws Exception {
 		ByteArrayInputStream bais = new ByteArrayInputStream(r);
 		BSONDecoder decoder = new BasicBSONDecoder();
@@ -291,6 +605,29 @@ public class BsonGeneratorTest {
 		assertEquals("Hello", b6.get("Str"));
 	}
 
+	/**
+	 * Test if the field names of large arrays are written correctly
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void largeArrays() throws Exception {
+		List<Integer> arr = new ArrayList<Integer>();
+		for (int i = 0; i < 5000; ++i) {
+			arr.add(i);
+		}
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("Arr", arr);
+		
+		BSONObject obj = generateAndParse(data);
+		BSONObject o = (BSONObject)obj.get("Arr");
+		assertEquals(arr.size(), o.keySet().size());
+		for (int i = 0; i < arr.size(); ++i) {
+			assertEquals(i, o.get(String.valueOf(i)));
+		}
+		assertEquals(arr, (List<Integer>)obj.get("Arr"));
+	}
+
 	/**
 	 * Test if strings containing UTF-8 characters can be serialized
 	 * @throws Exception if something goes wrong
@@ -313,6 +650,37 @@ public class BsonGeneratorTest {
 		assertEquals("a\u20AC\u00A2\u00A2bb", s);
 	}
 
+	/**
+	 * Test if pre-encoded and cached field names are written correctly
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void encodedFieldNames() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BsonGenerator gen = new BsonGenerator(
+				JsonGenerator.Feature.collectDefaults(), 0, baos);
+		gen.writeStartObject();
+		gen.writeFieldName(new SerializedString("a\u20AC\u00A2"));
+		gen.writeString("serialized");
+		for (int i = 0; i < BsonGenerator.MAX_FIELD_NAME_CACHE_SIZE + 10; ++i) {
+			gen.writeFieldName("field" + i);
+			gen.writeNumber(i);
+		}
+		//write a cached name again
+		gen.writeFieldName("field" + (BsonGenerator.MAX_FIELD_NAME_CACHE_SIZE + 5));
+		gen.writeString("cached");
+		gen.writeEndObject();
+		gen.close();
+		
+		ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+		BSONObject obj = new BasicBSONDecoder().readObject(bais);
+		assertEquals("serialized", obj.get("a\u20AC\u00A2"));
+		assertEquals(0, obj.get("field0"));
+		assertEquals(BsonGenerator.MAX_FIELD_NAME_CACHE_SIZE + 9,
+				obj.get("field" + (BsonGenerator.MAX_FIELD_NAME_CACHE_SIZE + 9)));
+		assertEquals("cached", obj.get("field" + (BsonGenerator.MAX_FIELD_NAME_CACHE_SIZE + 5)));
+	}
+
 	/**
 	 * Test if {@link UUID} objects can be serialized
 	 * @throws Exception if something goes wrong
@@ -431,7 +799,6 @@ public class BsonGeneratorTest {
 	 * @throws Exception if something goes wrong
 	 */
 	@Test
-	@Ignore
 	public void javascriptWithScope() throws Exception {
 		Map<String, Object> scope = new LinkedHashMap<String, Object>();
 		scope.put("a", 99);
@@ -563,6 +930,35 @@ public class BsonGeneratorTest {
 		assertArrayEquals(binary, objbin);
 	}
 
+	/**
+	 * Test if large binaries and raw UTF-8 strings can be written
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void writeLargeBinaryAndRawUTF8String() throws Exception {
+		byte[] binary = new byte[100000];
+		for (int i = 0; i < binary.length; ++i) {
+			binary[i] = (byte)i;
+		}
+		byte[] text = "xxHello W\u00F6rldxx".getBytes("UTF-8");
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BsonGenerator gen = new BsonGenerator(
+				JsonGenerator.Feature.collectDefaults(), 0, baos);
+		gen.writeStartObject();
+		gen.writeFieldName("binary");
+		gen.writeBinary(binary);
+		gen.writeFieldName("text");
+		gen.writeRawUTF8String(text, 2, text.length - 4);
+		gen.writeEndObject();
+		gen.close();
+		
+		ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+		BSONObject obj = new BasicBSONDecoder().readObject(bais);
+		assertArrayEquals(binary, (byte[])obj.get("binary"));
+		assertEquals("Hello W\u00F6rld", obj.get("text"));
+	}
+
 	/**
 	 * Test if multiple objects can be written in sequence using
 	 * {@link SequenceWriter}
@@ -766,4 +1162,274 @@ public class BsonGeneratorTest {
 		
 		assertArrayEquals(sBytes, bsonBytes);
 	}
+
+	/**
+	 * Copies documents and arrays from a {@link BsonParser} to a
+	 * {@link BsonGenerator} as raw bytes
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void copyRawStructure() throws Exception {
+		BSONObject embedded = new BasicBSONObject();
+		embedded.put("a", "Hello W\u00F6rld");
+		embedded.put("b", Arrays.asList(1, "two", 3.0));
+		BSONObject o = new BasicBSONObject();
+		o.put("Int32", 5);
+		o.put("Document", embedded);
+		o.put("Array", Arrays.asList(embedded, "x"));
+		byte[] data = new BasicBSONEncoder().encode(o);
+
+		//copy the whole document
+		BsonFactory fac = new BsonFactory();
+		JsonParser p = fac.createParser(data);
+		p.nextToken();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		JsonGenerator gen = fac.createGenerator(baos);
+		((BsonGenerator)gen).copyRawStructure(p);
+		gen.close();
+		assertEquals(JsonToken.END_OBJECT, p.getCurrentToken());
+		assertEquals(null, p.nextToken());
+		p.close();
+		assertArrayEquals(data, baos.toByteArray());
+
+		//copy the document from a source without document lengths
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		BsonFactory streamingFac = new BsonFactory();
+		streamingFac.enable(BsonGenerator.Feature.ENABLE_STREAMING);
+		p = fac.createParser(data);
+		gen = streamingFac.createGenerator(streamed);
+		while (p.nextToken() != null) {
+			gen.copyCurrentEvent(p);
+		}
+		gen.close();
+		p.close();
+		p = fac.createParser(streamed.toByteArray());
+		p.nextToken();
+		baos = new ByteArrayOutputStream();
+		gen = fac.createGenerator(baos);
+		((BsonGenerator)gen).copyRawStructure(p);
+		gen.close();
+		p.close();
+		assertArrayEquals(data, baos.toByteArray());
+
+		//copy single fields and array elements into another structure
+		p = fac.createParser(data);
+		baos = new ByteArrayOutputStream();
+		gen = fac.createGenerator(baos);
+		gen.writeStartObject();
+		gen.writeArrayFieldStart("Copied");
+		gen.writeString("first");
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			if (p.getCurrentName().equals("Array")) {
+				assertEquals(JsonToken.START_ARRAY, p.nextToken());
+				while (p.nextToken() != JsonToken.END_ARRAY) {
+					((BsonGenerator)gen).copyRawStructure(p);
+				}
+			} else {
+				p.nextToken();
+				p.skipChildren();
+			}
+		}
+		gen.writeEndArray();
+		p.close();
+		p = fac.createParser(data);
+		p.nextToken();
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals(JsonToken.VALUE_NUMBER_INT, p.nextToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		((BsonGenerator)gen).copyRawStructure(p);
+		assertEquals(JsonToken.END_OBJECT, p.getCurrentToken());
+		assertEquals("Document", p.getCurrentName());
+		p.close();
+		gen.writeEndObject();
+		gen.close();
+
+		BSONObject expected = new BasicBSONObject();
+		expected.put("Copied", Arrays.asList("first", embedded, "x"));
+		expected.put("Document", embedded);
+		assertArrayEquals(new BasicBSONEncoder().encode(expected),
+				baos.toByteArray());
+	}
+
+	/**
+	 * Tests if a generator can be reset to write to another stream,
+	 * even if it has been interrupted in the middle of a document
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void reset() throws Exception {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("Int32", 5);
+		data.put("String", "Hello W\u00F6rld");
+		data.put("Array", Arrays.asList(1, "b", 3.0));
+		data.put("Document", Collections.singletonMap("Int64", 1234L));
+		
+		BsonFactory fac = new BsonFactory();
+		ObjectMapper mapper = new ObjectMapper(fac);
+		fac.setCodec(mapper);
+		byte[] expected = mapper.writeValueAsBytes(data);
+		
+		BsonGenerator gen = fac.createGenerator(new ByteArrayOutputStream());
+		gen.writeStartObject();
+		gen.writeFieldName("Array");
+		gen.writeStartArray();
+		gen.writeString("interrupted");
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		gen.reset(baos);
+		assertFalse(gen.isClosed());
+		mapper.writeValue(gen, data);
+		gen.close();
+		assertArrayEquals(expected, baos.toByteArray());
+		
+		baos = new ByteArrayOutputStream();
+		gen.reset(baos);
+		assertFalse(gen.isClosed());
+		mapper.writeValue(gen, data);
+		gen.close();
+		assertArrayEquals(expected, baos.toByteArray());
+	}
+	
+	/**
+	 * Tests a generator that keeps its output in memory
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void buffered() throws Exception {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("Int32", 5);
+		data.put("String", "Hello W\u00F6rld");
+		data.put("Array", Arrays.asList(1, "b", 3.0));
+		
+		for (boolean streaming : new boolean[] { false, true }) {
+			BsonFactory fac = new BsonFactory();
+			fac.configure(Feature.ENABLE_STREAMING, streaming);
+			ObjectMapper mapper = new ObjectMapper(fac);
+			fac.setCodec(mapper);
+			byte[] expected = new ObjectMapper(new BsonFactory()).writeValueAsBytes(data);
+			
+			BsonGenerator gen = fac.createBufferedGenerator();
+			gen.writeStartObject();
+			try {
+				gen.toByteArray();
+				fail("Generator should not return unfinished document");
+			} catch (IllegalStateException e) {
+				//this is what we expect
+			}
+			gen.writeEndObject();
+			assertEquals(5, gen.getOutputSize());
+			assertArrayEquals(new byte[] { 5, 0, 0, 0, 0 }, gen.toByteArray());
+			assertEquals(0, gen.getOutputSize());
+			
+			mapper.writeValue(gen, data);
+			assertEquals(expected.length, gen.getOutputSize());
+			assertArrayEquals(expected, gen.toByteArray());
+			
+			mapper.writeValue(gen, data);
+			byte[] arr = new byte[expected.length + 2];
+			assertEquals(expected.length, gen.writeTo(arr, 2));
+			assertArrayEquals(expected, Arrays.copyOfRange(arr, 2, arr.length));
+			
+			mapper.writeValue(gen, data);
+			gen.close();
+			ByteBuffer bb = ByteBuffer.allocate(expected.length);
+			assertEquals(expected.length, gen.writeTo(bb));
+			assertArrayEquals(expected, bb.array());
+		}
+	}
+	
+	/**
+	 * Tests {@link BsonFactory#writeValueAsBytes(Object)} and
+	 * {@link BsonFactory#writeValue(ByteBuffer, Object)}
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void writeValueAsBytes() throws Exception {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("Int64", 1234L);
+		data.put("String", "Hello W\u00F6rld");
+		data.put("Document", Collections.singletonMap("a", true));
+		
+		BsonFactory fac = new BsonFactory();
+		ObjectMapper mapper = new ObjectMapper(fac);
+		fac.setCodec(mapper);
+		byte[] expected = mapper.writeValueAsBytes(data);
+		
+		assertArrayEquals(expected, fac.writeValueAsBytes(data));
+		assertArrayEquals(expected, fac.writeValueAsBytes(data));
+		
+		ByteBuffer bb = ByteBuffer.allocateDirect(expected.length + 1);
+		bb.put((byte)1);
+		assertEquals(expected.length, fac.writeValue(bb, data));
+		assertFalse(bb.hasRemaining());
+		byte[] r = new byte[expected.length];
+		bb.position(1);
+		bb.get(r);
+		assertArrayEquals(expected, r);
+		
+		bb.position(2);
+		try {
+			fac.writeValue(bb, data);
+			fail("Byte buffer should be too small");
+		} catch (BufferOverflowException e) {
+			assertEquals(2, bb.position());
+		}
+		assertArrayEquals(expected, fac.writeValueAsBytes(data));
+	}
+	
+	/**
+	 * Tests if the generator chooses the size of its internal buffers
+	 * based on a size hint or on previously written documents
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void sizeHint() throws Exception {
+		Map<String, Object> small = Collections.<String, Object>singletonMap("a", "b");
+		Map<String, Object> large = Collections.<String, Object>singletonMap("a",
+				new byte[BsonGenerator.MIN_ADAPTIVE_BUFFER_SIZE * 3]);
+		
+		BsonFactory fac = new BsonFactory();
+		ObjectMapper mapper = new ObjectMapper(fac);
+		fac.setCodec(mapper);
+		byte[] expectedSmall = mapper.writeValueAsBytes(small);
+		byte[] expectedLarge = mapper.writeValueAsBytes(large);
+		
+		BsonGenerator gen = fac.createBufferedGenerator();
+		gen.setSizeHint(expectedLarge.length);
+		mapper.writeValue(gen, large);
+		assertEquals(BsonGenerator.MIN_ADAPTIVE_BUFFER_SIZE * 4,
+				gen._buffer.getBufferSize());
+		assertArrayEquals(expectedLarge, gen.toByteArray());
+		
+		gen.setSizeHint(0);
+		SizeHistogram h = new SizeHistogram();
+		gen.setSizeHistogram(h);
+		mapper.writeValue(gen, small);
+		assertEquals(DynamicOutputBuffer.DEFAULT_BUFFER_SIZE,
+				gen._buffer.getBufferSize());
+		assertArrayEquals(expectedSmall, gen.toByteArray());
+		assertEquals(1, h.getCount());
+		
+		mapper.writeValue(gen, small);
+		assertEquals(BsonGenerator.MIN_ADAPTIVE_BUFFER_SIZE,
+				gen._buffer.getBufferSize());
+		assertArrayEquals(expectedSmall, gen.toByteArray());
+		assertEquals(2, h.getCount());
+		
+		//documents larger than the estimate must still be written correctly
+		mapper.writeValue(gen, large);
+		assertEquals(BsonGenerator.MIN_ADAPTIVE_BUFFER_SIZE,
+				gen._buffer.getBufferSize());
+		assertArrayEquals(expectedLarge, gen.toByteArray());
+		assertEquals(3, h.getCount());
+		
+		//the factory should learn sizes per type
+		assertArrayEquals(expectedSmall, fac.writeValueAsBytes(small));
+		assertArrayEquals(expectedSmall, fac.writeValueAsBytes(small));
+		SizeHistogram fh = fac.getSizeHistograms().get(small.getClass());
+		assertEquals(2, fh.getCount());
+		assertEquals(expectedSmall.length, (int)fh.getMean());
+		assertEquals(1, fac.getSizeHistograms().size());
+	}
 }
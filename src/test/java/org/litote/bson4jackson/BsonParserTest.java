@@ -16,6 +16,7 @@ package org.litote.bson4jackson;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -24,12 +25,21 @@ import static org.junit.Assert.fail;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -46,11 +56,17 @@ import org.bson.types.Code;
 import org.bson.types.CodeWScope;
 import org.bson.types.MinKey;
 import org.bson.types.Symbol;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.IOContext;
+import com.fasterxml.jackson.core.util.BufferRecycler;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -61,6 +77,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 
+import org.litote.bson4jackson.io.MappedFileInputStream;
 import org.litote.bson4jackson.types.JavaScript;
 import org.litote.bson4jackson.types.ObjectId;
 import org.litote.bson4jackson.types.Timestamp;
@@ -94,6 +111,20 @@ public class BsonParserTest {
 		public org.bson.types.ObjectId oid;
 	}
 	
+	/**
+	 * Simple test class for {@link BsonParserTest#skipChildren()}
+	 */
+	@SuppressWarnings("javadoc")
+	public static class AfterClass {
+		public int after;
+	}
+	
+	/**
+	 * A folder for temporary files
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
 	private <T> T parseBsonObject(BSONObject o, Class<T> cls,
 			Module... modules) throws IOException {
 		BSONEncoder enc = new BasicBSONEncoder();
@@ -515,6 +546,60 @@ public class BsonParserTest {
 		assertEquals(JsonToken.END_OBJECT, dec.nextToken());
 	}
 	
+	/**
+	 * Tests if numbers and booleans can be read through all accessors
+	 * @throws Exception if something went wrong
+	 */
+	@Test
+	public void parseNumberTypes() throws Exception {
+		BSONObject o = new BasicBSONObject();
+		o.put("Double", 5.5);
+		o.put("Int32", 1234);
+		o.put("Int64", 5000000000L);
+		o.put("Bool", true);
+		byte[] b = new BasicBSONEncoder().encode(o);
+		
+		BsonFactory fac = new BsonFactory();
+		BsonParser dec = fac.createParser(b);
+		assertEquals(JsonToken.START_OBJECT, dec.nextToken());
+		
+		assertEquals(JsonToken.FIELD_NAME, dec.nextToken());
+		assertNull(dec.getEmbeddedObject());
+		assertEquals(JsonToken.VALUE_NUMBER_FLOAT, dec.nextToken());
+		assertEquals(JsonParser.NumberType.DOUBLE, dec.getNumberType());
+		assertEquals(5.5, dec.getNumberValue());
+		assertEquals(5.5, dec.getDoubleValue(), 0.00001);
+		assertEquals(5.5f, dec.getFloatValue(), 0.00001);
+		assertEquals(5, dec.getIntValue());
+		assertEquals(new BigDecimal("5.5"), dec.getDecimalValue());
+		
+		assertEquals(JsonToken.FIELD_NAME, dec.nextToken());
+		assertEquals(JsonToken.VALUE_NUMBER_INT, dec.nextToken());
+		assertEquals(JsonParser.NumberType.INT, dec.getNumberType());
+		assertEquals(1234, dec.getNumberValue());
+		assertEquals(1234, dec.getIntValue());
+		assertEquals(1234L, dec.getLongValue());
+		assertEquals(1234.0, dec.getDoubleValue(), 0.00001);
+		assertEquals(BigInteger.valueOf(1234), dec.getBigIntegerValue());
+		
+		assertEquals(JsonToken.FIELD_NAME, dec.nextToken());
+		assertEquals(JsonToken.VALUE_NUMBER_INT, dec.nextToken());
+		assertEquals(JsonParser.NumberType.LONG, dec.getNumberType());
+		assertEquals(5000000000L, dec.getNumberValue());
+		assertEquals(5000000000L, dec.getLongValue());
+		assertEquals("5000000000", dec.getText());
+		assertEquals(BigInteger.valueOf(5000000000L), dec.getBigIntegerValue());
+		
+		assertEquals(JsonToken.FIELD_NAME, dec.nextToken());
+		assertEquals(JsonToken.VALUE_TRUE, dec.nextToken());
+		assertNull(dec.getNumberType());
+		assertEquals(true, dec.getEmbeddedObject());
+		assertEquals("true", dec.getText());
+		
+		assertEquals(JsonToken.END_OBJECT, dec.nextToken());
+		dec.close();
+	}
+	
 	/**
 	 * Tests if a simple BSON file can be read successfully
 	 * @throws Exception if something went wrong
@@ -683,4 +768,573 @@ public class BsonParserTest {
 		assertEquals(1, data.size());
 		assertEquals("MinKey", data.get("A"));
 	}
+	
+	/**
+	 * Creates a document containing various values
+	 * @return the document
+	 */
+	private static BSONObject createMixedObject() {
+		BSONObject o = new BasicBSONObject();
+		o.put("Double", 5.0);
+		o.put("String", "Hello W\u00F6rld");
+		o.put("Null", null);
+		o.put("Bool", true);
+		o.put("Int32", 1234);
+		o.put("Int64", 1234L);
+		o.put("Binary", new byte[] { 1, 2, 3 });
+		o.put("ObjectId", org.bson.types.ObjectId.createFromLegacyFormat(
+				Integer.MAX_VALUE, -2, Integer.MIN_VALUE));
+		o.put("Array", Arrays.asList("a", "b", 3));
+		BSONObject o2 = new BasicBSONObject();
+		o2.put("Int32", 5);
+		o2.put("String", "Test");
+		o.put("Document", o2);
+		return o;
+	}
+	
+	/**
+	 * Checks if the contents of a document created by {@link #createMixedObject()}
+	 * have been parsed correctly
+	 * @param data the parsed document
+	 */
+	private static void assertMixedObject(Map<?, ?> data) {
+		assertEquals(5.0, data.get("Double"));
+		assertEquals("Hello W\u00F6rld", data.get("String"));
+		assertNull(data.get("Null"));
+		assertTrue(data.containsKey("Null"));
+		assertEquals(true, data.get("Bool"));
+		assertEquals(1234, data.get("Int32"));
+		assertEquals(1234L, data.get("Int64"));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[])data.get("Binary"));
+		ObjectId oid = (ObjectId)data.get("ObjectId");
+		assertEquals(Integer.MAX_VALUE, oid.getTime());
+		assertEquals(-2, oid.getMachine());
+		assertEquals(Integer.MIN_VALUE, oid.getInc());
+		assertEquals(Arrays.asList("a", "b", 3), data.get("Array"));
+		Map<?, ?> data2 = (Map<?, ?>)data.get("Document");
+		assertEquals(5, data2.get("Int32"));
+		assertEquals("Test", data2.get("String"));
+	}
+	
+	/**
+	 * Tests if a document can be parsed directly from a byte array
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void parseByteArray() throws Exception {
+		byte[] b = new BasicBSONEncoder().encode(createMixedObject());
+		byte[] b2 = new byte[b.length + 20];
+		System.arraycopy(b, 0, b2, 10, b.length);
+		
+		BsonFactory fac = new BsonFactory();
+		ObjectMapper mapper = new ObjectMapper(fac);
+		fac.setCodec(mapper);
+		
+		assertMixedObject(mapper.readValue(b, Map.class));
+		assertMixedObject(mapper.readValue(b2, 10, b.length, Map.class));
+		
+		BsonParser p = fac.createParser(b2, 10, b.length);
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals("Double", p.getCurrentName());
+		assertEquals(4 + 1 + "Double".length() + 1, p.getCurrentLocation().getByteOffset());
+		p.close();
+	}
+	
+	/**
+	 * Tests if a document can be parsed directly from heap and direct
+	 * byte buffers
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void parseByteBuffer() throws Exception {
+		byte[] b = new BasicBSONEncoder().encode(createMixedObject());
+		
+		BsonFactory fac = new BsonFactory();
+		ObjectMapper mapper = new ObjectMapper(fac);
+		fac.setCodec(mapper);
+		
+		ByteBuffer heap = ByteBuffer.allocate(b.length + 10);
+		heap.position(10);
+		heap.put(b);
+		heap.position(10);
+		assertMixedObject(mapper.readValue(fac.createParser(heap), Map.class));
+		assertEquals(10, heap.position());
+		
+		ByteBuffer direct = ByteBuffer.allocateDirect(b.length);
+		direct.put(b);
+		direct.flip();
+		assertMixedObject(mapper.readValue(fac.createParser(direct), Map.class));
+	}
+	
+	/**
+	 * Tests if field names are canonicalized across parsers created by
+	 * the same factory
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void canonicalizeFieldNames() throws Exception {
+		BSONObject o = new BasicBSONObject();
+		o.put("first", 1);
+		o.put("s\u00E9cond", 2);
+		byte[] b = new BasicBSONEncoder().encode(o);
+		
+		BsonFactory fac = new BsonFactory();
+		ObjectMapper mapper = new ObjectMapper(fac);
+		Map<?, ?> m1 = mapper.readValue(b, Map.class);
+		Map<?, ?> m2 = mapper.readValue(new ByteArrayInputStream(b), Map.class);
+		assertEquals(m1, m2);
+		for (Object k1 : m1.keySet()) {
+			boolean found = false;
+			for (Object k2 : m2.keySet()) {
+				if (k1 == k2) {
+					found = true;
+				}
+			}
+			assertTrue(found);
+		}
+		assertTrue(m1.keySet().iterator().next() == "first");
+		
+		fac.disable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES);
+		Map<?, ?> m3 = mapper.readValue(b, Map.class);
+		assertEquals(m1, m3);
+		assertTrue(m3.keySet().iterator().next() != "first");
+	}
+	
+	/**
+	 * Creates a document with an embedded document and an embedded array
+	 * that should be skipped followed by an integer field
+	 * @return the document
+	 */
+	private static BSONObject createSkipObject() {
+		BSONObject scope = new BasicBSONObject();
+		scope.put("Int32", 5);
+		BSONObject skip = createMixedObject();
+		skip.put("Code", new CodeWScope("alert('test');", scope));
+		skip.put("Regex", Pattern.compile("a.*b", Pattern.CASE_INSENSITIVE));
+		skip.put("Symbol", new Symbol("symbol"));
+		skip.put("Timestamp", new BSONTimestamp(1, 2));
+		skip.put("UUID", new UUID(1L, 2L));
+		
+		BSONObject o = new BasicBSONObject();
+		o.put("skip", skip);
+		o.put("skipArray", Arrays.asList(skip, "a", 1));
+		o.put("after", 42);
+		return o;
+	}
+	
+	/**
+	 * Parses a document created by {@link #createSkipObject()} and skips
+	 * the embedded document and the embedded array
+	 * @param p the parser
+	 * @throws Exception if something goes wrong
+	 */
+	private static void assertSkipChildren(JsonParser p) throws Exception {
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals("skip", p.getCurrentName());
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		assertTrue(p.skipChildren() == p);
+		assertEquals(JsonToken.END_OBJECT, p.getCurrentToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals("skipArray", p.getCurrentName());
+		assertEquals(JsonToken.START_ARRAY, p.nextToken());
+		p.skipChildren();
+		assertEquals(JsonToken.END_ARRAY, p.getCurrentToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals("after", p.getCurrentName());
+		assertEquals(JsonToken.VALUE_NUMBER_INT, p.nextToken());
+		assertEquals(42, p.getIntValue());
+		
+		//skipping a scalar value does nothing
+		p.skipChildren();
+		assertEquals(JsonToken.VALUE_NUMBER_INT, p.getCurrentToken());
+		assertEquals(JsonToken.END_OBJECT, p.nextToken());
+		assertNull(p.nextToken());
+		p.close();
+	}
+	
+	/**
+	 * Tests if {@link BsonParser#skipChildren()} skips embedded documents
+	 * and arrays using their declared length
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void skipChildren() throws Exception {
+		byte[] b = new BasicBSONEncoder().encode(createSkipObject());
+		BsonFactory fac = new BsonFactory();
+		assertSkipChildren(fac.createParser(b));
+		assertSkipChildren(fac.createParser(new ByteArrayInputStream(b)));
+		
+		fac.enable(BsonParser.Feature.HONOR_DOCUMENT_LENGTH);
+		assertSkipChildren(fac.createParser(new ByteArrayInputStream(b)));
+		
+		ObjectMapper mapper = new ObjectMapper(new BsonFactory());
+		mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+		assertEquals(42, mapper.readValue(b, AfterClass.class).after);
+	}
+	
+	/**
+	 * Tests if {@link BsonParser#skipChildren()} skips embedded documents
+	 * and arrays written by a streaming generator (i.e. without a
+	 * declared length)
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void skipChildrenStreaming() throws Exception {
+		Map<String, Object> skip = new LinkedHashMap<String, Object>();
+		skip.put("String", "Hello W\u00F6rld");
+		skip.put("Binary", new byte[] { 1, 2, 3 });
+		skip.put("Double", 5.0);
+		skip.put("Array", Arrays.asList("a", 1, Collections.singletonMap("b", 2)));
+		skip.put("Code", new JavaScript("alert('test');",
+				Collections.<String, Object>singletonMap("Int32", 5)));
+		skip.put("Document", Collections.singletonMap("Int64", 1234L));
+		Map<String, Object> o = new LinkedHashMap<String, Object>();
+		o.put("skip", skip);
+		o.put("skipArray", Arrays.asList(skip, "a", 1));
+		o.put("after", 42);
+		
+		BsonFactory fac = new BsonFactory();
+		fac.enable(BsonGenerator.Feature.ENABLE_STREAMING);
+		ObjectMapper mapper = new ObjectMapper(fac);
+		mapper.registerModule(new BsonModule());
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		mapper.writeValue(baos, o);
+		byte[] b = baos.toByteArray();
+		
+		//make sure the embedded document does not declare its length
+		assertEquals(0, ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN)
+				.getInt(4 + 1 + "skip".length() + 1));
+		
+		assertSkipChildren(fac.createParser(b));
+		assertSkipChildren(fac.createParser(new ByteArrayInputStream(b)));
+	}
+	
+	/**
+	 * Tests if values can be decoded lazily
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void deferValueDecoding() throws Exception {
+		BSONObject o = createMixedObject();
+		o.put("Regex", Pattern.compile("a.*b", Pattern.CASE_INSENSITIVE));
+		o.put("Code", new Code("alert('Hello');"));
+		o.put("Symbol", new Symbol("symbol"));
+		o.put("Timestamp", new BSONTimestamp(1, 2));
+		o.put("UUID", new UUID(1L, 2L));
+		byte[] b = new BasicBSONEncoder().encode(o);
+		
+		BsonFactory fac = new BsonFactory();
+		fac.enable(BsonParser.Feature.DEFER_VALUE_DECODING);
+		ObjectMapper mapper = new ObjectMapper(fac);
+		fac.setCodec(mapper);
+		
+		Map<?, ?> data = mapper.readValue(b, Map.class);
+		assertMixedObject(data);
+		assertEquals(Pattern.compile("a.*b", Pattern.CASE_INSENSITIVE).pattern(),
+				((Pattern)data.get("Regex")).pattern());
+		assertEquals("alert('Hello');", ((JavaScript)data.get("Code")).getCode());
+		assertEquals(new org.litote.bson4jackson.types.Symbol("symbol"),
+				data.get("Symbol"));
+		assertEquals(new Timestamp(1, 2), data.get("Timestamp"));
+		assertEquals(new UUID(1L, 2L), data.get("UUID"));
+		
+		assertMixedObject(mapper.readValue(fac.createParser(ByteBuffer.wrap(b)), Map.class));
+		
+		//values that are accessed later must not depend on the read position
+		BsonParser p = fac.createParser(b);
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		while (!"String".equals(p.getCurrentName())) {
+			p.nextToken();
+		}
+		assertEquals(JsonToken.VALUE_STRING, p.nextToken());
+		long pos = p.getCurrentLocation().getByteOffset();
+		assertEquals("Hello W\u00F6rld", p.getText());
+		assertEquals(pos, p.getCurrentLocation().getByteOffset());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals("Null", p.getCurrentName());
+		p.close();
+	}
+	
+	/**
+	 * Tests if values that are never accessed are not decoded if
+	 * decoding is deferred
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void deferValueDecodingInvalidValue() throws Exception {
+		BSONObject o = new BasicBSONObject();
+		o.put("bad", "ab");
+		o.put("ok", 1);
+		byte[] b = new BasicBSONEncoder().encode(o);
+		
+		//replace "ab" by an invalid UTF-8 sequence
+		int i = 4 + 1 + "bad".length() + 1 + 4;
+		assertEquals('a', b[i]);
+		b[i] = (byte)0xC3;
+		b[i + 1] = (byte)0x28;
+		
+		BsonFactory fac = new BsonFactory();
+		BsonParser p = fac.createParser(b);
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		try {
+			p.nextToken();
+			fail("Parser should have decoded the invalid string");
+		} catch (CharacterCodingException e) {
+			//this is what we expect
+		}
+		p.close();
+		
+		fac.enable(BsonParser.Feature.DEFER_VALUE_DECODING);
+		p = fac.createParser(b);
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals(JsonToken.VALUE_STRING, p.nextToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals("ok", p.getCurrentName());
+		assertEquals(JsonToken.VALUE_NUMBER_INT, p.nextToken());
+		assertEquals(1, p.getIntValue());
+		assertEquals(JsonToken.END_OBJECT, p.nextToken());
+		p.close();
+		
+		p = fac.createParser(b);
+		p.nextToken();
+		p.nextToken();
+		p.nextToken();
+		try {
+			p.getText();
+			fail("Parser should have decoded the invalid string");
+		} catch (CharacterCodingException e) {
+			//this is what we expect
+		}
+		p.close();
+	}
+	
+	/**
+	 * Reads all documents from a parser
+	 * @param mapper the object mapper to use
+	 * @param p the parser
+	 * @return the documents read
+	 * @throws Exception if something goes wrong
+	 */
+	private static List<Map<?, ?>> readAll(ObjectMapper mapper, JsonParser p)
+			throws Exception {
+		List<Map<?, ?>> r = new ArrayList<Map<?, ?>>();
+		while (p.nextToken() != null) {
+			r.add(mapper.readValue(p, Map.class));
+		}
+		p.close();
+		return r;
+	}
+	
+	/**
+	 * Checks the documents read by {@link #memoryMappedFile()}
+	 * @param docs the documents
+	 * @param big the expected value of the field "Big"
+	 */
+	private static void assertMappedDocuments(List<Map<?, ?>> docs, String big) {
+		assertEquals(3, docs.size());
+		for (int i = 0; i < docs.size(); ++i) {
+			assertMixedObject(docs.get(i));
+			assertEquals(big, docs.get(i).get("Big"));
+			assertEquals(i, docs.get(i).get("i"));
+		}
+	}
+	
+	/**
+	 * Tests if a file containing multiple documents can be parsed with
+	 * {@link BsonParser.Feature#MEMORY_MAP_FILES} enabled and if documents
+	 * spanning multiple mapped windows are handled correctly
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void memoryMappedFile() throws Exception {
+		BSONObject o = createMixedObject();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; ++i) {
+			sb.append("Hello W\u00F6rld ");
+		}
+		o.put("Big", sb.toString());
+		File f = folder.newFile();
+		FileOutputStream fos = new FileOutputStream(f);
+		try {
+			for (int i = 0; i < 3; ++i) {
+				o.put("i", i);
+				fos.write(new BasicBSONEncoder().encode(o));
+			}
+		} finally {
+			fos.close();
+		}
+		
+		for (boolean defer : new boolean[] { false, true }) {
+			BsonFactory fac = new BsonFactory();
+			fac.configure(BsonParser.Feature.DEFER_VALUE_DECODING, defer);
+			fac.enable(BsonParser.Feature.MEMORY_MAP_FILES);
+			ObjectMapper mapper = new ObjectMapper(fac);
+			fac.setCodec(mapper);
+			
+			assertMappedDocuments(readAll(mapper, fac.createParser(f)), sb.toString());
+			
+			//use tiny windows so values and documents span windows
+			for (int windowSize : new int[] { 1, 7, 64 }) {
+				FileInputStream fis = new FileInputStream(f);
+				MappedFileInputStream in = new MappedFileInputStream(
+						fis.getChannel(), windowSize);
+				BsonParser p = fac._createParser(in,
+						new IOContext(new BufferRecycler(), f, true));
+				assertMappedDocuments(readAll(mapper, p), sb.toString());
+				assertFalse(fis.getChannel().isOpen());
+			}
+		}
+	}
+	
+	/**
+	 * Tests if only the fields of a projection are returned and if the
+	 * values of other fields are skipped without being decoded
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void projection() throws Exception {
+		BSONObject a = new BasicBSONObject();
+		a.put("b", 1);
+		a.put("c", "x");
+		BSONObject e1 = new BasicBSONObject();
+		e1.put("b", 1);
+		e1.put("c", 2);
+		BSONObject e2 = new BasicBSONObject();
+		e2.put("b", 3);
+		BSONObject o = new BasicBSONObject();
+		o.put("bad", "ab");
+		o.put("a", a);
+		o.put("tags", Arrays.asList("x", "y"));
+		o.put("s", "skip");
+		o.put("arr", Arrays.asList(e1, e2));
+		o.put("n", 5);
+		o.put("Document", createMixedObject());
+		byte[] b = new BasicBSONEncoder().encode(o);
+		
+		//replace "ab" by an invalid UTF-8 sequence. the parser
+		//must not decode it.
+		int i = 4 + 1 + "bad".length() + 1 + 4;
+		assertEquals('a', b[i]);
+		b[i] = (byte)0xC3;
+		b[i + 1] = (byte)0x28;
+		
+		BsonFactory fac = new BsonFactory();
+		ObjectMapper mapper = new ObjectMapper(fac);
+		fac.setCodec(mapper);
+		
+		for (boolean array : new boolean[] { true, false }) {
+			BsonParser p = array ? fac.createParser(b) :
+				fac.createParser(new ByteArrayInputStream(b));
+			p.setProjection(BsonProjection.of("a.b", "tags", "arr.b", "n.x",
+					"Document.Int32", "Document.Document"));
+			Map<?, ?> data = mapper.readValue(p, Map.class);
+			assertEquals("{a={b=1}, tags=[x, y], arr=[{b=1}, {b=3}], "
+					+ "Document={Int32=1234, Document={Int32=5, String=Test}}}",
+					data.toString());
+			p.close();
+		}
+		
+		BsonParser p = fac.createParser(b);
+		p.setProjection(BsonProjection.of("s"));
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals("s", p.getCurrentName());
+		assertEquals(JsonToken.VALUE_STRING, p.nextToken());
+		assertEquals("skip", p.getText());
+		assertEquals(JsonToken.END_OBJECT, p.nextToken());
+		p.close();
+	}
+	
+	/**
+	 * Tests if a parser can be reset to read another document, even
+	 * if it has not read the previous one completely
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void reset() throws Exception {
+		byte[] first = new BasicBSONEncoder().encode(new BasicBSONObject("a", "first"));
+		BSONObject o = new BasicBSONObject();
+		o.put("Int32", 5);
+		o.put("String", "Hello W\u00F6rld");
+		o.put("Array", Arrays.asList(1, "b", 3.0));
+		o.put("Document", new BasicBSONObject("Int64", 1234L));
+		byte[] second = new BasicBSONEncoder().encode(o);
+		
+		BsonFactory fac = new BsonFactory();
+		ObjectMapper mapper = new ObjectMapper(fac);
+		fac.setCodec(mapper);
+		Map<?, ?> expected = mapper.readValue(second, Map.class);
+		
+		BsonParser p = fac.createParser(new ByteArrayInputStream(first));
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		
+		byte[] padded = new byte[second.length + 10];
+		System.arraycopy(second, 0, padded, 5, second.length);
+		p.reset(padded, 5, second.length);
+		assertNull(p.getCurrentToken());
+		assertFalse(p.isClosed());
+		assertEquals(expected, p.readValueAs(Map.class));
+		assertNull(p.nextToken());
+		p.close();
+		
+		p.resetInputStream(new ByteArrayInputStream(first));
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals("a", p.getCurrentName());
+		assertEquals(JsonToken.VALUE_STRING, p.nextToken());
+		assertEquals("first", p.getText());
+		
+		p.resetInputStream(new ByteArrayInputStream(second));
+		assertEquals(expected, p.readValueAs(Map.class));
+		assertNull(p.nextToken());
+		p.close();
+	}
+	
+	/**
+	 * Tests if {@link BsonParser#readRawDocument()} rejects documents
+	 * whose header declares more bytes than the input contains and
+	 * reads large documents from streams correctly
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void readRawDocumentLength() throws Exception {
+		byte[] valid = new BasicBSONEncoder().encode(new BasicBSONObject("a", 1));
+		byte[] invalid = valid.clone();
+		invalid[0] = (byte)0xF0;
+		invalid[1] = (byte)0xFF;
+		invalid[2] = (byte)0xFF;
+		invalid[3] = (byte)0x7F;
+		
+		BsonFactory fac = new BsonFactory();
+		for (int i = 0; i < 2; ++i) {
+			BsonParser p = i == 0 ? fac.createParser(invalid) :
+				fac.createParser(new ByteArrayInputStream(invalid));
+			assertEquals(JsonToken.START_OBJECT, p.nextToken());
+			try {
+				p.readRawDocument();
+				fail("Parser should have rejected invalid document length");
+			} catch (JsonParseException e) {
+				//this is what we expect
+			}
+			p.close();
+		}
+		
+		char[] chars = new char[BsonParser.MAX_RAW_DOCUMENT_ALLOCATION];
+		Arrays.fill(chars, 'x');
+		byte[] large = new BasicBSONEncoder().encode(
+				new BasicBSONObject("s", new String(chars)));
+		for (byte[] b : new byte[][] { valid, large }) {
+			BsonParser p = fac.createParser(new ByteArrayInputStream(b));
+			assertEquals(JsonToken.START_OBJECT, p.nextToken());
+			assertArrayEquals(b, p.readRawDocument());
+			assertEquals(JsonToken.END_OBJECT, p.getCurrentToken());
+			assertNull(p.nextToken());
+			p.close();
+		}
+	}
 }
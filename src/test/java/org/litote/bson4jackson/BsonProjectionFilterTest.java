@@ -0,0 +1,136 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.filter.FilteringParserDelegate;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests {@link BsonProjectionFilter}
+ * @author Michel Kraemer
+ */
+@Category(value = RequiresJackson_v2_7.class)
+public class BsonProjectionFilterTest {
+	/**
+	 * The expected result of applying {@link #PROJECTION} to the
+	 * document created by {@link #createDocument()}
+	 */
+	private static final String EXPECTED = "{a={b=1}, tags=[x, y], arr=[{b=1}, {b=3}]}";
+	
+	/**
+	 * The projection to apply
+	 */
+	private static final BsonProjection PROJECTION =
+			BsonProjection.of("a.b", "tags", "arr.b");
+	
+	/**
+	 * @return a document to filter
+	 */
+	private static BSONObject createDocument() {
+		BSONObject a = new BasicBSONObject();
+		a.put("b", 1);
+		a.put("c", "x");
+		BSONObject e1 = new BasicBSONObject();
+		e1.put("b", 1);
+		e1.put("c", 2);
+		BSONObject e2 = new BasicBSONObject();
+		e2.put("b", 3);
+		BSONObject o = new BasicBSONObject();
+		o.put("a", a);
+		o.put("tags", Arrays.asList("x", "y"));
+		o.put("s", "skip");
+		o.put("arr", Arrays.asList(1, e1, "x", e2));
+		return o;
+	}
+	
+	/**
+	 * Makes sure the projection is applied natively to BSON parsers
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void bsonParser() throws Exception {
+		BsonFactory fac = new BsonFactory();
+		ObjectMapper mapper = new ObjectMapper(fac);
+		byte[] b = new BasicBSONEncoder().encode(createDocument());
+		BsonParser p = fac.createParser(b);
+		assertSame(p, BsonProjectionFilter.filter(p, PROJECTION));
+		assertEquals(EXPECTED, mapper.readValue(p, Map.class).toString());
+		p.close();
+	}
+	
+	/**
+	 * Applies the filter to a JSON parser
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void jsonParser() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		StringWriter sw = new StringWriter();
+		mapper.writeValue(sw, createDocument().toMap());
+		JsonParser p = new JsonFactory().createParser(sw.toString());
+		JsonParser fp = BsonProjectionFilter.filter(p, PROJECTION);
+		assertTrue(fp instanceof FilteringParserDelegate);
+		assertEquals(EXPECTED, mapper.readValue(fp, Map.class).toString());
+		fp.close();
+	}
+	
+	/**
+	 * Makes sure the native projection and the filter skip the same
+	 * scalar elements of arrays on a partial path
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void mixedArray() throws Exception {
+		BSONObject e = new BasicBSONObject();
+		e.put("b", 2);
+		e.put("c", 3);
+		BSONObject o = new BasicBSONObject();
+		o.put("arr", Arrays.asList(1, e, "x", Arrays.asList(4, e, 5), 6));
+		byte[] b = new BasicBSONEncoder().encode(o);
+		StringWriter sw = new StringWriter();
+		new ObjectMapper().writeValue(sw, o.toMap());
+		BsonProjection projection = BsonProjection.of("arr.b");
+		String expected = "{arr=[{b=2}, [{b=2}]]}";
+		
+		BsonFactory fac = new BsonFactory();
+		ObjectMapper mapper = new ObjectMapper(fac);
+		BsonParser p = fac.createParser(b);
+		assertSame(p, BsonProjectionFilter.filter(p, projection));
+		assertEquals(expected, mapper.readValue(p, Map.class).toString());
+		p.close();
+		
+		JsonParser fp = BsonProjectionFilter.filter(
+				new JsonFactory().createParser(sw.toString()), projection);
+		assertTrue(fp instanceof FilteringParserDelegate);
+		assertEquals(expected, mapper.readValue(fp, Map.class).toString());
+		fp.close();
+	}
+}
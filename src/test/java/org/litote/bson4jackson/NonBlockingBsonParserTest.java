@@ -0,0 +1,368 @@
+// Copyright 2010-2017 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
+import org.bson.types.BSONTimestamp;
+import org.bson.types.CodeWScope;
+import org.bson.types.Symbol;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.litote.bson4jackson.types.JavaScript;
+
+/**
+ * Tests {@link NonBlockingBsonParser}
+ * @author Michel Kraemer
+ */
+@Category(value = RequiresJackson_v2_9.class)
+public class NonBlockingBsonParserTest {
+	/**
+	 * @return a document containing various values
+	 */
+	private static byte[] createDocument() {
+		BSONObject scope = new BasicBSONObject();
+		scope.put("Int32", 5);
+		BSONObject embedded = new BasicBSONObject();
+		embedded.put("Int64", 1234L);
+		embedded.put("Array", Arrays.asList("a", "b", 3));
+
+		BSONObject o = new BasicBSONObject();
+		o.put("Double", 5.0);
+		o.put("String", "Hello W\u00F6rld");
+		o.put("Null", null);
+		o.put("Bool", true);
+		o.put("Binary", new byte[] { 1, 2, 3 });
+		o.put("UUID", new UUID(1L, 2L));
+		o.put("Document", embedded);
+		o.put("Regex", Pattern.compile("a.*b"));
+		o.put("Symbol", new Symbol("symbol"));
+		o.put("Timestamp", new BSONTimestamp(1, 2));
+		o.put("Code", new CodeWScope("alert('test');", scope));
+		o.put("Int32", 1234);
+		return new BasicBSONEncoder().encode(o);
+	}
+
+	/**
+	 * Reads all tokens from a parser and converts them to strings
+	 * @param p the parser
+	 * @param tokens the list the tokens will be added to
+	 * @return true if the parser returned {@link JsonToken#NOT_AVAILABLE}
+	 * @throws Exception if something goes wrong
+	 */
+	private static boolean readTokens(JsonParser p, List<String> tokens) throws Exception {
+		JsonToken t;
+		while ((t = p.nextToken()) != null) {
+			if (t == JsonToken.NOT_AVAILABLE) {
+				return true;
+			}
+			String s = t + " " + p.getCurrentName();
+			if (t == JsonToken.VALUE_EMBEDDED_OBJECT) {
+				Object o = p.getEmbeddedObject();
+				if (o instanceof byte[]) {
+					s += " " + Arrays.toString((byte[])o);
+				} else if (o instanceof Pattern) {
+					s += " " + ((Pattern)o).pattern();
+				} else if (o instanceof JavaScript) {
+					s += " " + ((JavaScript)o).getCode() + " " + ((JavaScript)o).getScope();
+				} else {
+					s += " " + o;
+				}
+			} else if (t.isScalarValue()) {
+				s += " " + p.getText();
+			}
+			tokens.add(s);
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the given data with a blocking parser
+	 * @param fac the factory to use
+	 * @param data the data to parse
+	 * @return the tokens read
+	 * @throws Exception if something goes wrong
+	 */
+	private static List<String> readBlocking(BsonFactory fac, byte[] data) throws Exception {
+		return readBlocking(fac, data, null);
+	}
+
+	/**
+	 * Parses the given data with a blocking parser
+	 * @param fac the factory to use
+	 * @param data the data to parse
+	 * @param projection the projection to apply (may be null)
+	 * @return the tokens read
+	 * @throws Exception if something goes wrong
+	 */
+	private static List<String> readBlocking(BsonFactory fac, byte[] data,
+			BsonProjection projection) throws Exception {
+		List<String> r = new ArrayList<String>();
+		BsonParser p = fac.createParser(data);
+		p.setProjection(projection);
+		readTokens(p, r);
+		p.close();
+		return r;
+	}
+
+	/**
+	 * Feeds data in chunks of the given size to a non-blocking parser
+	 * @param fac the factory to use
+	 * @param data the data to feed
+	 * @param chunkSize the chunk size
+	 * @return the tokens read
+	 * @throws Exception if something goes wrong
+	 */
+	private static List<String> readNonBlocking(BsonFactory fac, byte[] data,
+			int chunkSize) throws Exception {
+		return readNonBlocking(fac, data, chunkSize, null);
+	}
+
+	/**
+	 * Feeds data in chunks of the given size to a non-blocking parser
+	 * @param fac the factory to use
+	 * @param data the data to feed
+	 * @param chunkSize the chunk size
+	 * @param projection the projection to apply (may be null)
+	 * @return the tokens read
+	 * @throws Exception if something goes wrong
+	 */
+	private static List<String> readNonBlocking(BsonFactory fac, byte[] data,
+			int chunkSize, BsonProjection projection) throws Exception {
+		List<String> r = new ArrayList<String>();
+		BsonParser p = fac.createNonBlockingByteArrayParser();
+		p.setProjection(projection);
+		assertTrue(p.canParseAsync());
+		ByteArrayFeeder feeder = (ByteArrayFeeder)p.getNonBlockingInputFeeder();
+		byte[] chunk = new byte[chunkSize];
+		int pos = 0;
+		while (pos < data.length) {
+			assertTrue(feeder.needMoreInput());
+			int len = Math.min(chunkSize, data.length - pos);
+			System.arraycopy(data, pos, chunk, 0, len);
+			feeder.feedInput(chunk, 0, len);
+			//the parser must not keep a reference to our array
+			Arrays.fill(chunk, (byte)0xFF);
+			pos += len;
+			if (!readTokens(p, r)) {
+				fail("Parser should not have returned null before end of input");
+			}
+		}
+		feeder.endOfInput();
+		assertFalse(readTokens(p, r));
+		p.close();
+		return r;
+	}
+
+	/**
+	 * Feeds a document in chunks of various sizes
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void feedChunks() throws Exception {
+		BsonFactory fac = new BsonFactory();
+		fac.setCodec(new ObjectMapper(fac));
+		byte[] data = createDocument();
+		List<String> expected = readBlocking(fac, data);
+		assertTrue(expected.size() > 20);
+		for (int chunkSize : new int[] { 1, 2, 3, 7, 64, data.length }) {
+			assertEquals(expected, readNonBlocking(fac, data, chunkSize));
+		}
+	}
+
+	/**
+	 * Feeds a sequence of documents
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void feedSequence() throws Exception {
+		BsonFactory fac = new BsonFactory();
+		fac.setCodec(new ObjectMapper(fac));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 3; ++i) {
+			BSONObject o = new BasicBSONObject();
+			o.put("i", i);
+			o.put("s", "Document " + i);
+			byte[] b = new BasicBSONEncoder().encode(o);
+			expected.addAll(readBlocking(fac, b));
+			baos.write(b);
+		}
+		assertEquals(expected, readNonBlocking(fac, baos.toByteArray(), 5));
+	}
+
+	/**
+	 * Feeds a document in small chunks while a projection skips
+	 * several consecutive fields
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void feedChunksWithProjection() throws Exception {
+		BSONObject embedded = new BasicBSONObject();
+		embedded.put("a", "Hello");
+		embedded.put("keep", 1);
+		BSONObject o = new BasicBSONObject();
+		o.put("skip", "xxxxxxxx");
+		o.put("skipDocument", embedded);
+		o.put("skipArray", Arrays.asList(1, 2, 3));
+		o.put("keep", "b");
+		o.put("nested", embedded);
+		o.put("mixed", Arrays.asList("xxxxxxxx", embedded, 2, "y"));
+		byte[] data = new BasicBSONEncoder().encode(o);
+
+		BsonFactory fac = new BsonFactory();
+		fac.setCodec(new ObjectMapper(fac));
+		BsonProjection projection = BsonProjection.of("keep", "nested.keep",
+				"mixed.keep");
+		List<String> expected = readBlocking(fac, data, projection);
+		assertEquals(16, expected.size());
+		assertTrue(expected.contains("VALUE_STRING keep b"));
+		assertTrue(expected.contains("VALUE_NUMBER_INT keep 1"));
+		for (int chunkSize : new int[] { 1, 2, 3, 7, data.length }) {
+			assertEquals(expected, readNonBlocking(fac, data, chunkSize,
+					projection));
+		}
+	}
+
+	/**
+	 * Tests if a parser can be reset to read another document, even
+	 * if it has not read the previous one completely
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void reset() throws Exception {
+		byte[] data = createDocument();
+		BsonFactory fac = new BsonFactory();
+		fac.setCodec(new ObjectMapper(fac));
+		List<String> expected = readBlocking(fac, data);
+
+		BsonParser p = fac.createNonBlockingByteArrayParser();
+		ByteArrayFeeder feeder = (ByteArrayFeeder)p.getNonBlockingInputFeeder();
+		feeder.feedInput(data, 0, 20);
+		feeder.endOfInput();
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+
+		for (int i = 0; i < 2; ++i) {
+			byte[] padded = new byte[data.length + 10];
+			System.arraycopy(data, 0, padded, 5, data.length);
+			p.reset(padded, 5, data.length / 2);
+			assertNull(p.getCurrentToken());
+			assertFalse(p.isClosed());
+			List<String> actual = new ArrayList<String>();
+			assertTrue(readTokens(p, actual));
+			feeder.feedInput(data, data.length / 2, data.length);
+			feeder.endOfInput();
+			assertFalse(readTokens(p, actual));
+			assertEquals(expected, actual);
+		}
+		p.close();
+	}
+
+	/**
+	 * Makes sure the parser reports incomplete input
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void incompleteInput() throws Exception {
+		byte[] data = createDocument();
+		BsonFactory fac = new BsonFactory();
+		fac.setCodec(new ObjectMapper(fac));
+		JsonParser p = fac.createNonBlockingByteArrayParser();
+		ByteArrayFeeder feeder = (ByteArrayFeeder)p.getNonBlockingInputFeeder();
+		feeder.feedInput(data, 0, data.length - 1);
+		JsonToken t;
+		while ((t = p.nextToken()) != JsonToken.NOT_AVAILABLE) {
+			assertTrue(t != null);
+		}
+		assertTrue(feeder.needMoreInput());
+		feeder.endOfInput();
+		assertFalse(feeder.needMoreInput());
+		try {
+			p.nextToken();
+			fail("Parser should have reported unexpected end of input");
+		} catch (JsonParseException e) {
+			//this is what we expect
+		}
+		p.close();
+	}
+
+	/**
+	 * Tests if embedded documents can be skipped or read raw once they
+	 * have been fed completely
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void skipChildren() throws Exception {
+		BSONObject embedded = new BasicBSONObject();
+		embedded.put("a", "Hello");
+		embedded.put("b", 2);
+		BSONObject o = new BasicBSONObject();
+		o.put("skip", embedded);
+		o.put("after", 42);
+		byte[] data = new BasicBSONEncoder().encode(o);
+
+		JsonParser p = new BsonFactory().createNonBlockingByteArrayParser();
+		ByteArrayFeeder feeder = (ByteArrayFeeder)p.getNonBlockingInputFeeder();
+		feeder.feedInput(data, 0, 15);
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals(JsonToken.START_OBJECT, p.nextToken());
+		try {
+			p.skipChildren();
+			fail("Parser should not be able to skip incomplete document");
+		} catch (JsonParseException e) {
+			//this is what we expect
+		}
+		try {
+			((BsonParser)p).readRawDocument();
+			fail("Parser should not be able to read incomplete document");
+		} catch (JsonParseException e) {
+			//this is what we expect
+		}
+
+		feeder.feedInput(data, 15, data.length);
+		feeder.endOfInput();
+		p.skipChildren();
+		assertEquals(JsonToken.END_OBJECT, p.getCurrentToken());
+		assertEquals(JsonToken.FIELD_NAME, p.nextToken());
+		assertEquals("after", p.getCurrentName());
+		assertEquals(JsonToken.VALUE_NUMBER_INT, p.nextToken());
+		assertEquals(42, p.getIntValue());
+		assertEquals(JsonToken.END_OBJECT, p.nextToken());
+		assertNull(p.nextToken());
+		p.close();
+	}
+}
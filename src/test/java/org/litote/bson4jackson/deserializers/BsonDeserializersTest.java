@@ -14,9 +14,14 @@
 
 package org.litote.bson4jackson.deserializers;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.UUID;
@@ -33,9 +38,11 @@ import org.junit.Test;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.litote.bson4jackson.BsonFactory;
+import org.litote.bson4jackson.BsonGenerator;
 import org.litote.bson4jackson.BsonModule;
 import org.litote.bson4jackson.types.JavaScript;
 import org.litote.bson4jackson.types.ObjectId;
+import org.litote.bson4jackson.types.RawBsonDocument;
 import org.litote.bson4jackson.types.Symbol;
 import org.litote.bson4jackson.types.Timestamp;
 
@@ -82,6 +89,10 @@ public class BsonDeserializersTest {
 		public static class U {
 			public UUID obj;
 		};
+		
+		public static class W {
+			public RawBsonDocument obj;
+		};
 	}
 	
 	private static <T> T generateAndParse(Object o, Class<T> cls) throws Exception {
@@ -193,4 +204,50 @@ public class BsonDeserializersTest {
 		TC.U obj = generateAndParse(uuid, TC.U.class);
 		assertEquals(uuid, obj.obj);
 	}
+	
+	/**
+	 * Tests {@link BsonRawDocumentDeserializer}
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void rawDocument() throws Exception {
+		BSONObject doc = new BasicBSONObject();
+		doc.put("a", 1);
+		doc.put("b", "Hello");
+		doc.put("c", Arrays.asList(1, 2));
+		doc.put("d", new CodeWScope("code", new BasicBSONObject("x", 1)));
+		doc.put("e", new BasicBSONObject("f", new org.bson.types.ObjectId()));
+		byte[] expected = new BasicBSONEncoder().encode(doc);
+		
+		TC.W obj = generateAndParse(doc, TC.W.class);
+		assertArrayEquals(expected, obj.obj.toByteArray());
+		
+		//read top-level document
+		ObjectMapper om = new ObjectMapper(new BsonFactory());
+		om.registerModule(new BsonModule());
+		assertArrayEquals(expected, om.readValue(expected,
+				RawBsonDocument.class).toByteArray());
+		
+		//documents written by a streaming generator do not contain
+		//their lengths. they must be calculated.
+		BsonFactory fac = new BsonFactory();
+		fac.enable(BsonGenerator.Feature.ENABLE_STREAMING);
+		ObjectMapper som = new ObjectMapper(fac);
+		som.registerModule(new BsonModule());
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("obj", om.readValue(expected, Map.class));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		som.writeValue(baos, m);
+		obj = om.readValue(baos.toByteArray(), TC.W.class);
+		assertArrayEquals(expected, obj.obj.toByteArray());
+		
+		//read from JSON
+		ObjectMapper jom = new ObjectMapper();
+		jom.registerModule(new BsonModule());
+		RawBsonDocument raw = jom.readValue("{\"a\":1,\"b\":\"Hello\"}",
+				RawBsonDocument.class);
+		BSONObject expectedJson = new BasicBSONObject("a", 1);
+		expectedJson.put("b", "Hello");
+		assertArrayEquals(new BasicBSONEncoder().encode(expectedJson), raw.toByteArray());
+	}
 }
@@ -0,0 +1,241 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.litote.bson4jackson.BsonFactory;
+
+/**
+ * Tests {@link BufferPool} implementations
+ * @author Michel Kraemer
+ */
+public class BufferPoolTest {
+	/**
+	 * Tests if the shared pool re-uses buffers and respects its bound
+	 */
+	@Test
+	public void shared() {
+		SharedBufferPool pool = new SharedBufferPool(2);
+		ByteBuffer a = pool.acquireByteBuffer(10);
+		ByteBuffer b = pool.acquireByteBuffer(10);
+		ByteBuffer c = pool.acquireByteBuffer(10);
+		assertEquals(AbstractBufferPool.MIN_BUFFER_SIZE, a.capacity());
+		assertEquals(0, pool.getHitCount());
+		assertEquals(3, pool.getMissCount());
+		
+		pool.releaseByteBuffer(a);
+		pool.releaseByteBuffer(b);
+		pool.releaseByteBuffer(c);
+		assertEquals(2, pool.size());
+		
+		a.position(5);
+		ByteBuffer d = pool.acquireByteBuffer(10);
+		assertSame(a, d);
+		assertEquals(0, d.position());
+		assertEquals(d.capacity(), d.limit());
+		assertEquals(1, pool.getHitCount());
+		
+		//too small buffers should be kept for smaller requests
+		ByteBuffer e = pool.acquireByteBuffer(AbstractBufferPool.MIN_BUFFER_SIZE * 2);
+		assertNotSame(b, e);
+		assertEquals(1, pool.size());
+		assertEquals(4, pool.getMissCount());
+		pool.releaseByteBuffer(e);
+		assertSame(b, pool.acquireByteBuffer(10));
+		assertSame(e, pool.acquireByteBuffer(AbstractBufferPool.MIN_BUFFER_SIZE + 1));
+		assertEquals(0, pool.size());
+		assertEquals(3, pool.getHitCount());
+		assertEquals(4, pool.getMissCount());
+	}
+	
+	/**
+	 * Tests if the thread-local pool re-uses buffers
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void threadLocal() throws Exception {
+		final ThreadLocalBufferPool pool = new ThreadLocalBufferPool(1);
+		final ByteBuffer a = pool.acquireByteBuffer(10);
+		pool.releaseByteBuffer(a);
+		pool.releaseByteBuffer(pool.acquireByteBuffer(10));
+		assertEquals(1, pool.getHitCount());
+		
+		//other threads should not get the same buffer
+		final ByteBuffer[] other = new ByteBuffer[1];
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				other[0] = pool.acquireByteBuffer(10);
+			}
+		};
+		t.start();
+		t.join();
+		assertNotSame(a, other[0]);
+		assertEquals(1, pool.getHitCount());
+		assertEquals(2, pool.getMissCount());
+		assertSame(a, pool.acquireByteBuffer(10));
+	}
+	
+	/**
+	 * Tests if direct buffers are pooled separately
+	 */
+	@Test
+	public void direct() {
+		SharedBufferPool pool = new SharedBufferPool();
+		ByteBuffer a = pool.acquireDirectByteBuffer(10);
+		ByteBuffer b = pool.acquireByteBuffer(10);
+		assertTrue(a.isDirect());
+		assertFalse(b.isDirect());
+		pool.releaseByteBuffer(a);
+		pool.releaseByteBuffer(b);
+		assertSame(b, pool.acquireByteBuffer(10));
+		assertSame(a, pool.acquireDirectByteBuffer(10));
+		
+		ThreadLocalBufferPool tlpool = new ThreadLocalBufferPool();
+		a = tlpool.acquireDirectByteBuffer(10);
+		b = tlpool.acquireByteBuffer(10);
+		tlpool.releaseByteBuffer(a);
+		tlpool.releaseByteBuffer(b);
+		assertSame(a, tlpool.acquireDirectByteBuffer(10));
+		assertSame(b, tlpool.acquireByteBuffer(10));
+	}
+	
+	/**
+	 * Tests if the non-recycling pool always allocates new buffers
+	 */
+	@Test
+	public void nonRecycling() {
+		BufferPool pool = new NonRecyclingBufferPool();
+		ByteBuffer a = pool.acquireByteBuffer(10);
+		pool.releaseByteBuffer(a);
+		assertNotSame(a, pool.acquireByteBuffer(10));
+		assertEquals(0, pool.getHitCount());
+		assertEquals(2, pool.getMissCount());
+	}
+	
+	/**
+	 * Tests if parsers and generators created by a factory use
+	 * the configured pool
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void factory() throws Exception {
+		SharedBufferPool pool = new SharedBufferPool();
+		BsonFactory fac = new BsonFactory();
+		fac.setBufferPool(pool);
+		assertSame(pool, fac.getBufferPool());
+		ObjectMapper om = new ObjectMapper(fac);
+		
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("a", "Hello world");
+		for (int i = 0; i < 5; ++i) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			om.writeValue(baos, data);
+			assertEquals(data, om.readValue(
+					new ByteArrayInputStream(baos.toByteArray()), Map.class));
+		}
+		
+		//generators and parsers are used one after the other, so
+		//they can all share the same buffer
+		assertEquals(1, pool.getMissCount());
+		assertEquals(9, pool.getHitCount());
+		assertEquals(1, pool.size());
+	}
+	
+	/**
+	 * Tests if parsers release their buffers when they are closed,
+	 * even if they do not close their input stream
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void parserWithoutAutoClose() throws Exception {
+		SharedBufferPool pool = new SharedBufferPool();
+		BsonFactory fac = new BsonFactory();
+		fac.setBufferPool(pool);
+		fac.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+		ObjectMapper om = new ObjectMapper(fac);
+		
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("a", "Hello world");
+		byte[] bson = om.writeValueAsBytes(data);
+		long misses = pool.getMissCount();
+		long hits = pool.getHitCount();
+		for (int i = 0; i < 5; ++i) {
+			JsonParser p = fac.createParser(new ByteArrayInputStream(bson));
+			assertEquals(data, p.readValueAs(Map.class));
+			p.close();
+			assertTrue(p.isClosed());
+			//closing twice must not release the buffer again
+			p.close();
+			assertEquals(1, pool.size());
+		}
+		assertEquals(misses, pool.getMissCount());
+		assertEquals(hits + 5, pool.getHitCount());
+	}
+	
+	/**
+	 * Tests if {@link DynamicOutputBuffer} releases all its
+	 * buffers when it is cleared
+	 */
+	@Test
+	public void dynamicOutputBuffer() {
+		SharedBufferPool pool = new SharedBufferPool();
+		DynamicOutputBuffer db = new DynamicOutputBuffer(ByteOrder.LITTLE_ENDIAN, 16);
+		db.setBufferPool(pool);
+		db.putBytes(new byte[100], 0, 100);
+		assertEquals(7, pool.getMissCount());
+		db.clear();
+		assertEquals(7, pool.size());
+		db.putBytes(new byte[100], 0, 100);
+		assertEquals(7, pool.getHitCount());
+		assertTrue(pool.size() == 0);
+	}
+	
+	/**
+	 * Tests if buffer sizes are rounded up to powers of two and if the
+	 * thread-local pool finds large buffers behind small ones
+	 */
+	@Test
+	public void sizeClasses() {
+		ThreadLocalBufferPool pool = new ThreadLocalBufferPool(2);
+		ByteBuffer large = pool.acquireByteBuffer(AbstractBufferPool.MIN_BUFFER_SIZE * 3);
+		assertEquals(AbstractBufferPool.MIN_BUFFER_SIZE * 4, large.capacity());
+		ByteBuffer small = pool.acquireByteBuffer(10);
+		assertEquals(AbstractBufferPool.MIN_BUFFER_SIZE, small.capacity());
+		
+		pool.releaseByteBuffer(large);
+		pool.releaseByteBuffer(small);
+		assertSame(large, pool.acquireByteBuffer(AbstractBufferPool.MIN_BUFFER_SIZE * 2));
+		assertSame(small, pool.acquireByteBuffer(10));
+		assertEquals(2, pool.getHitCount());
+	}
+}
@@ -14,15 +14,20 @@
 
 package org.litote.bson4jackson.io;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 
 import org.junit.Test;
 
@@ -244,6 +249,59 @@ public class DynamicOutputBufferTest {
 		assertEquals('b', r[9]);
 	}
 	
+	@Test
+	public void putDecimal() throws Exception {
+		DynamicOutputBuffer db = new DynamicOutputBuffer(2);
+		assertEquals(1, db.putDecimal(0));
+		assertEquals(5, db.putDecimal(12345));
+		assertEquals(10, db.putDecimal(Integer.MAX_VALUE));
+		assertEquals(16, db.size());
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		db.writeTo(baos);
+		assertEquals("0123452147483647", new String(baos.toByteArray(), "US-ASCII"));
+	}
+	
+	@Test
+	public void putBytesBulk() throws Exception {
+		byte[] data = new byte[100];
+		for (int i = 0; i < data.length; ++i) {
+			data[i] = (byte)i;
+		}
+		DynamicOutputBuffer db = new DynamicOutputBuffer(16);
+		db.putByte((byte)-1);
+		db.putBytes(data, 10, 50);
+		db.putBytes(data, 0, 0);
+		db.putByte((byte)-2);
+		assertEquals(52, db.size());
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		db.writeTo(baos);
+		byte[] r = baos.toByteArray();
+		assertEquals(52, r.length);
+		assertEquals(-1, r[0]);
+		for (int i = 0; i < 50; ++i) {
+			assertEquals(i + 10, r[i + 1]);
+		}
+		assertEquals(-2, r[51]);
+	}
+	
+	@Test
+	public void direct() throws Exception {
+		DynamicOutputBuffer db = new DynamicOutputBuffer(ByteOrder.LITTLE_ENDIAN, 3);
+		db.setDirect(true);
+		db.putInt(0x01020304);
+		db.putUTF8("a\u20AC");
+		db.putBytes(new byte[] { 5, 6, 7, 8, 9 }, 1, 3);
+		db.putInt(0, 0x0A0B0C0D);
+		assertEquals(11, db.size());
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		db.writeTo(baos);
+		assertArrayEquals(new byte[] { 0x0D, 0x0C, 0x0B, 0x0A, 'a', (byte)0xE2,
+				(byte)0x82, (byte)0xAC, 6, 7, 8 }, baos.toByteArray());
+	}
+	
 	@Test
 	public void putRandom() throws Exception {
 		DynamicOutputBuffer db = new DynamicOutputBuffer(2);
@@ -338,4 +396,167 @@ public class DynamicOutputBufferTest {
 		String s = String.valueOf(c);
 		assertEquals("Hello", s);
 	}
+	
+	/**
+	 * A channel that collects all bytes written and accepts only a
+	 * limited number of bytes per call, just like a non-blocking channel
+	 */
+	private static class LimitedGatheringChannel implements GatheringByteChannel {
+		private final ByteArrayOutputStream _out = new ByteArrayOutputStream();
+		private final int _limit;
+		private int _gatherCalls;
+		
+		LimitedGatheringChannel(int limit) {
+			_limit = limit;
+		}
+		
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length) {
+			++_gatherCalls;
+			int written = 0;
+			for (int i = offset; i < offset + length && written < _limit; ++i) {
+				while (srcs[i].hasRemaining() && written < _limit) {
+					_out.write(srcs[i].get());
+					++written;
+				}
+			}
+			return written;
+		}
+		
+		@Override
+		public long write(ByteBuffer[] srcs) {
+			return write(srcs, 0, srcs.length);
+		}
+		
+		@Override
+		public int write(ByteBuffer src) {
+			throw new AssertionError("Expected gathering write");
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+		
+		@Override
+		public void close() {
+			//nothing to do here
+		}
+	}
+	
+	@Test
+	public void gatheringWrite() throws Exception {
+		DynamicOutputBuffer db = new DynamicOutputBuffer(4);
+		byte[] expected = new byte[18];
+		for (int i = 0; i < expected.length; ++i) {
+			expected[i] = (byte)i;
+			db.putByte((byte)i);
+		}
+		
+		LimitedGatheringChannel ch = new LimitedGatheringChannel(100);
+		db.writeTo(ch);
+		assertArrayEquals(expected, ch._out.toByteArray());
+		assertEquals(1, ch._gatherCalls);
+		
+		ch = new LimitedGatheringChannel(5);
+		db.writeTo(ch);
+		assertArrayEquals(expected, ch._out.toByteArray());
+		assertEquals(4, ch._gatherCalls);
+	}
+	
+	@Test
+	public void gatheringFlush() throws Exception {
+		DynamicOutputBuffer db = new DynamicOutputBuffer(4);
+		byte[] expected = new byte[18];
+		for (int i = 0; i < expected.length; ++i) {
+			expected[i] = (byte)i;
+			db.putByte((byte)i);
+		}
+		
+		LimitedGatheringChannel ch = new LimitedGatheringChannel(3);
+		db.flushTo(ch);
+		assertEquals(16, ch._out.size());
+		assertEquals(6, ch._gatherCalls);
+		
+		db.putByte((byte)18);
+		db.writeTo(ch);
+		byte[] r = ch._out.toByteArray();
+		assertEquals(19, r.length);
+		for (int i = 0; i < r.length; ++i) {
+			assertEquals((byte)i, r[i]);
+		}
+	}
+	
+	@Test
+	public void toByteArray() throws Exception {
+		for (boolean direct : new boolean[] { false, true }) {
+			DynamicOutputBuffer db = new DynamicOutputBuffer(4);
+			db.setDirect(direct);
+			byte[] expected = new byte[10];
+			for (int i = 0; i < expected.length; ++i) {
+				expected[i] = (byte)i;
+				db.putByte((byte)i);
+			}
+			assertArrayEquals(expected, db.toByteArray());
+			
+			byte[] arr = new byte[12];
+			assertEquals(10, db.writeTo(arr, 1));
+			assertArrayEquals(expected, Arrays.copyOfRange(arr, 1, 11));
+			try {
+				db.writeTo(arr, 3);
+				fail("Array should be too small");
+			} catch (IndexOutOfBoundsException e) {
+				//this is what we expect
+			}
+			
+			ByteBuffer bb = ByteBuffer.allocateDirect(12);
+			bb.put((byte)0xFF);
+			assertEquals(10, db.writeTo(bb));
+			assertEquals(11, bb.position());
+			bb.flip();
+			bb.get();
+			byte[] r = new byte[10];
+			bb.get(r);
+			assertArrayEquals(expected, r);
+			bb.clear();
+			bb.position(3);
+			try {
+				db.writeTo(bb);
+				fail("Byte buffer should be too small");
+			} catch (BufferOverflowException e) {
+				assertEquals(3, bb.position());
+			}
+			
+			//the buffer must still be writable
+			db.putByte((byte)10);
+			assertEquals(11, db.toByteArray().length);
+			
+			//flushed buffers must not be copied
+			db.flushTo(new ByteArrayOutputStream());
+			assertArrayEquals(new byte[] { 8, 9, 10 }, db.toByteArray());
+		}
+	}
+	
+	@Test
+	public void setBufferSize() throws Exception {
+		DynamicOutputBuffer db = new DynamicOutputBuffer(4);
+		db.setBufferSize(2);
+		assertEquals(2, db.getBufferSize());
+		db.putInt(0x01020304);
+		assertEquals(2, db._buffers.size());
+		try {
+			db.setBufferSize(8);
+			fail("Buffer size should not be changeable");
+		} catch (IllegalStateException e) {
+			//this is what we expect
+		}
+		db.setBufferSize(2);
+		
+		db.clear();
+		db.setBufferSize(8);
+		db.putInt(0x01020304);
+		db.putInt(0x05060708);
+		assertEquals(1, db._buffers.size());
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }, db.toByteArray());
+	}
 }
@@ -0,0 +1,97 @@
+// Copyright 2010-2017 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link FieldNameCanonicalizer}
+ * @author Michel Kraemer
+ */
+public class FieldNameCanonicalizerTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static String add(FieldNameCanonicalizer c, String name) {
+		byte[] b = name.getBytes(UTF8);
+		return c.add(b, 0, b.length, new String(name));
+	}
+
+	private static String lookup(FieldNameCanonicalizer c, String name) {
+		byte[] b = ("xx" + name + "yy").getBytes(UTF8);
+		return c.lookup(b, 2, b.length - 4);
+	}
+
+	@Test
+	public void addAndLookup() throws Exception {
+		FieldNameCanonicalizer c = new FieldNameCanonicalizer(false);
+		assertNull(lookup(c, "name"));
+		String n1 = add(c, "name");
+		assertSame(n1, lookup(c, "name"));
+		assertSame(n1, add(c, "name"));
+		assertNull(lookup(c, "nam"));
+		assertNull(lookup(c, "names"));
+		assertNull(lookup(c, ""));
+		String n2 = add(c, "\u20AC");
+		assertSame(n2, lookup(c, "\u20AC"));
+		assertEquals(2, c.size());
+	}
+
+	@Test
+	public void intern() throws Exception {
+		FieldNameCanonicalizer c = new FieldNameCanonicalizer(true);
+		assertSame("field", add(c, "field"));
+		assertSame("field", lookup(c, "field"));
+	}
+
+	@Test
+	public void grow() throws Exception {
+		FieldNameCanonicalizer c = new FieldNameCanonicalizer(false);
+		String[] names = new String[1000];
+		for (int i = 0; i < names.length; ++i) {
+			names[i] = add(c, "field" + i);
+		}
+		assertEquals(names.length, c.size());
+		for (int i = 0; i < names.length; ++i) {
+			assertSame(names[i], lookup(c, "field" + i));
+		}
+	}
+
+	@Test
+	public void maxSize() throws Exception {
+		FieldNameCanonicalizer c = new FieldNameCanonicalizer(false, 2);
+		add(c, "a");
+		add(c, "b");
+		assertEquals("c", add(c, "c"));
+		assertNull(lookup(c, "c"));
+		assertEquals(2, c.size());
+	}
+
+	@Test
+	public void noInternIfFull() throws Exception {
+		FieldNameCanonicalizer c = new FieldNameCanonicalizer(true, 1);
+		assertSame("a", add(c, "a"));
+		String n = add(c, "b");
+		assertEquals("b", n);
+		assertNotSame("b", n);
+		assertEquals(1, c.size());
+	}
+}
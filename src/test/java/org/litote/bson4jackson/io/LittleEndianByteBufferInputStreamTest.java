@@ -0,0 +1,222 @@
+// Copyright 2010-2017 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.litote.bson4jackson.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CharacterCodingException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link LittleEndianByteBufferInputStream}
+ * @author Michel Kraemer
+ */
+public class LittleEndianByteBufferInputStreamTest {
+	/**
+	 * Some test data
+	 */
+	private static final byte[] DATA = new byte[] { (byte)0x66, (byte)0x77,
+		(byte)0x88, (byte)0x99, (byte)0xAA, (byte)0xBB, (byte)0xCC, (byte)0xDD,
+		(byte)0x00, (byte)0x01 };
+
+	/**
+	 * The input stream to test
+	 */
+	private LittleEndianByteBufferInputStream _leis;
+
+	@Before
+	public void setUp() {
+		_leis = new LittleEndianByteBufferInputStream(DATA);
+	}
+
+	@Test
+	public void readByte() throws Exception {
+		assertEquals((byte)0x66, _leis.readByte());
+		assertEquals(1, _leis.getPosition());
+	}
+
+	@Test
+	public void readFully() throws Exception {
+		byte[] r1 = new byte[4];
+		byte[] r2 = new byte[12];
+		_leis.readFully(r1);
+		_leis.readFully(r2, 4, 4);
+		assertEquals((byte)0x66, r1[0]);
+		assertEquals((byte)0x77, r1[1]);
+		assertEquals((byte)0x88, r1[2]);
+		assertEquals((byte)0x99, r1[3]);
+		assertEquals((byte)0xAA, r2[4]);
+		assertEquals((byte)0xBB, r2[5]);
+		assertEquals((byte)0xCC, r2[6]);
+		assertEquals((byte)0xDD, r2[7]);
+		assertEquals(8, _leis.getPosition());
+	}
+
+	@Test(expected = EOFException.class)
+	public void readFullyEOF() throws Exception {
+		_leis.readFully(new byte[11]);
+	}
+
+	@Test
+	public void skipBytes() throws Exception {
+		assertEquals(4, _leis.skip(4));
+		assertEquals((byte)0xAA, _leis.readByte());
+		assertEquals(5, _leis.skip(10));
+		assertEquals(-1, _leis.read());
+	}
+
+	@Test
+	public void readBoolean() throws Exception {
+		assertEquals(8, _leis.skipBytes(8));
+		assertEquals(false, _leis.readBoolean());
+		assertEquals(true, _leis.readBoolean());
+	}
+
+	@Test
+	public void readShort() throws Exception {
+		assertEquals(4, _leis.skipBytes(4));
+		assertEquals((short)0xBBAA, _leis.readShort());
+	}
+
+	@Test
+	public void readUnsignedShort() throws Exception {
+		assertEquals(4, _leis.skipBytes(4));
+		assertEquals(0xBBAA, _leis.readUnsignedShort());
+	}
+
+	@Test
+	public void readInt() throws Exception {
+		assertEquals(0x99887766, _leis.readInt());
+		assertEquals(0xDDCCBBAA, _leis.readInt());
+	}
+
+	@Test(expected = EOFException.class)
+	public void readIntEOF() throws Exception {
+		_leis.skipBytes(8);
+		_leis.readInt();
+	}
+
+	@Test
+	public void readLong() throws Exception {
+		assertEquals(0xDDCCBBAA99887766L, _leis.readLong());
+	}
+
+	@Test
+	public void readDouble() throws Exception {
+		byte[] b = new byte[8];
+		ByteBuffer bb = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+		bb.putDouble(1234.1234);
+		LittleEndianByteBufferInputStream leis = new LittleEndianByteBufferInputStream(b);
+		assertEquals(1234.1234, leis.readDouble(), 0.00001);
+	}
+
+	@Test
+	public void offset() throws Exception {
+		LittleEndianByteBufferInputStream leis =
+				new LittleEndianByteBufferInputStream(DATA, 4, 4);
+		assertEquals(0xDDCCBBAA, leis.readInt());
+		assertEquals(4, leis.getPosition());
+		assertEquals(-1, leis.read());
+	}
+
+	@Test
+	public void directBuffer() throws Exception {
+		ByteBuffer bb = ByteBuffer.allocateDirect(DATA.length);
+		bb.put(DATA);
+		bb.position(2);
+		LittleEndianByteBufferInputStream leis = new LittleEndianByteBufferInputStream(bb);
+		assertEquals(0xBBAA9988, leis.readInt());
+		byte[] r = new byte[2];
+		leis.readFully(r);
+		assertEquals((byte)0xCC, r[0]);
+		assertEquals((byte)0xDD, r[1]);
+
+		//the original buffer must not have been modified
+		assertEquals(2, bb.position());
+		assertEquals(ByteOrder.BIG_ENDIAN, bb.order());
+	}
+
+	@Test
+	public void markReset() throws Exception {
+		_leis.readByte();
+		_leis.mark(4);
+		assertEquals(0xAA998877, _leis.readInt());
+		_leis.reset();
+		assertEquals((byte)0x77, _leis.readByte());
+		assertEquals(2, _leis.getPosition());
+	}
+
+	@Test
+	public void readLine() throws Exception {
+		byte[] b = new byte[] { 'H', 'e', 'l', 'l', 'o', '\r',
+				'W', 'o', 'r', 'l', 'd', '\r', '\n' };
+		LittleEndianByteBufferInputStream leis = new LittleEndianByteBufferInputStream(b);
+		assertEquals("Hello", leis.readLine());
+		assertEquals("World", leis.readLine());
+		assertNull(leis.readLine());
+	}
+
+	private LittleEndianByteBufferInputStream outputBufferToInputStream(
+			DynamicOutputBuffer db) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		db.writeTo(baos);
+		return new LittleEndianByteBufferInputStream(baos.toByteArray());
+	}
+
+	@Test
+	public void readUTF() throws Exception {
+		DynamicOutputBuffer db = new DynamicOutputBuffer(20);
+		db.putUTF8("Helloa\u20AC\u00A2\u00A2bb");
+		LittleEndianByteBufferInputStream leis = outputBufferToInputStream(db);
+		assertEquals("Hello", leis.readUTF(5));
+		assertEquals("a\u20AC\u00A2\u00A2bb", leis.readUTF(db.size() - 5));
+		assertEquals(db.size(), leis.getPosition());
+	}
+
+	@Test(expected = CharacterCodingException.class)
+	public void readUTFError() throws Exception {
+		DynamicOutputBuffer db = new DynamicOutputBuffer(20);
+		db.putUTF8("a\u00A2");
+		LittleEndianByteBufferInputStream leis = outputBufferToInputStream(db);
+		leis.readUTF(2);
+	}
+
+	@Test
+	public void readZeroTerminatedUTF() throws Exception {
+		DynamicOutputBuffer db = new DynamicOutputBuffer(20);
+		db.putUTF8("Hello");
+		db.putByte((byte)0);
+		db.putUTF8("\u20AC");
+		db.putByte((byte)0);
+		LittleEndianByteBufferInputStream leis = outputBufferToInputStream(db);
+		assertEquals("Hello", leis.readUTF(-1));
+		assertEquals("\u20AC", leis.readUTF(-1));
+		assertEquals(db.size(), leis.getPosition());
+	}
+
+	@Test(expected = EOFException.class)
+	public void readZeroTerminatedUTFEOF() throws Exception {
+		LittleEndianByteBufferInputStream leis =
+				new LittleEndianByteBufferInputStream(new byte[] { 'a', 'b' });
+		leis.readUTF(-1);
+	}
+}
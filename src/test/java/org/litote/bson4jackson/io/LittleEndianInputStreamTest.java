@@ -17,9 +17,12 @@ package org.litote.bson4jackson.io;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.CharacterCodingException;
@@ -215,4 +218,114 @@ public class LittleEndianInputStreamTest {
 		LittleEndianInputStream leis = outputBufferToInputStream(db);
 		assertEquals("Hello", leis.readUTF(-1));
 	}
+	
+	@Test
+	public void readLongUTF() throws Exception {
+		StringBuilder ascii = new StringBuilder();
+		StringBuilder mixed = new StringBuilder();
+		for (int i = 0; i < 1000; ++i) {
+			ascii.append((char)('a' + i % 26));
+			mixed.append(i % 3 == 0 ? '\u20AC' : (char)('A' + i % 26));
+		}
+		
+		DynamicOutputBuffer db = new DynamicOutputBuffer(20);
+		db.putUTF8("ab");
+		db.putByte((byte)0);
+		db.putUTF8(ascii.toString());
+		db.putByte((byte)0);
+		int mixedLen = db.putUTF8(mixed.toString());
+		db.putUTF8(mixed.toString());
+		db.putByte((byte)0);
+		db.putUTF8("c\u00A2");
+		LittleEndianInputStream leis = outputBufferToInputStream(db);
+		assertEquals("ab", leis.readUTF(-1));
+		assertEquals(ascii.toString(), leis.readUTF(-1));
+		assertEquals(mixed.toString(), leis.readUTF(mixedLen));
+		assertEquals(mixed.toString(), leis.readUTF(-1));
+		assertEquals("c\u00A2", leis.readUTF(3));
+	}
+	
+	/**
+	 * Reads null-terminated strings spanning several refills of a
+	 * {@link StaticBufferedInputStream} and checks that streams in
+	 * between still see every byte
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void readBufferedCString() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; ++i) {
+			sb.append(i % 3 == 0 ? '\u20AC' : (char)('a' + i % 26));
+		}
+		
+		DynamicOutputBuffer db = new DynamicOutputBuffer(20);
+		db.putUTF8("");
+		db.putByte((byte)0);
+		int len = db.putUTF8(sb.toString());
+		db.putByte((byte)0);
+		db.putUTF8("abc");
+		db.putByte((byte)0);
+		db.putUTF8("de");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		db.writeTo(baos);
+		
+		StaticBufferedInputStream sbis = new StaticBufferedInputStream(
+				new ByteArrayInputStream(baos.toByteArray()), 16,
+				new SharedBufferPool(1));
+		CountingInputStream cis = new CountingInputStream(sbis);
+		LittleEndianInputStream leis = new LittleEndianInputStream(cis, sbis);
+		assertEquals("", leis.readUTF(-1));
+		assertEquals(1, cis.getPosition());
+		assertEquals(sb.toString(), leis.readUTF(-1));
+		assertEquals(len + 2, cis.getPosition());
+		assertEquals("abc", leis.readCString(new FieldNameCanonicalizer()));
+		assertEquals(len + 6, cis.getPosition());
+		try {
+			leis.readUTF(-1);
+			fail("Unterminated string must not be read");
+		} catch (EOFException e) {
+			//expected
+		}
+	}
+	
+	/**
+	 * Checks that string buffers made large by a long string are not kept
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void trimBuffers() throws Exception {
+		DynamicOutputBuffer db = new DynamicOutputBuffer(20);
+		db.putUTF8("a");
+		db.putByte((byte)0);
+		LittleEndianInputStream leis = outputBufferToInputStream(db);
+		leis.readUTF(-1);
+		byte[] small = leis._stringBuf;
+		leis.trimBuffers();
+		assertSame(small, leis._stringBuf);
+		
+		char[] chars = new char[LittleEndianInputStream.MAX_RETAINED_BUFFER_SIZE];
+		Arrays.fill(chars, '\u00A2');
+		db = new DynamicOutputBuffer(20);
+		int len = db.putUTF8(new String(chars));
+		leis = outputBufferToInputStream(db);
+		leis.readUTF(len);
+		leis.trimBuffers();
+		assertNull(leis._stringBuf);
+		assertNull(leis._charBuf);
+	}
+	
+	@Test(expected = CharacterCodingException.class)
+	public void readZeroTerminatedUTFError() throws Exception {
+		DynamicOutputBuffer db = new DynamicOutputBuffer(20);
+		db.putUTF8("a\u00A2");
+		db.putByte((byte)0);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		db.writeTo(baos);
+		byte[] b = baos.toByteArray();
+		//remove second byte of the two-byte sequence
+		b[2] = 0;
+		LittleEndianInputStream leis = new LittleEndianInputStream(
+				new ByteArrayInputStream(b));
+		leis.readUTF(-1);
+	}
 }
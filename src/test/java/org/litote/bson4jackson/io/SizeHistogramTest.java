@@ -0,0 +1,80 @@
+// Copyright 2010-2011 Michel Kraemer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.litote.bson4jackson.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link SizeHistogram}
+ * @author Michel Kraemer
+ */
+public class SizeHistogramTest {
+	/**
+	 * Tests if sizes are counted in the right buckets
+	 */
+	@Test
+	public void buckets() {
+		assertEquals(0, SizeHistogram.getBucket(0));
+		assertEquals(0, SizeHistogram.getBucket(1));
+		assertEquals(1, SizeHistogram.getBucket(2));
+		assertEquals(2, SizeHistogram.getBucket(3));
+		assertEquals(2, SizeHistogram.getBucket(4));
+		assertEquals(3, SizeHistogram.getBucket(5));
+		assertEquals(10, SizeHistogram.getBucket(1024));
+		assertEquals(11, SizeHistogram.getBucket(1025));
+		assertEquals(31, SizeHistogram.getBucket(Integer.MAX_VALUE));
+		assertEquals(1024L, SizeHistogram.getBucketUpperBound(10));
+		
+		SizeHistogram h = new SizeHistogram();
+		h.record(3);
+		h.record(4);
+		h.record(100);
+		assertEquals(3, h.getCount());
+		assertEquals(107 / 3.0, h.getMean(), 0.0001);
+		long[] expected = new long[SizeHistogram.BUCKET_COUNT];
+		expected[2] = 2;
+		expected[7] = 1;
+		assertArrayEquals(expected, h.getBucketCounts());
+		assertEquals(1, h.getBucketCount(7));
+		assertEquals("count=3, mean=36, buckets={<=4: 2, <=128: 1}", h.toString());
+		
+		h.clear();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getMean(), 0.0);
+		assertArrayEquals(new long[SizeHistogram.BUCKET_COUNT], h.getBucketCounts());
+	}
+	
+	/**
+	 * Tests if percentiles are estimated correctly
+	 */
+	@Test
+	public void percentile() {
+		SizeHistogram h = new SizeHistogram();
+		assertEquals(0, h.getPercentile(0.9));
+		for (int i = 0; i < 9; ++i) {
+			h.record(500);
+		}
+		h.record(100000);
+		assertEquals(512, h.getPercentile(0.0));
+		assertEquals(512, h.getPercentile(0.5));
+		assertEquals(512, h.getPercentile(0.9));
+		assertEquals(131072, h.getPercentile(0.91));
+		assertEquals(131072, h.getPercentile(1.0));
+	}
+}
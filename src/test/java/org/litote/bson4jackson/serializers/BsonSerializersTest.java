@@ -29,6 +29,8 @@ import java.util.regex.Pattern;
 import org.bson.BSONDecoder;
 import org.bson.BSONObject;
 import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
 import org.bson.types.Code;
 import org.bson.types.CodeWScope;
 import org.junit.Ignore;
@@ -40,6 +42,7 @@ import org.litote.bson4jackson.BsonFactory;
 import org.litote.bson4jackson.BsonModule;
 import org.litote.bson4jackson.types.JavaScript;
 import org.litote.bson4jackson.types.ObjectId;
+import org.litote.bson4jackson.types.RawBsonDocument;
 import org.litote.bson4jackson.types.Symbol;
 import org.litote.bson4jackson.types.Timestamp;
 
@@ -172,4 +175,25 @@ public class BsonSerializersTest {
 		Object obj = generateAndParse(uuid);
 		assertEquals(uuid, obj);
 	}
+	
+	/**
+	 * Tests {@link BsonRawDocumentSerializer}
+	 * @throws Exception if something goes wrong
+	 */
+	@Test
+	public void rawDocument() throws Exception {
+		BSONObject doc = new BasicBSONObject();
+		doc.put("a", 1);
+		doc.put("b", "Hello");
+		doc.put("c", new BasicBSONObject("d", true));
+		byte[] b = new BasicBSONEncoder().encode(doc);
+		RawBsonDocument raw = new RawBsonDocument(b);
+		assertEquals(doc, generateAndParse(raw));
+		
+		//serialize to JSON
+		ObjectMapper om = new ObjectMapper();
+		om.registerModule(new BsonModule());
+		assertEquals("{\"a\":1,\"b\":\"Hello\",\"c\":{\"d\":true}}",
+				om.writeValueAsString(raw));
+	}
 }